@@ -0,0 +1,237 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.benchmarks;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.stratio.connector.irc.manager.IRCManager;
+import com.stratio.connector.irc.manager.IRCOptions;
+import com.stratio.crossdata.common.data.ClusterName;
+import com.stratio.crossdata.common.data.ColumnName;
+import com.stratio.crossdata.common.data.TableName;
+import com.stratio.crossdata.common.logicalplan.Filter;
+import com.stratio.crossdata.common.logicalplan.LogicalStep;
+import com.stratio.crossdata.common.logicalplan.LogicalWorkflow;
+import com.stratio.crossdata.common.logicalplan.Project;
+import com.stratio.crossdata.common.logicalplan.Select;
+import com.stratio.crossdata.common.metadata.ColumnType;
+import com.stratio.crossdata.common.metadata.Operations;
+import com.stratio.crossdata.common.statements.structures.ColumnSelector;
+import com.stratio.crossdata.common.statements.structures.Operator;
+import com.stratio.crossdata.common.statements.structures.Relation;
+import com.stratio.crossdata.common.statements.structures.StringSelector;
+
+/**
+ * Connector cluster fed with synthetic traffic by an in-process {@link FakeIRCServer}, and the logical workflows
+ * the benchmarks run against it. Every message travels through a loopback connection, no network is needed.
+ */
+public class BenchmarkFixture implements AutoCloseable {
+
+    public static final String CATALOG = "irc";
+
+    public static final String CHANNEL = "bench";
+
+    private static final long TIMEOUT = 120000;
+
+    private static final String[] WORDS = {
+            "hello", "deploy", "crossdata", "connector", "query", "failed", "restart", "the", "a", "ok",
+            "build", "green", "red", "merge", "review", "please", "thanks", "lunch", "ping", "pong" };
+
+    private final FakeIRCServer server;
+    private final IRCManager manager;
+    private final ClusterName cluster = new ClusterName("bench_cluster");
+    private final TableName table = new TableName(CATALOG, CHANNEL);
+
+    /**
+     * Start a server and connect a manager that joins the benchmark channel.
+     * @param options The options of the manager. Channel capacity options are added when missing.
+     * @throws Exception If the server cannot be started or the manager cannot join the channel.
+     */
+    public BenchmarkFixture(Map<String, String> options) throws Exception {
+        this.server = new FakeIRCServer(0);
+        Map<String, String> managerOptions = new HashMap<>(options);
+        if (!managerOptions.containsKey(IRCOptions.CHANNEL_MAX_BYTES)) {
+            managerOptions.put(IRCOptions.CHANNEL_MAX_BYTES, String.valueOf(Long.MAX_VALUE));
+        }
+        if (!managerOptions.containsKey(IRCOptions.CLIENT)) {
+            managerOptions.put(IRCOptions.CLIENT, "nio");
+        }
+        this.manager = new IRCManager("localhost:" + server.getPort(), "benchbot", new IRCOptions(managerOptions));
+        manager.connect();
+        manager.joinChannel(CHANNEL);
+        awaitMembers(server, "#" + CHANNEL);
+    }
+
+    /**
+     * Flood the channel with messages of a few hundred users, and wait until the manager has received them all.
+     * @param messages The number of messages.
+     * @param users The number of distinct users.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void fill(int messages, int users) throws InterruptedException {
+        long received = manager.getMessagesFromChannel(CHANNEL).getEndSequence();
+        server.flood("#" + CHANNEL, messages, users(users), lines(1000, new Random(42)));
+        awaitSequence(manager, CHANNEL, received + messages);
+    }
+
+    public IRCManager getManager() {
+        return manager;
+    }
+
+    public ClusterName getCluster() {
+        return cluster;
+    }
+
+    public TableName getTable() {
+        return table;
+    }
+
+    /**
+     * Get the managers of the fixture keyed by cluster, as the connector passes them to its engines.
+     * @return The managers.
+     */
+    public Map<ClusterName, IRCManager> getManagers() {
+        return Collections.singletonMap(cluster, manager);
+    }
+
+    /**
+     * Build a workflow that projects some columns of the channel, with optional filters.
+     * @param columns The projected columns.
+     * @param filters The filters.
+     * @return The workflow.
+     */
+    public LogicalWorkflow workflow(List<String> columns, Filter... filters) {
+        Project project = new Project(Operations.PROJECT, table, cluster);
+        LogicalStep last = project;
+        for (Filter filter : filters) {
+            last.setNextStep(filter);
+            last = filter;
+        }
+        Map<ColumnName, String> columnMap = new LinkedHashMap<>();
+        Map<String, ColumnType> typeMap = new LinkedHashMap<>();
+        Map<ColumnName, ColumnType> typeMapFromColumnName = new LinkedHashMap<>();
+        for (String column : columns) {
+            ColumnName name = new ColumnName(table, column);
+            columnMap.put(name, column);
+            typeMap.put(column, ColumnType.VARCHAR);
+            typeMapFromColumnName.put(name, ColumnType.VARCHAR);
+        }
+        last.setNextStep(new Select(Operations.SELECT_OPERATOR, columnMap, typeMap, typeMapFromColumnName));
+        return new LogicalWorkflow(Collections.<LogicalStep>singletonList(project));
+    }
+
+    /**
+     * Build a filter that compares a column with a text.
+     * @param column The column.
+     * @param operator The operator.
+     * @param value The text.
+     * @param operation The operation of the manifest the filter belongs to.
+     * @return The filter.
+     */
+    public Filter filter(String column, Operator operator, String value, Operations operation) {
+        return new Filter(operation, new Relation(new ColumnSelector(new ColumnName(table, column)), operator,
+                new StringSelector(value)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        manager.disconnect();
+        server.close();
+    }
+
+    /**
+     * Get the nicks of a number of synthetic users.
+     * @param users The number of users.
+     * @return The nicks.
+     */
+    public static String[] users(int users) {
+        String[] nicks = new String[users];
+        for (int i = 0; i < users; i++) {
+            nicks[i] = "user" + i;
+        }
+        return nicks;
+    }
+
+    /**
+     * Generate chat lines of 3 to 14 common words.
+     * @param lines The number of lines.
+     * @param random The source of the words.
+     * @return The lines.
+     */
+    public static String[] lines(int lines, Random random) {
+        String[] texts = new String[lines];
+        for (int i = 0; i < lines; i++) {
+            StringBuilder line = new StringBuilder();
+            int words = 3 + random.nextInt(12);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    line.append(' ');
+                }
+                line.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            texts[i] = line.toString();
+        }
+        return texts;
+    }
+
+    static void awaitMembers(FakeIRCServer server, String channel) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (server.getMembers(channel) == 0) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Nobody joined " + channel);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    static void awaitMessages(IRCManager manager, String channel, int messages) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (manager.getMessagesFromChannel(channel).size() < messages) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Only " + manager.getMessagesFromChannel(channel).size()
+                        + " messages received in " + channel);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitSequence(IRCManager manager, String channel, long sequence)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (manager.getMessagesFromChannel(channel).getEndSequence() < sequence) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Only " + manager.getMessagesFromChannel(channel).getEndSequence()
+                        + " messages received in " + channel);
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.stratio.connector.irc.manager.IRCManager;
+import com.stratio.connector.irc.manager.IRCOptions;
+
+/**
+ * Measures the ingest throughput of an {@link IRCManager} connected to a {@link FakeIRCServer} that floods its
+ * channels, for a given client implementation and number of managers.
+ *
+ * <p>Usage: {@code ClientIngest [pircbot|nio] [managers] [messages per manager]}</p>
+ */
+public class ClientIngest {
+
+    public static void main(String[] args) throws Exception {
+        String client = args.length > 0 ? args[0] : "nio";
+        int managers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+
+        try (FakeIRCServer server = new FakeIRCServer(0)) {
+            Map<String, String> options = new HashMap<>();
+            options.put(IRCOptions.CLIENT, client);
+            options.put(IRCOptions.CHANNEL_MAX_MESSAGES, String.valueOf(messages));
+            options.put(IRCOptions.CHANNEL_MAX_BYTES, String.valueOf(Long.MAX_VALUE));
+            IRCManager[] connected = new IRCManager[managers];
+            for (int i = 0; i < managers; i++) {
+                connected[i] = new IRCManager("localhost:" + server.getPort(), "bench" + i, new IRCOptions(options));
+                connected[i].connect();
+                connected[i].joinChannel("bench" + i);
+            }
+            for (int i = 0; i < managers; i++) {
+                BenchmarkFixture.awaitMembers(server, "#bench" + i);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < managers; i++) {
+                server.flood("#bench" + i, messages, "benchmark message with a few words");
+            }
+            for (int i = 0; i < managers; i++) {
+                BenchmarkFixture.awaitMessages(connected[i], "bench" + i, messages);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            long total = (long) managers * messages;
+            System.out.printf("%-8s %3d managers %,12d messages %,10.0f messages/s %3d threads%n", client, managers,
+                    total, total / (elapsed / 1e9), Thread.activeCount());
+            for (IRCManager manager : connected) {
+                manager.disconnect();
+            }
+        }
+    }
+}
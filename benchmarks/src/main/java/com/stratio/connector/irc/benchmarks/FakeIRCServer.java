@@ -0,0 +1,291 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Minimal local IRC server to exercise the connector clients without a real network.
+ *
+ * <p>It registers any nick, lists a fixed set of channels, tracks joins and relays PRIVMSG to the other members of
+ * the target channels. {@link #flood(String, int, String)} makes a fake user send messages to a channel.</p>
+ *
+ * <p>Usage: {@code FakeIRCServer [port] [channel...]}</p>
+ */
+public class FakeIRCServer implements AutoCloseable {
+
+    private static final String NAME = "fake.irc";
+
+    private final ServerSocket server;
+    private final Set<String> listed;
+    private final ConcurrentMap<String, Set<Client>> members = new ConcurrentHashMap<>();
+    private final Set<Client> clients = new CopyOnWriteArraySet<>();
+
+    /**
+     * Class constructor. The server starts accepting connections at once.
+     * @param port The port or 0 for any free port.
+     * @param channels The channels returned by LIST.
+     * @throws IOException If the port cannot be bound.
+     */
+    public FakeIRCServer(int port, String... channels) throws IOException {
+        this.server = new ServerSocket(port);
+        this.listed = new CopyOnWriteArraySet<>(Arrays.asList(channels));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "fake-irc-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 6667;
+        String[] channels = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] { "#test" };
+        FakeIRCServer server = new FakeIRCServer(port, channels);
+        System.out.println("Fake IRC server listening on port " + server.getPort());
+        Thread.sleep(Long.MAX_VALUE);
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Get the number of clients that joined a channel.
+     * @param channel The channel name with the leading #.
+     * @return The number of members.
+     */
+    public int getMembers(String channel) {
+        Set<Client> joined = members.get(channel.toLowerCase());
+        return joined == null ? 0 : joined.size();
+    }
+
+    /**
+     * Send messages from a fake user to every member of a channel.
+     * @param channel The channel name with the leading #.
+     * @param messages The number of messages.
+     * @param text The text of the messages, followed by their number.
+     */
+    public void flood(String channel, int messages, String text) {
+        Set<Client> joined = members.get(channel.toLowerCase());
+        if (joined == null) {
+            return;
+        }
+        for (int i = 0; i < messages; i++) {
+            String line = ":flooder!flood@flood.example.org PRIVMSG " + channel + " :" + text + " " + i;
+            for (Client client : joined) {
+                client.send(line);
+            }
+        }
+        for (Client client : joined) {
+            client.flush();
+        }
+    }
+
+    /**
+     * Send messages from several fake users to every member of a channel.
+     * @param channel The channel name with the leading #.
+     * @param messages The number of messages.
+     * @param users The nicks of the senders, taken in turn. Their host is the nick followed by .example.org.
+     * @param texts The texts of the messages, taken in turn.
+     */
+    public void flood(String channel, int messages, String[] users, String[] texts) {
+        Set<Client> joined = members.get(channel.toLowerCase());
+        if (joined == null) {
+            return;
+        }
+        for (int i = 0; i < messages; i++) {
+            String user = users[i % users.length];
+            String line = ":" + user + "!" + user + "@" + user + ".example.org PRIVMSG " + channel + " :"
+                    + texts[i % texts.length];
+            for (Client client : joined) {
+                client.send(line);
+            }
+        }
+        for (Client client : joined) {
+            client.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Client client : clients) {
+            client.close();
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                final Client client = new Client(server.accept());
+                clients.add(client);
+                Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        client.serve();
+                    }
+                }, "fake-irc-client");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private final class Client {
+        private final Socket socket;
+        private final OutputStream output;
+        private String nick = "*";
+
+        private Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.output = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        }
+
+        private void serve() {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    handle(line);
+                    flush();
+                }
+            } catch (IOException e) {
+                // The client went away.
+            } finally {
+                close();
+            }
+        }
+
+        private void handle(String line) {
+            String[] parts = line.split(" ", 3);
+            String command = parts[0].toUpperCase();
+            switch (command) {
+            case "NICK":
+                nick = parts[1];
+                break;
+            case "USER":
+                send(":" + NAME + " 001 " + nick + " :Welcome " + nick);
+                break;
+            case "PING":
+                send(":" + NAME + " PONG " + NAME + " " + (parts.length > 1 ? parts[1] : ""));
+                break;
+            case "LIST":
+                for (String channel : listed) {
+                    send(":" + NAME + " 322 " + nick + " " + channel + " " + getMembers(channel) + " :Fake channel");
+                }
+                send(":" + NAME + " 323 " + nick + " :End of /LIST");
+                break;
+            case "JOIN":
+                for (String channel : parts[1].split(",")) {
+                    Set<Client> joined = members.get(channel.toLowerCase());
+                    if (joined == null) {
+                        joined = new CopyOnWriteArraySet<>();
+                        Set<Client> previous = members.putIfAbsent(channel.toLowerCase(), joined);
+                        joined = previous == null ? joined : previous;
+                    }
+                    joined.add(this);
+                    send(":" + nick + "!" + nick + "@localhost JOIN " + channel);
+                }
+                break;
+            case "PART":
+                for (String channel : parts[1].split(",")) {
+                    Set<Client> joined = members.get(channel.toLowerCase());
+                    if (joined != null && joined.remove(this)) {
+                        send(":" + nick + "!" + nick + "@localhost PART " + channel);
+                    }
+                }
+                break;
+            case "PRIVMSG":
+                String message = parts.length > 2 ? parts[2] : ":";
+                for (String target : parts[1].split(",")) {
+                    Set<Client> joined = members.get(target.toLowerCase());
+                    if (joined == null) {
+                        continue;
+                    }
+                    for (Client member : joined) {
+                        if (member != this) {
+                            member.send(":" + nick + "!" + nick + "@localhost PRIVMSG " + target + " " + message);
+                            member.flush();
+                        }
+                    }
+                }
+                break;
+            case "QUIT":
+                close();
+                break;
+            default:
+                break;
+            }
+        }
+
+        private synchronized void send(String line) {
+            try {
+                output.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private synchronized void flush() {
+            try {
+                output.flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void close() {
+            clients.remove(this);
+            for (Set<Client> joined : members.values()) {
+                joined.remove(this);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed.
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.stratio.connector.irc.manager.ChannelSnapshot;
+import com.stratio.connector.irc.manager.MessageSegment;
+import com.stratio.connector.irc.manager.MessageStore;
+
+/**
+ * Ingest throughput of a channel store, alone and while other threads take snapshots and read the latest message
+ * as queries do. Each operation appends one message the way a connection does when the server relays it.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IngestBenchmark {
+
+    private static final int SAMPLES = 4096;
+
+    /**
+     * Maximum number of messages of the channel, evicted in segments once it is full.
+     */
+    @Param({ "100000", "1000000" })
+    public int capacity;
+
+    @Param({ "300" })
+    public int users;
+
+    private MessageStore store;
+    private String[] senders;
+    private String[] hosts;
+    private byte[][] bodies;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        store = new MessageStore("#" + BenchmarkFixture.CHANNEL, capacity, Long.MAX_VALUE, 10 * 60 * 1000L, 0);
+        Random random = new Random(42);
+        String[] nicks = BenchmarkFixture.users(users);
+        String[] lines = BenchmarkFixture.lines(SAMPLES, random);
+        senders = new String[SAMPLES];
+        hosts = new String[SAMPLES];
+        bodies = new byte[SAMPLES][];
+        for (int i = 0; i < SAMPLES; i++) {
+            senders[i] = nicks[random.nextInt(users)];
+            hosts[i] = senders[i] + ".example.org";
+            bodies[i] = lines[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private void append() {
+        int sample = next++ & (SAMPLES - 1);
+        store.append(System.currentTimeMillis(), senders[sample], hosts[sample], bodies[sample]);
+    }
+
+    @Benchmark
+    @Group("alone")
+    @GroupThreads(1)
+    public void ingestAlone() {
+        append();
+    }
+
+    @Benchmark
+    @Group("readers")
+    @GroupThreads(1)
+    public void ingest() {
+        append();
+    }
+
+    @Benchmark
+    @Group("readers")
+    @GroupThreads(3)
+    public long readLatest() {
+        ChannelSnapshot snapshot = store.snapshot();
+        int last = snapshot.getSegmentCount() - 1;
+        if (last < 0) {
+            return 0;
+        }
+        MessageSegment segment = snapshot.getSegment(last);
+        int row = snapshot.getSegmentSize(last) - 1;
+        return segment.getTimestamp(row) + segment.getUser(row).length();
+    }
+}
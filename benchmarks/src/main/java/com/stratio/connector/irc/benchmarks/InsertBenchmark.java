@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.stratio.connector.irc.engine.IRCStorageEngine;
+import com.stratio.connector.irc.manager.IRCOptions;
+import com.stratio.connector.irc.manager.OutboundQueue;
+import com.stratio.crossdata.common.data.Cell;
+import com.stratio.crossdata.common.data.ColumnName;
+import com.stratio.crossdata.common.data.IndexName;
+import com.stratio.crossdata.common.data.Row;
+import com.stratio.crossdata.common.exceptions.ConnectorException;
+import com.stratio.crossdata.common.metadata.ColumnMetadata;
+import com.stratio.crossdata.common.metadata.IndexMetadata;
+import com.stratio.crossdata.common.metadata.TableMetadata;
+import com.stratio.crossdata.common.statements.structures.Selector;
+
+/**
+ * Sustained throughput of batch inserts, from the rows handed to the storage engine to the lines written to the
+ * fake server. Pacing is disabled, and each batch waits for room in the outbound queue instead of being rejected,
+ * so the score is bound by whichever side is slower.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InsertBenchmark {
+
+    private static final int QUEUE_SIZE = 100000;
+
+    @Param({ "1", "100", "1000" })
+    public int batch;
+
+    private BenchmarkFixture fixture;
+    private IRCStorageEngine storage;
+    private TableMetadata table;
+    private OutboundQueue queue;
+    private List<Row> rows;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put(IRCOptions.SEND_QUEUE_SIZE, String.valueOf(QUEUE_SIZE));
+        options.put(IRCOptions.SEND_INTERVAL, "0");
+        options.put(IRCOptions.SEND_BURST, String.valueOf(QUEUE_SIZE));
+        fixture = new BenchmarkFixture(options);
+        storage = new IRCStorageEngine(fixture.getManagers());
+        table = new TableMetadata(fixture.getTable(), new LinkedHashMap<Selector, Selector>(),
+                new LinkedHashMap<ColumnName, ColumnMetadata>(), new LinkedHashMap<IndexName, IndexMetadata>(),
+                fixture.getCluster(), new ArrayList<ColumnName>(), new ArrayList<ColumnName>());
+        queue = fixture.getManager().getOutboundQueues().get(0);
+        rows = new ArrayList<>(batch);
+        for (String line : BenchmarkFixture.lines(batch, new Random(42))) {
+            rows.add(new Row("message", new Cell(line)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void insert() throws ConnectorException {
+        while (queue.getQueueDepth() > QUEUE_SIZE - batch) {
+            Thread.yield();
+        }
+        storage.insert(fixture.getCluster(), table, rows);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.benchmarks;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import com.stratio.connector.irc.manager.MessageStore;
+
+/**
+ * Compares the retained heap of the columnar {@link MessageStore} against a plain list of messages in the layout
+ * the connector used before the store, holding the same synthetic channel traffic.
+ *
+ * <p>Usage: {@code MessageStoreFootprint [messages] [users]}</p>
+ */
+public class MessageStoreFootprint {
+
+    private static final String CHANNEL = "#benchmark";
+
+    private static final String[] WORDS = {
+            "hello", "deploy", "crossdata", "connector", "query", "failed", "restart", "the", "a", "ok",
+            "build", "green", "red", "merge", "review", "please", "thanks", "lunch", "ping", "pong" };
+
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+        long baseline = usedHeap();
+        List<BaselineMessage> list = fillList(messages, users);
+        long listBytes = usedHeap() - baseline;
+        report("ArrayList<Message>", list.size(), listBytes);
+        list = null;
+
+        baseline = usedHeap();
+        MessageStore store = fillStore(messages, users);
+        long storeBytes = usedHeap() - baseline;
+        report("MessageStore", store.size(), storeBytes);
+
+        System.out.printf("Columnar store uses %.1f%% of the list layout%n", 100.0 * storeBytes / listBytes);
+    }
+
+    private static List<BaselineMessage> fillList(int messages, int users) {
+        Random random = new Random(42);
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        long timestamp = System.currentTimeMillis();
+        List<BaselineMessage> list = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            int user = random.nextInt(users);
+            // Each line received from the socket carries its own copy of every field.
+            list.add(new BaselineMessage(format.format(new Date(timestamp + i)), new String("user" + user),
+                    new String("host" + user + ".example.org"), new String(CHANNEL), line(random)));
+        }
+        return list;
+    }
+
+    private static MessageStore fillStore(int messages, int users) {
+        Random random = new Random(42);
+        MessageStore store = new MessageStore(CHANNEL, messages, Long.MAX_VALUE);
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < messages; i++) {
+            int user = random.nextInt(users);
+            store.append(timestamp + i, new String("user" + user), new String("host" + user + ".example.org"),
+                    line(random));
+        }
+        return store;
+    }
+
+    private static String line(Random random) {
+        StringBuilder line = new StringBuilder();
+        int words = 3 + random.nextInt(10);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                line.append(' ');
+            }
+            line.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return line.toString();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void report(String layout, int messages, long bytes) {
+        System.out.printf("%-20s %,12d messages %,15d bytes %8.1f bytes/message%n", layout, messages, bytes,
+                (double) bytes / messages);
+    }
+
+    /**
+     * Copy of the message layout of the connector before the columnar store: the formatted timestamp and every
+     * field are strings of their own.
+     */
+    private static final class BaselineMessage {
+        private final String timestamp;
+        private final String user;
+        private final String host;
+        private final String channel;
+        private final String message;
+
+        private BaselineMessage(String timestamp, String user, String host, String channel, String message) {
+            this.timestamp = timestamp;
+            this.user = user;
+            this.host = host;
+            this.channel = channel;
+            this.message = message;
+        }
+    }
+}
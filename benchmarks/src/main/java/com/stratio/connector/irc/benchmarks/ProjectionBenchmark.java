@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.benchmarks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.stratio.connector.irc.engine.IRCQueryEngine;
+import com.stratio.connector.irc.manager.IRCOptions;
+import com.stratio.crossdata.common.exceptions.ConnectorException;
+import com.stratio.crossdata.common.logicalplan.LogicalWorkflow;
+import com.stratio.crossdata.common.result.QueryResult;
+
+/**
+ * Cost of building the result of an unfiltered query, dominated by the projection of every message, for several
+ * projections. The result cache is disabled so every query projects the rows again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProjectionBenchmark {
+
+    @Param({ "100000" })
+    public int messages;
+
+    /**
+     * Comma separated projected columns.
+     */
+    @Param({ "user", "user,message", "timestamp,user,host,channel,message" })
+    public String columns;
+
+    private BenchmarkFixture fixture;
+    private IRCQueryEngine engine;
+    private LogicalWorkflow workflow;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put(IRCOptions.CHANNEL_MAX_MESSAGES, String.valueOf(messages));
+        options.put(IRCOptions.QUERY_CACHE_ENTRIES, "0");
+        options.put(IRCOptions.QUERY_PARALLELISM, "1");
+        fixture = new BenchmarkFixture(options);
+        fixture.fill(messages, 300);
+        engine = new IRCQueryEngine(fixture.getManagers());
+        workflow = fixture.workflow(Arrays.asList(columns.split(",")));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        engine.shutdown();
+        fixture.close();
+    }
+
+    @Benchmark
+    public QueryResult project() throws ConnectorException {
+        return engine.execute(workflow);
+    }
+}
@@ -24,16 +24,21 @@
 
 package com.stratio.connector.irc;
 
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
 
 import org.apache.log4j.Logger;
 
+import com.stratio.connector.irc.client.NioIRCClient;
 import com.stratio.connector.irc.engine.IRCMetadataEngine;
 import com.stratio.connector.irc.engine.IRCQueryEngine;
 import com.stratio.connector.irc.engine.IRCStorageEngine;
 import com.stratio.connector.irc.manager.IRCManager;
+import com.stratio.connector.irc.manager.IRCOptions;
 import com.stratio.crossdata.common.connector.ConnectorClusterConfig;
 import com.stratio.crossdata.common.connector.IConfiguration;
 import com.stratio.crossdata.common.connector.IConnector;
@@ -59,6 +64,11 @@ public class IRCConnector implements IConnector{
      */
     private static final Logger LOG = Logger.getLogger(IRCConnector.class);
 
+    /**
+     * Prefix of the options that select the channels of a cluster, accepted in the cluster options as well.
+     */
+    private static final String CHANNELS_PREFIX = "channels.";
+
     @Override
     public String getConnectorName() {
         return "IRCConnector";
@@ -69,48 +79,127 @@ public class IRCConnector implements IConnector{
         return new String[]{"IRCDatastore"};
     }
 
-    private Map<ClusterName, IRCManager> managers=new HashMap<>();
+    /**
+     * Connected managers, read by the engines without locking.
+     */
+    private final ConcurrentMap<ClusterName, IRCManager> managers = new ConcurrentHashMap<>();
+
+    /**
+     * Connection attempt of each attached cluster. Concurrent connects to a cluster share its attempt, and a failed
+     * attempt is removed so the cluster can be connected again.
+     */
+    private final ConcurrentMap<ClusterName, FutureTask<IRCManager>> connections = new ConcurrentHashMap<>();
+
+    /**
+     * Query engine shared by every request so asynchronous queries can be stopped.
+     */
+    private final IRCQueryEngine queryEngine = new IRCQueryEngine(managers);
 
     @Override
     public void init(IConfiguration configuration) throws InitializationException {
         LOG.info("IRCConnector is INIT!");
     }
-    private final static Object LOCK=new Object();
-    @Override public void connect(ICredentials credentials, ConnectorClusterConfig config) throws ConnectionException {
+
+    /**
+     * Connect a cluster. Clusters connect in parallel; a connect to a cluster that is already connecting waits for
+     * the attempt in flight.
+     */
+    @Override public void connect(ICredentials credentials, final ConnectorClusterConfig config)
+            throws ConnectionException {
+        final ClusterName name = config.getName();
+        FutureTask<IRCManager> attempt = new FutureTask<>(new Callable<IRCManager>() {
+            @Override
+            public IRCManager call() throws Exception {
+                IRCManager manager = createManager(config);
+                manager.connect();
+                try {
+                    manager.startMetrics(name.getName());
+                    managers.put(name, manager);
+                } catch (RuntimeException e) {
+                    // Do not leave a connected manager behind the failed attempt.
+                    managers.remove(name, manager);
+                    manager.disconnect();
+                    throw e;
+                }
+                return manager;
+            }
+        });
+        FutureTask<IRCManager> current = connections.putIfAbsent(name, attempt);
+        if (current == null) {
+            current = attempt;
+            attempt.run();
+        }
         try {
-            synchronized (LOCK) {
-                if (!managers.containsKey(config.getName())) {
-                    String host = "127.0.0.1";
-                    if (config.getClusterOptions() != null && config.getClusterOptions().containsKey("host")) {
-                        host = config.getClusterOptions().get("host");
-                    }
-                    String login = "xdbot";
-                    if (config.getConnectorOptions() != null && config.getConnectorOptions().containsKey("name")) {
-                        login = config.getConnectorOptions().get("name");
-                    }
-                    LOG.info("host: " + host + " login: " + login);
-                    IRCManager manager = new IRCManager(host, login);
-                    try {
-                        manager.connect();
-                        managers.put(config.getName(), manager);
-                    } catch (Exception e) {
-                        throw new ConnectionException(e);
-                    }
+            current.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(e);
+        } catch (java.util.concurrent.ExecutionException e) {
+            connections.remove(name, current);
+            LOG.error("Cannot connect " + name, e.getCause());
+            throw new ConnectionException(e.getCause());
+        }
+    }
+
+    private static IRCManager createManager(ConnectorClusterConfig config) {
+        String host = "127.0.0.1";
+        if (config.getClusterOptions() != null && config.getClusterOptions().containsKey("host")) {
+            host = config.getClusterOptions().get("host");
+        }
+        String login = "xdbot";
+        if (config.getConnectorOptions() != null && config.getConnectorOptions().containsKey("name")) {
+            login = config.getConnectorOptions().get("name");
+        }
+        LOG.info("host: " + host + " login: " + login);
+        Map<String, String> options = new HashMap<>();
+        if (config.getConnectorOptions() != null) {
+            options.putAll(config.getConnectorOptions());
+        }
+        // The channels of a cluster may be selected by the cluster itself, overriding the connector options.
+        if (config.getClusterOptions() != null) {
+            for (Map.Entry<String, String> option : config.getClusterOptions().entrySet()) {
+                if (option.getKey().startsWith(CHANNELS_PREFIX)) {
+                    options.put(option.getKey(), option.getValue());
                 }
             }
-        }catch (Exception ex){
-            ex.printStackTrace();
         }
+        return new IRCManager(host, login, new IRCOptions(options));
     }
 
+    /**
+     * Disconnect a cluster, waiting for its connection attempt if it is still in flight.
+     */
     @Override public void close(ClusterName name) throws ConnectionException {
         LOG.info("Close connection " + name.toString());
-        IRCManager manager=managers.get(name);
+        FutureTask<IRCManager> attempt = connections.remove(name);
+        if (attempt == null) {
+            return;
+        }
+        IRCManager manager;
+        try {
+            manager = attempt.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(e);
+        } catch (java.util.concurrent.ExecutionException e) {
+            return;
+        }
+        managers.remove(name, manager);
+        queryEngine.stopQueries(manager);
         manager.disconnect();
     }
 
     @Override public void shutdown() throws ExecutionException {
         LOG.info("Shutdown connector!");
+        for (ClusterName name : connections.keySet()) {
+            try {
+                close(name);
+            } catch (ConnectionException e) {
+                LOG.error("Cannot close " + name, e);
+            }
+        }
+        queryEngine.shutdown();
+        NioIRCClient.shutdownEventLoops();
     }
 
     @Override public boolean isConnected(ClusterName name) {
@@ -124,7 +213,7 @@ public class IRCConnector implements IConnector{
 
     @Override
     public IQueryEngine getQueryEngine() throws UnsupportedException {
-        return new IRCQueryEngine(managers);
+        return queryEngine;
     }
 
     @Override
@@ -0,0 +1,65 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.client;
+
+import java.io.IOException;
+
+/**
+ * Connection of an {@link com.stratio.connector.irc.manager.IRCManager} to an IRC server. Received events are
+ * delivered to an {@link IRCClientListener}.
+ */
+public interface IRCClient {
+
+    /**
+     * Connect to the server and register the nick, waiting until the server accepts it.
+     * @throws IOException If the server cannot be reached or rejects the connection.
+     */
+    void connect() throws IOException;
+
+    void disconnect();
+
+    boolean isConnected();
+
+    /**
+     * Get the nick registered in the server, which may differ from the requested one if it was in use.
+     * @return The nick.
+     */
+    String getNick();
+
+    void joinChannel(String channel);
+
+    void partChannel(String channel);
+
+    /**
+     * Ask the server for its channels. Each one is delivered to {@link IRCClientListener#onChannelInfo(String)}.
+     */
+    void listChannels();
+
+    /**
+     * Send a command as soon as possible, without pacing.
+     * @param line The command without the line terminator.
+     */
+    void sendRawLine(String line);
+}
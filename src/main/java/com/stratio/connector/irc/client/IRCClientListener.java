@@ -0,0 +1,53 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.client;
+
+/**
+ * Receiver of the events of an {@link IRCClient}. Events of a client are delivered from a single thread.
+ */
+public interface IRCClientListener {
+
+    /**
+     * A message was received in a channel.
+     * @param channel The channel name with the leading #.
+     * @param sender The nick of the sender.
+     * @param hostname The host of the sender.
+     * @param timestamp The epoch millis of the server-time tag of the message, or a negative value if the server
+     *                  did not send one.
+     * @param message The UTF-8 encoded message. The listener takes ownership of the array.
+     */
+    void onMessage(String channel, String sender, String hostname, long timestamp, byte[] message);
+
+    /**
+     * A channel was listed by the server.
+     * @param channel The channel name with the leading #.
+     */
+    void onChannelInfo(String channel);
+
+    /**
+     * The registered connection was closed, either by {@link IRCClient#disconnect()} or because it was lost.
+     */
+    void onDisconnect();
+}
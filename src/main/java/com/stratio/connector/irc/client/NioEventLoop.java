@@ -0,0 +1,167 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.client;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selector thread multiplexing the connections of several {@link NioIRCClient}s. Loops are shared by every client
+ * of the JVM and assigned round-robin, so the number of I/O threads does not grow with the number of connections.
+ * They run until {@link #shutdown()} stops them; clients that connect afterwards start new loops.
+ */
+final class NioEventLoop implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioEventLoop.class);
+
+    private static final long SHUTDOWN_TIMEOUT = 5000;
+
+    private static final List<NioEventLoop> LOOPS = new ArrayList<>();
+    private static int next = 0;
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private NioEventLoop(int index) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, "irc-nio-" + index);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get the loop for a new connection, starting a new one while there are less than the given number.
+     * @param loops The maximum number of loops.
+     * @return The loop.
+     * @throws IOException If a selector cannot be opened.
+     */
+    static synchronized NioEventLoop next(int loops) throws IOException {
+        if (LOOPS.size() < Math.max(1, loops)) {
+            LOOPS.add(new NioEventLoop(LOOPS.size()));
+        }
+        NioEventLoop loop = LOOPS.get(next % LOOPS.size());
+        next = (next + 1) % LOOPS.size();
+        return loop;
+    }
+
+    /**
+     * Stop every loop of the JVM. Each loop runs its pending tasks and closes the connections still registered
+     * before its thread ends.
+     */
+    static synchronized void shutdown() {
+        for (NioEventLoop loop : LOOPS) {
+            loop.running = false;
+            loop.selector.wakeup();
+        }
+        for (NioEventLoop loop : LOOPS) {
+            try {
+                loop.thread.join(SHUTDOWN_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        LOOPS.clear();
+        next = 0;
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    /**
+     * Check if the loop still serves its connections.
+     * @return Whether it has not been shut down.
+     */
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Run a task in the loop thread, where every operation on the selection keys must happen.
+     * @param task The task.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    // A task may have closed the connection after the key was selected.
+                    if (key.isValid()) {
+                        ((NioIRCClient) key.attachment()).handle(key);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Unexpected error in the IRC event loop", e);
+            }
+        }
+        close();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Release the selector of a stopped loop, closing the connections that were not disconnected.
+     */
+    private void close() {
+        try {
+            runTasks();
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                if (key.isValid()) {
+                    ((NioIRCClient) key.attachment()).close();
+                }
+            }
+            selector.close();
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot close the IRC event loop", e);
+        }
+    }
+}
@@ -0,0 +1,521 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking {@link IRCClient} served by a shared {@link NioEventLoop}.
+ *
+ * <p>Lines are parsed in place from a direct read buffer: the command is compared byte by byte and only the
+ * fields the listener needs are decoded, so a channel message costs the channel, nick and host strings and a copy
+ * of its UTF-8 body. Lines longer than the buffer are discarded. Outgoing lines are queued by any thread and
+ * written by the loop.</p>
+ */
+public class NioIRCClient implements IRCClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioIRCClient.class);
+
+    private static final int DEFAULT_PORT = 6667;
+    private static final int BUFFER_BYTES = 16 * 1024;
+    private static final long CONNECT_TIMEOUT = 30000;
+    private static final byte[] TIME_TAG = bytes("time=");
+
+    private static final byte[] PRIVMSG = bytes("PRIVMSG");
+    private static final byte[] PING = bytes("PING");
+    private static final byte[] RPL_WELCOME = bytes("001");
+    private static final byte[] RPL_LIST = bytes("322");
+    private static final byte[] ERR_NICKNAMEINUSE = bytes("433");
+
+    private final String host;
+    private final int port;
+    private final IRCClientListener listener;
+    private final int loops;
+    private final boolean serverTime;
+    private volatile NioEventLoop loop;
+    private final ByteBuffer input = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final ByteBuffer view = input.duplicate();
+    private final byte[] field = new byte[BUFFER_BYTES];
+    private final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile String nick;
+    private volatile boolean connected = false;
+    private volatile CountDownLatch registration;
+    private SocketChannel socket;
+    private SelectionKey key;
+
+    /**
+     * Whether the rest of a line longer than the buffer is being discarded. Only used by the loop.
+     */
+    private boolean discarding = false;
+
+    /**
+     * Class constructor.
+     * @param name The nick.
+     * @param host The IRC server, optionally followed by a colon and the port.
+     * @param listener The receiver of the events.
+     * @param loops The maximum number of event loops shared by the NIO clients of the JVM.
+     * @param serverTime Whether to request the server-time capability, so messages carry the time the server
+     *                   received them.
+     */
+    public NioIRCClient(String name, String host, IRCClientListener listener, int loops, boolean serverTime) {
+        this.nick = name;
+        int colon = host.lastIndexOf(':');
+        this.host = colon < 0 ? host : host.substring(0, colon);
+        this.port = colon < 0 ? DEFAULT_PORT : Integer.parseInt(host.substring(colon + 1));
+        this.listener = listener;
+        this.loops = loops;
+        this.serverTime = serverTime;
+    }
+
+    /**
+     * Stop the event loops shared by the NIO clients of the JVM, closing the connections still open. Clients
+     * connected later start new loops.
+     */
+    public static void shutdownEventLoops() {
+        NioEventLoop.shutdown();
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (loop == null || !loop.isRunning()) {
+            loop = NioEventLoop.next(loops);
+        }
+        final NioEventLoop loop = this.loop;
+        final CountDownLatch latch = new CountDownLatch(1);
+        registration = latch;
+        output.clear();
+        final SocketChannel opened = SocketChannel.open();
+        opened.configureBlocking(false);
+        final boolean established = opened.connect(new InetSocketAddress(host, port));
+        if (serverTime) {
+            sendRawLine("CAP REQ :server-time");
+        }
+        sendRawLine("NICK " + nick);
+        sendRawLine("USER " + nick + " 8 * :" + nick);
+        if (serverTime) {
+            sendRawLine("CAP END");
+        }
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    socket = opened;
+                    input.clear();
+                    discarding = false;
+                    key = opened.register(loop.getSelector(),
+                            established ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT,
+                            NioIRCClient.this);
+                } catch (IOException e) {
+                    LOG.warn("Cannot register the connection to " + host, e);
+                    close();
+                }
+            }
+        });
+        try {
+            if (!latch.await(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS) || !connected) {
+                disconnect();
+                throw new IOException("Cannot register in " + host + ":" + port);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            disconnect();
+            throw new IOException("Interrupted while connecting to " + host, e);
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        NioEventLoop loop = this.loop;
+        if (loop == null) {
+            return;
+        }
+        if (connected) {
+            sendRawLine("QUIT");
+        }
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (socket != null && socket.isConnected()) {
+                    try {
+                        write();
+                    } catch (IOException e) {
+                        LOG.debug("Cannot send QUIT to " + host, e);
+                    }
+                }
+                close();
+            }
+        });
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public String getNick() {
+        return nick;
+    }
+
+    @Override
+    public void joinChannel(String channel) {
+        sendRawLine("JOIN " + channel);
+    }
+
+    @Override
+    public void partChannel(String channel) {
+        sendRawLine("PART " + channel);
+    }
+
+    @Override
+    public void listChannels() {
+        sendRawLine("LIST");
+    }
+
+    @Override
+    public void sendRawLine(String line) {
+        output.add(ByteBuffer.wrap((line + "\r\n").getBytes(StandardCharsets.UTF_8)));
+        NioEventLoop loop = this.loop;
+        if (loop != null && flushScheduled.compareAndSet(false, true)) {
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushScheduled.set(false);
+                    if (key != null && key.isValid() && socket.isConnected()) {
+                        try {
+                            write();
+                        } catch (IOException e) {
+                            LOG.warn("Connection to " + host + " lost", e);
+                            close();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Handle the readiness of the connection. Called by the loop.
+     * @param ready The selected key.
+     */
+    void handle(SelectionKey ready) {
+        if (!ready.isValid()) {
+            return;
+        }
+        try {
+            if (ready.isConnectable() && socket.finishConnect()) {
+                ready.interestOps(SelectionKey.OP_READ);
+                write();
+            }
+            if (ready.isValid() && ready.isReadable()) {
+                read();
+            }
+            if (ready.isValid() && ready.isWritable()) {
+                write();
+            }
+        } catch (IOException e) {
+            LOG.warn("Connection to " + host + " lost", e);
+            close();
+        }
+    }
+
+    /**
+     * Close the connection. Called by the loop.
+     */
+    void close() {
+        boolean registered = connected;
+        connected = false;
+        if (key != null) {
+            key.cancel();
+            key = null;
+        }
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.debug("Cannot close the connection to " + host, e);
+            }
+        }
+        CountDownLatch latch = registration;
+        if (latch != null) {
+            latch.countDown();
+        }
+        if (registered) {
+            listener.onDisconnect();
+        }
+    }
+
+    private void write() throws IOException {
+        ByteBuffer head;
+        while ((head = output.peek()) != null) {
+            socket.write(head);
+            if (head.hasRemaining()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            output.poll();
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    private void read() throws IOException {
+        if (socket.read(input) < 0) {
+            LOG.info("Connection to " + host + " closed by the server");
+            close();
+            return;
+        }
+        input.flip();
+        int start = input.position();
+        int limit = input.limit();
+        for (int i = start; i < limit; i++) {
+            if (input.get(i) == '\n') {
+                if (!discarding) {
+                    parse(start, i > start && input.get(i - 1) == '\r' ? i - 1 : i);
+                }
+                discarding = false;
+                start = i + 1;
+            }
+        }
+        if (start == 0 && limit == input.capacity()) {
+            LOG.warn("Discarding a line longer than " + BUFFER_BYTES + " bytes from " + host);
+            discarding = true;
+            input.clear();
+            return;
+        }
+        input.position(start);
+        input.compact();
+    }
+
+    /**
+     * Parse a line of the read buffer: optional tags, an optional prefix, the command and its parameters.
+     * @param start The position of the first byte of the line.
+     * @param end The position after the last byte, excluding the line terminator.
+     */
+    private void parse(int start, int end) {
+        int position = start;
+        long timestamp = -1;
+        if (position < end && input.get(position) == '@') {
+            int tagsEnd = indexOf(' ', position, end);
+            if (tagsEnd < 0) {
+                return;
+            }
+            timestamp = parseTimeTag(position + 1, tagsEnd);
+            position = tagsEnd + 1;
+        }
+        int prefixStart = -1;
+        int prefixEnd = -1;
+        if (position < end && input.get(position) == ':') {
+            prefixStart = position + 1;
+            prefixEnd = indexOf(' ', prefixStart, end);
+            if (prefixEnd < 0) {
+                return;
+            }
+            position = prefixEnd + 1;
+        }
+        int commandEnd = indexOf(' ', position, end);
+        if (commandEnd < 0) {
+            commandEnd = end;
+        }
+        int parameters = Math.min(commandEnd + 1, end);
+        if (matches(position, commandEnd, PRIVMSG)) {
+            onPrivmsg(prefixStart, prefixEnd, parameters, end, timestamp);
+        } else if (matches(position, commandEnd, PING)) {
+            sendRawLine("PONG " + decode(parameters, end));
+        } else if (matches(position, commandEnd, RPL_WELCOME)) {
+            int nickEnd = indexOf(' ', parameters, end);
+            nick = decode(parameters, nickEnd < 0 ? end : nickEnd);
+            connected = true;
+            registration.countDown();
+        } else if (matches(position, commandEnd, RPL_LIST)) {
+            int channelStart = indexOf(' ', parameters, end) + 1;
+            int channelEnd = indexOf(' ', channelStart, end);
+            if (channelStart > 0 && channelEnd > channelStart) {
+                listener.onChannelInfo(decode(channelStart, channelEnd));
+            }
+        } else if (matches(position, commandEnd, ERR_NICKNAMEINUSE) && !connected) {
+            nick = nick + "_";
+            sendRawLine("NICK " + nick);
+        }
+    }
+
+    /**
+     * Deliver a PRIVMSG sent to a channel. Private messages and CTCP requests are ignored.
+     */
+    private void onPrivmsg(int prefixStart, int prefixEnd, int parameters, int end, long timestamp) {
+        int targetEnd = indexOf(' ', parameters, end);
+        if (prefixStart < 0 || targetEnd < 0) {
+            return;
+        }
+        byte first = input.get(parameters);
+        if (first != '#' && first != '&') {
+            return;
+        }
+        int bodyStart = targetEnd + 1;
+        if (bodyStart < end && input.get(bodyStart) == ':') {
+            bodyStart++;
+        }
+        if (bodyStart < end && input.get(bodyStart) == 1) {
+            return;
+        }
+        int nickEnd = indexOf('!', prefixStart, prefixEnd);
+        int hostStart = indexOf('@', prefixStart, prefixEnd);
+        String sender = decode(prefixStart, nickEnd < 0 ? prefixEnd : nickEnd);
+        String hostname = hostStart < 0 ? "" : decode(hostStart + 1, prefixEnd);
+        byte[] body = new byte[end - bodyStart];
+        view.limit(end).position(bodyStart);
+        view.get(body);
+        listener.onMessage(decode(parameters, targetEnd), sender, hostname, timestamp, body);
+    }
+
+    /**
+     * Find the time tag among the tags of a line.
+     * @param start The position of the first tag.
+     * @param end The position after the last tag.
+     * @return The epoch millis of the tag, or -1 if it is missing or malformed.
+     */
+    private long parseTimeTag(int start, int end) {
+        int tag = start;
+        while (tag < end) {
+            int tagEnd = indexOf(';', tag, end);
+            if (tagEnd < 0) {
+                tagEnd = end;
+            }
+            if (tagEnd - tag > TIME_TAG.length && matches(tag, tag + TIME_TAG.length, TIME_TAG)) {
+                return parseTime(tag + TIME_TAG.length, tagEnd);
+            }
+            tag = tagEnd + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Parse a UTC time of the form YYYY-MM-DDThh:mm:ss[.sss]Z without creating objects.
+     * @param start The position of the first digit.
+     * @param end The position after the Z.
+     * @return The epoch millis, or -1 if the time is malformed.
+     */
+    private long parseTime(int start, int end) {
+        if (end - start < 20 || input.get(start + 4) != '-' || input.get(start + 7) != '-'
+                || input.get(start + 10) != 'T' || input.get(start + 13) != ':' || input.get(start + 16) != ':'
+                || input.get(end - 1) != 'Z') {
+            return -1;
+        }
+        int year = digits(start, 4);
+        int month = digits(start + 5, 2);
+        int day = digits(start + 8, 2);
+        int hours = digits(start + 11, 2);
+        int minutes = digits(start + 14, 2);
+        int seconds = digits(start + 17, 2);
+        int millis = 0;
+        int position = start + 19;
+        if (position < end - 1) {
+            if (input.get(position) != '.' || end - 1 - (position + 1) < 1) {
+                return -1;
+            }
+            int scale = 100;
+            for (int i = position + 1; i < end - 1; i++) {
+                int digit = input.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                millis += digit * scale;
+                scale /= 10;
+            }
+        }
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hours < 0 || hours > 23
+                || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 60) {
+            return -1;
+        }
+        // Days from the civil date, counted in eras of 400 years starting on March 1st.
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+        return ((days * 24 + hours) * 60 + minutes) * 60000L + seconds * 1000L + millis;
+    }
+
+    /**
+     * Parse a fixed number of decimal digits of the read buffer.
+     * @return The number, or -1 if a byte is not a digit.
+     */
+    private int digits(int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = input.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private int indexOf(char character, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (input.get(i) == character) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int start, int end, byte[] command) {
+        if (end - start != command.length) {
+            return false;
+        }
+        for (int i = 0; i < command.length; i++) {
+            if (input.get(start + i) != command[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decode(int start, int end) {
+        view.limit(end).position(start);
+        view.get(field, 0, end - start);
+        return new String(field, 0, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
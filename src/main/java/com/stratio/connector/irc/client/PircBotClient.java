@@ -0,0 +1,87 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.jibble.pircbot.IrcException;
+import org.jibble.pircbot.PircBot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link IRCClient} backed by PircBot, with blocking streams and its own input and output threads.
+ */
+public class PircBotClient extends PircBot implements IRCClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PircBotClient.class);
+
+    private static final int DEFAULT_PORT = 6667;
+
+    private final String host;
+    private final int port;
+    private final IRCClientListener listener;
+
+    /**
+     * Class constructor.
+     * @param name The nick.
+     * @param host The IRC server, optionally followed by a colon and the port.
+     * @param listener The receiver of the events.
+     */
+    public PircBotClient(String name, String host, IRCClientListener listener) {
+        this.setName(name);
+        int colon = host.lastIndexOf(':');
+        this.host = colon < 0 ? host : host.substring(0, colon);
+        this.port = colon < 0 ? DEFAULT_PORT : Integer.parseInt(host.substring(colon + 1));
+        this.listener = listener;
+        // PircBot prints every line it sends and receives to stdout, only worth it while debugging.
+        this.setVerbose(LOG.isDebugEnabled());
+    }
+
+    @Override
+    public void connect() throws IOException {
+        try {
+            this.connect(this.host, this.port);
+        } catch (IrcException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void onMessage(String channel, String sender, String login, String hostname, String message) {
+        listener.onMessage(channel, sender, hostname, -1, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected void onChannelInfo(String channel, int userCount, String topic) {
+        listener.onChannelInfo(channel);
+    }
+
+    @Override
+    protected void onDisconnect() {
+        listener.onDisconnect();
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.stratio.connector.irc.manager.MemorySegment;
+import com.stratio.connector.irc.manager.Message;
+import com.stratio.connector.irc.manager.MessageSegment;
+import com.stratio.connector.irc.manager.StringDictionary;
+import com.stratio.crossdata.common.data.Cell;
+import com.stratio.crossdata.common.data.ColumnName;
+import com.stratio.crossdata.common.data.Row;
+import com.stratio.crossdata.common.exceptions.UnsupportedException;
+import com.stratio.crossdata.common.logicalplan.GroupBy;
+import com.stratio.crossdata.common.logicalplan.Select;
+import com.stratio.crossdata.common.metadata.ColumnType;
+import com.stratio.crossdata.common.statements.structures.ColumnSelector;
+import com.stratio.crossdata.common.statements.structures.Selector;
+
+/**
+ * COUNT of the messages of a channel grouped by user, host, channel and time bucket. Groups are counted in a
+ * single pass over the matching messages: users and hosts are reduced to integer ids and the groups live in an
+ * open addressing table of primitive arrays, so counting a message does not allocate.
+ */
+class Aggregation {
+
+    private final Select select;
+    private final boolean byUser;
+    private final boolean byHost;
+    private final boolean byTimestamp;
+    private final boolean grouped;
+
+    private Aggregation(Select select, Set<String> groupColumns) {
+        this.select = select;
+        this.grouped = !groupColumns.isEmpty();
+        this.byUser = groupColumns.contains("user");
+        this.byHost = groupColumns.contains("host");
+        this.byTimestamp = groupColumns.contains("timestamp");
+    }
+
+    /**
+     * Build the aggregation of a projection.
+     * @param select The projection.
+     * @param groupBy The grouping step or null if the workflow has none.
+     * @return The aggregation or null if the query does not aggregate.
+     * @throws UnsupportedException If the query uses a function other than COUNT, groups by a column that cannot
+     * be grouped or projects a column that is not grouped.
+     */
+    static Aggregation create(Select select, GroupBy groupBy) throws UnsupportedException {
+        boolean counted = false;
+        for (ColumnName column : select.getColumnMap().keySet()) {
+            if (isCount(column)) {
+                counted = true;
+            } else if (column.getName().contains("(")) {
+                throw new UnsupportedException("Function " + column.getName() + " is not supported");
+            }
+        }
+        if (groupBy == null && !counted) {
+            return null;
+        }
+        Set<String> groupColumns = new HashSet<>();
+        if (groupBy != null) {
+            for (Selector id : groupBy.getIds()) {
+                if (!(id instanceof ColumnSelector)) {
+                    throw new UnsupportedException("Only columns can be grouped");
+                }
+                String name = ((ColumnSelector) id).getName().getName();
+                if (!"user".equals(name) && !"host".equals(name) && !"channel".equals(name)
+                        && !"timestamp".equals(name)) {
+                    throw new UnsupportedException("Column " + name + " cannot be grouped");
+                }
+                groupColumns.add(name);
+            }
+        }
+        for (ColumnName column : select.getColumnMap().keySet()) {
+            if (!isCount(column) && !groupColumns.contains(column.getName())) {
+                throw new UnsupportedException("Column " + column.getName() + " must be grouped");
+            }
+        }
+        return new Aggregation(select, groupColumns);
+    }
+
+    private static boolean isCount(ColumnName column) {
+        String name = column.getName().replace(" ", "").toLowerCase();
+        return name.startsWith("count(") && name.endsWith(")");
+    }
+
+    /**
+     * Count the matching messages of each group.
+     * @param scan The cursor over the matching messages, in channel order.
+     * @param limit The maximum number of groups or -1 for no limit.
+     * @param bucketMillis The milliseconds timestamps are truncated to when grouping by timestamp.
+     * @return A row per group, in the order of the first message of each group. A query without groups returns
+     * a single row even if no message matches.
+     */
+    List<Row> compute(ChannelScan scan, int limit, long bucketMillis) {
+        Dimension users = new Dimension(true);
+        Dimension hosts = new Dimension(false);
+        GroupTable groups = new GroupTable();
+        long bucket = Math.max(1000, bucketMillis);
+        String channel = null;
+        while (scan.next()) {
+            MessageSegment segment = scan.getSegment();
+            channel = segment.getChannel();
+            int row = scan.getRow();
+            int user = byUser ? users.encode(segment, row) : 0;
+            int host = byHost ? hosts.encode(segment, row) : 0;
+            long timestamp = 0;
+            if (byTimestamp) {
+                timestamp = segment.getTimestamp(row);
+                timestamp -= timestamp % bucket;
+            }
+            groups.add(user, host, timestamp);
+        }
+        if (!grouped && groups.size() == 0) {
+            groups.addEmpty();
+        }
+        int size = limit < 0 ? groups.size() : Math.min(limit, groups.size());
+        List<Row> rows = new ArrayList<>(size);
+        for (int group = 0; group < size; group++) {
+            Row result = new Row();
+            for (Map.Entry<ColumnName, String> column : select.getColumnMap().entrySet()) {
+                String alias = column.getValue();
+                switch (column.getKey().getName()) {
+                case "user":
+                    result.addCell(alias, new Cell(users.decode(groups.getUser(group))));
+                    break;
+                case "host":
+                    result.addCell(alias, new Cell(hosts.decode(groups.getHost(group))));
+                    break;
+                case "channel":
+                    result.addCell(alias, new Cell(channel));
+                    break;
+                case "timestamp":
+                    long millis = groups.getTimestamp(group);
+                    if (select.getTypeMapFromColumnName().get(column.getKey()) == ColumnType.BIGINT) {
+                        result.addCell(alias, new Cell(millis));
+                    } else {
+                        result.addCell(alias, new Cell(Message.formatTimestamp(millis)));
+                    }
+                    break;
+                default:
+                    result.addCell(alias, new Cell(groups.getCount(group)));
+                }
+            }
+            rows.add(result);
+        }
+        return rows;
+    }
+
+    /**
+     * Ids of the users or hosts of an aggregation. Ids of in-memory segments are translated from the dictionary
+     * of the segment without looking at the strings again; the translations are reset when the scan reaches a
+     * segment encoded with another dictionary.
+     */
+    private static final class Dimension {
+
+        private final boolean user;
+        private final StringDictionary values = new StringDictionary();
+        private StringDictionary source = null;
+        private int[] translated = new int[16];
+
+        private Dimension(boolean user) {
+            this.user = user;
+        }
+
+        int encode(MessageSegment segment, int row) {
+            if (!(segment instanceof MemorySegment)) {
+                return values.encode(user ? segment.getUser(row) : segment.getHost(row));
+            }
+            MemorySegment memory = (MemorySegment) segment;
+            if (memory.getDictionary() != source) {
+                source = memory.getDictionary();
+                Arrays.fill(translated, 0);
+            }
+            int sourceId = user ? memory.getUserId(row) : memory.getHostId(row);
+            if (sourceId >= translated.length) {
+                translated = Arrays.copyOf(translated, Math.max(sourceId + 1, translated.length * 2));
+            }
+            int id = translated[sourceId] - 1;
+            if (id < 0) {
+                id = values.encode(user ? memory.getUser(row) : memory.getHost(row));
+                translated[sourceId] = id + 1;
+            }
+            return id;
+        }
+
+        String decode(int id) {
+            return values.decode(id);
+        }
+    }
+
+    /**
+     * Open addressing hash table of message counts keyed by user id, host id and time bucket. Groups are numbered
+     * in insertion order.
+     */
+    private static final class GroupTable {
+
+        private int[] slots = new int[64];
+        private int[] users = new int[32];
+        private int[] hosts = new int[32];
+        private long[] timestamps = new long[32];
+        private long[] counts = new long[32];
+        private int size = 0;
+
+        void add(int user, int host, long timestamp) {
+            int mask = slots.length - 1;
+            int slot = hash(user, host, timestamp) & mask;
+            while (slots[slot] != 0) {
+                int group = slots[slot] - 1;
+                if (users[group] == user && hosts[group] == host && timestamps[group] == timestamp) {
+                    counts[group]++;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size == users.length) {
+                users = Arrays.copyOf(users, size * 2);
+                hosts = Arrays.copyOf(hosts, size * 2);
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            users[size] = user;
+            hosts[size] = host;
+            timestamps[size] = timestamp;
+            counts[size] = 1;
+            slots[slot] = ++size;
+            if (size * 2 > slots.length) {
+                rehash();
+            }
+        }
+
+        /**
+         * Add the group of a query without groups when no message matched.
+         */
+        void addEmpty() {
+            add(0, 0, 0);
+            counts[size - 1] = 0;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int group = 0; group < size; group++) {
+                int slot = hash(users[group], hosts[group], timestamps[group]) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = group + 1;
+            }
+        }
+
+        private static int hash(int user, int host, long timestamp) {
+            long hash = (timestamp * 0x9E3779B97F4A7C15L) ^ ((long) user << 32 | host & 0xFFFFFFFFL);
+            hash ^= hash >>> 31;
+            hash *= 0xBF58476D1CE4E5B9L;
+            return (int) (hash ^ hash >>> 32);
+        }
+
+        int size() {
+            return size;
+        }
+
+        int getUser(int group) {
+            return users[group];
+        }
+
+        int getHost(int group) {
+            return hosts[group];
+        }
+
+        long getTimestamp(int group) {
+            return timestamps[group];
+        }
+
+        long getCount(int group) {
+            return counts[group];
+        }
+    }
+}
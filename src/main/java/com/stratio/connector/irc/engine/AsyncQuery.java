@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.stratio.connector.irc.manager.ChannelSnapshot;
+import com.stratio.crossdata.common.connector.IResultHandler;
+import com.stratio.crossdata.common.data.ResultSet;
+import com.stratio.crossdata.common.data.Row;
+import com.stratio.crossdata.common.exceptions.ExecutionException;
+import com.stratio.crossdata.common.result.QueryResult;
+
+/**
+ * Scan of a channel that delivers its rows to a {@link IResultHandler} in pages while it runs.
+ */
+class AsyncQuery implements RunningQuery {
+
+    private final String queryId;
+    private final IRCQueryEngine engine;
+    private final ChannelSnapshot snapshot;
+    private final QueryPlan plan;
+    private final IResultHandler resultHandler;
+    private final int pageSize;
+    private final boolean reverse;
+    private final long bucketMillis;
+    private volatile boolean cancelled = false;
+
+    AsyncQuery(String queryId, IRCQueryEngine engine, ChannelSnapshot snapshot, QueryPlan plan,
+            IResultHandler resultHandler, int pageSize, boolean reverse, long bucketMillis) {
+        this.queryId = queryId;
+        this.engine = engine;
+        this.snapshot = snapshot;
+        this.plan = plan;
+        this.resultHandler = resultHandler;
+        this.pageSize = pageSize;
+        this.reverse = reverse;
+        this.bucketMillis = bucketMillis;
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            scan();
+        } catch (RuntimeException e) {
+            resultHandler.processException(queryId, new ExecutionException(e));
+        } finally {
+            engine.finished(queryId, this);
+        }
+    }
+
+    private void scan() {
+        int page = 0;
+        ResultSet resultSet = newPage();
+        if (plan.getAggregation() != null) {
+            for (Row row : plan.getAggregation().compute(plan.scan(snapshot, false), plan.getLimit(), bucketMillis)) {
+                if (cancelled) {
+                    return;
+                }
+                resultSet.add(row);
+                if (resultSet.size() == pageSize) {
+                    deliver(resultSet, page++, false);
+                    resultSet = newPage();
+                }
+            }
+        } else if (plan.getSelect() != null) {
+            ChannelScan scan = plan.scan(snapshot, reverse);
+            Projection.Projector projector = plan.getProjection().newProjector();
+            if (reverse) {
+                // The latest rows are found first: collect them to deliver the pages in channel order.
+                List<Row> rows = new ArrayList<>();
+                while (!cancelled && rows.size() < plan.getLimit() && scan.next()) {
+                    rows.add(projector.project(scan.getSegment(), scan.getRow()));
+                }
+                for (int i = rows.size() - 1; i >= 0 && !cancelled; i--) {
+                    resultSet.add(rows.get(i));
+                    if (resultSet.size() == pageSize) {
+                        deliver(resultSet, page++, false);
+                        resultSet = newPage();
+                    }
+                }
+            } else {
+                int produced = 0;
+                while (!cancelled && (plan.getLimit() < 0 || produced < plan.getLimit()) && scan.next()) {
+                    resultSet.add(projector.project(scan.getSegment(), scan.getRow()));
+                    produced++;
+                    if (resultSet.size() == pageSize) {
+                        deliver(resultSet, page++, false);
+                        resultSet = newPage();
+                    }
+                }
+            }
+        }
+        if (!cancelled) {
+            deliver(resultSet, page, true);
+        }
+    }
+
+    private ResultSet newPage() {
+        ResultSet resultSet = new ResultSet();
+        if (plan.getProjection() != null) {
+            resultSet.setColumnMetadata(plan.getProjection().getColumnMetadata());
+        }
+        return resultSet;
+    }
+
+    private void deliver(ResultSet resultSet, int page, boolean last) {
+        QueryResult result = QueryResult.createQueryResult(resultSet);
+        result.setQueryId(queryId);
+        result.setResultPage(page);
+        if (last) {
+            result.setLastResultSet();
+        }
+        resultHandler.processResult(result);
+    }
+}
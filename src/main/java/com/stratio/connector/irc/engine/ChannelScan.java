@@ -0,0 +1,279 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import com.stratio.connector.irc.manager.ChannelSnapshot;
+import com.stratio.connector.irc.manager.MessageSegment;
+
+/**
+ * Cursor over the messages of a {@link ChannelSnapshot} that satisfy a predicate.
+ *
+ * <p>It only visits the sequences of a range, usually derived from the timestamp filters, and either walks every
+ * row of the range or only the candidate sequences returned by the full-text index for the part of the range the
+ * index covers, walking every row of the older part. It walks in channel order or, when reversed, newest first, so
+ * a limited query stops after the latest matching messages.</p>
+ */
+class ChannelScan {
+
+    private final ChannelSnapshot snapshot;
+    private final MessagePredicate predicate;
+    private final long[] candidates;
+    private final long fromSequence;
+    private final long toSequence;
+
+    /**
+     * Sequence after the last row walked without candidates.
+     */
+    private final long rowsToSequence;
+    private final boolean reverse;
+    private boolean walkingCandidates;
+    private int segmentIndex;
+    private int candidate;
+    private MessageSegment segment;
+    private int row;
+    private long examined = 0;
+
+    /**
+     * Class constructor.
+     * @param snapshot The messages of the channel.
+     * @param predicate The condition the messages must satisfy.
+     * @param candidates The sorted sequences of the only messages to consider, or null to scan every message.
+     * @param fromSequence The first sequence to consider.
+     * @param toSequence The sequence after the last one to consider.
+     * @param reverse Whether to walk the messages newest first.
+     */
+    ChannelScan(ChannelSnapshot snapshot, MessagePredicate predicate, long[] candidates, long fromSequence,
+            long toSequence, boolean reverse) {
+        this(snapshot, predicate, candidates, fromSequence, fromSequence, toSequence, reverse);
+    }
+
+    /**
+     * Class constructor.
+     * @param snapshot The messages of the channel.
+     * @param predicate The condition the messages must satisfy.
+     * @param candidates The sorted sequences of the only messages to consider from {@code indexedFrom} on, or null
+     *                   to scan every message.
+     * @param indexedFrom The first sequence covered by the candidates. Older messages are scanned.
+     * @param fromSequence The first sequence to consider.
+     * @param toSequence The sequence after the last one to consider.
+     * @param reverse Whether to walk the messages newest first.
+     */
+    ChannelScan(ChannelSnapshot snapshot, MessagePredicate predicate, long[] candidates, long indexedFrom,
+            long fromSequence, long toSequence, boolean reverse) {
+        this.snapshot = snapshot;
+        this.predicate = predicate;
+        this.candidates = candidates;
+        this.fromSequence = fromSequence;
+        this.toSequence = toSequence;
+        this.rowsToSequence = candidates == null ? toSequence
+                : Math.max(fromSequence, Math.min(toSequence, indexedFrom));
+        this.reverse = reverse;
+        if (reverse) {
+            walkingCandidates = candidates != null;
+            if (walkingCandidates) {
+                segmentIndex = snapshot.getSegmentCount() - 1;
+                candidate = candidates.length;
+            } else {
+                seekBackward(rowsToSequence);
+            }
+        } else {
+            walkingCandidates = false;
+            seekForward(fromSequence);
+        }
+    }
+
+    /**
+     * Position the row walk before the first row of a sequence.
+     */
+    private void seekForward(long sequence) {
+        segmentIndex = 0;
+        while (segmentIndex < snapshot.getSegmentCount() && sequence >= segmentEnd(segmentIndex)) {
+            segmentIndex++;
+        }
+        row = -1;
+        if (segmentIndex < snapshot.getSegmentCount()) {
+            row = (int) Math.max(-1, sequence - segmentStart(segmentIndex) - 1);
+        }
+    }
+
+    /**
+     * Position the row walk after the last row before a sequence, for walking newest first.
+     */
+    private void seekBackward(long sequence) {
+        segmentIndex = snapshot.getSegmentCount() - 1;
+        while (segmentIndex >= 0 && sequence <= segmentStart(segmentIndex)) {
+            segmentIndex--;
+        }
+        if (segmentIndex >= 0) {
+            row = (int) Math.min(snapshot.getSegmentSize(segmentIndex), sequence - segmentStart(segmentIndex));
+        }
+    }
+
+    /**
+     * Move to the next matching message.
+     * @return Whether there is one.
+     */
+    boolean next() {
+        if (reverse) {
+            if (walkingCandidates) {
+                if (previousCandidate()) {
+                    return true;
+                }
+                walkingCandidates = false;
+                seekBackward(rowsToSequence);
+            }
+            return previousRow();
+        }
+        if (!walkingCandidates) {
+            if (nextRow()) {
+                return true;
+            }
+            if (candidates == null) {
+                return false;
+            }
+            walkingCandidates = true;
+            segmentIndex = 0;
+            candidate = -1;
+        }
+        return nextCandidate();
+    }
+
+    MessageSegment getSegment() {
+        return segment;
+    }
+
+    int getRow() {
+        return row;
+    }
+
+    /**
+     * Get the number of messages the predicate has been evaluated on so far.
+     * @return The number of messages.
+     */
+    long getExamined() {
+        return examined;
+    }
+
+    private boolean nextRow() {
+        while (segmentIndex < snapshot.getSegmentCount()) {
+            MessageSegment current = snapshot.getSegment(segmentIndex);
+            int size = (int) Math.min(snapshot.getSegmentSize(segmentIndex),
+                    rowsToSequence - segmentStart(segmentIndex));
+            while (++row < size) {
+                examined++;
+                if (predicate.accept(current, row)) {
+                    segment = current;
+                    return true;
+                }
+            }
+            if (segmentEnd(segmentIndex) >= rowsToSequence) {
+                return false;
+            }
+            segmentIndex++;
+            row = -1;
+        }
+        return false;
+    }
+
+    private boolean previousRow() {
+        while (segmentIndex >= 0) {
+            MessageSegment current = snapshot.getSegment(segmentIndex);
+            int first = (int) Math.max(0, fromSequence - segmentStart(segmentIndex));
+            while (--row >= first) {
+                examined++;
+                if (predicate.accept(current, row)) {
+                    segment = current;
+                    return true;
+                }
+            }
+            if (segmentStart(segmentIndex) <= fromSequence) {
+                return false;
+            }
+            segmentIndex--;
+            if (segmentIndex >= 0) {
+                row = snapshot.getSegmentSize(segmentIndex);
+            }
+        }
+        return false;
+    }
+
+    private boolean nextCandidate() {
+        while (++candidate < candidates.length) {
+            long sequence = candidates[candidate];
+            if (sequence >= toSequence) {
+                return false;
+            }
+            while (segmentIndex < snapshot.getSegmentCount() && sequence >= segmentEnd(segmentIndex)) {
+                segmentIndex++;
+            }
+            if (segmentIndex == snapshot.getSegmentCount()) {
+                return false;
+            }
+            if (sequence >= segmentStart(segmentIndex) && acceptCandidate(sequence)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean previousCandidate() {
+        while (--candidate >= 0) {
+            long sequence = candidates[candidate];
+            if (sequence < fromSequence) {
+                return false;
+            }
+            while (segmentIndex >= 0 && sequence < segmentStart(segmentIndex)) {
+                segmentIndex--;
+            }
+            if (segmentIndex < 0) {
+                return false;
+            }
+            if (sequence < segmentEnd(segmentIndex) && acceptCandidate(sequence)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean acceptCandidate(long sequence) {
+        MessageSegment current = snapshot.getSegment(segmentIndex);
+        int candidateRow = (int) (sequence - current.getBaseSequence());
+        examined++;
+        if (predicate.accept(current, candidateRow)) {
+            segment = current;
+            row = candidateRow;
+            return true;
+        }
+        return false;
+    }
+
+    private long segmentStart(int index) {
+        return snapshot.getSegment(index).getBaseSequence();
+    }
+
+    private long segmentEnd(int index) {
+        return segmentStart(index) + snapshot.getSegmentSize(index);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.stratio.connector.irc.manager.IRCManager;
+import com.stratio.connector.irc.manager.MessageListener;
+import com.stratio.connector.irc.manager.MessageSegment;
+import com.stratio.crossdata.common.connector.IResultHandler;
+import com.stratio.crossdata.common.data.ResultSet;
+import com.stratio.crossdata.common.exceptions.ExecutionException;
+import com.stratio.crossdata.common.result.QueryResult;
+
+/**
+ * Query that stays subscribed to a channel and pushes the new matching messages to its {@link IResultHandler}
+ * in micro-batches until it is stopped.
+ *
+ * <p>The filters are evaluated on the ingest thread and matching messages are queued in a bounded queue. A
+ * query thread projects and delivers a batch when it reaches the batch size or when the batch time has passed
+ * since its first message. If the handler cannot keep up the oldest queued messages are dropped, so a slow
+ * subscriber never blocks ingest.</p>
+ */
+class ContinuousQuery implements RunningQuery, MessageListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContinuousQuery.class);
+
+    /**
+     * Maximum time the query thread waits for messages before checking if it has been cancelled.
+     */
+    private static final long IDLE_WAIT_MILLIS = 200;
+
+    private final String queryId;
+    private final IRCQueryEngine engine;
+    private final IRCManager manager;
+    private final String channel;
+    private final QueryPlan plan;
+    private final IResultHandler resultHandler;
+    private final int batchSize;
+    private final long batchMillis;
+    private final BlockingQueue<Entry> queue;
+    private final Projection.Projector projector;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean cancelled = false;
+
+    ContinuousQuery(String queryId, IRCQueryEngine engine, IRCManager manager, String channel, QueryPlan plan,
+            IResultHandler resultHandler, int batchSize, long batchMillis, int queueSize) {
+        this.queryId = queryId;
+        this.engine = engine;
+        this.manager = manager;
+        this.channel = channel;
+        this.plan = plan;
+        this.resultHandler = resultHandler;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchMillis = Math.max(0, batchMillis);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.projector = plan.getProjection().newProjector();
+    }
+
+    @Override
+    public void onMessage(MessageSegment segment, int row) {
+        if (cancelled || !plan.getPredicate().accept(segment, row)) {
+            return;
+        }
+        Entry entry = new Entry(segment, row);
+        while (!queue.offer(entry)) {
+            if (queue.poll() != null) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Start receiving the messages of the channel.
+     */
+    void subscribe() {
+        manager.addMessageListener(channel, this);
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        manager.removeMessageListener(channel, this);
+    }
+
+    /**
+     * Stop the query because its cluster is being disconnected, telling the handler no more results will come.
+     */
+    void close() {
+        cancel();
+        resultHandler.processException(queryId, new ExecutionException("Cluster of continuous query " + queryId
+                + " was disconnected"));
+    }
+
+    IRCManager getManager() {
+        return manager;
+    }
+
+    /**
+     * Get the number of messages discarded because the handler did not keep up.
+     * @return The number of messages.
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void run() {
+        int page = 0;
+        List<Entry> batch = new ArrayList<>(batchSize);
+        try {
+            while (!cancelled) {
+                Entry first = queue.poll(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchMillis);
+                while (batch.size() < batchSize && !cancelled) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() == batchSize || remaining <= 0) {
+                        break;
+                    }
+                    Entry next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                if (!cancelled) {
+                    deliver(batch, page++);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            resultHandler.processException(queryId, new ExecutionException(e));
+        } finally {
+            manager.removeMessageListener(channel, this);
+            engine.finished(queryId, this);
+            if (dropped.get() > 0) {
+                LOG.warn("Continuous query " + queryId + " dropped " + dropped.get() + " messages");
+            }
+        }
+    }
+
+    private void deliver(List<Entry> batch, int page) {
+        ResultSet resultSet = new ResultSet();
+        resultSet.setColumnMetadata(plan.getProjection().getColumnMetadata());
+        for (Entry entry : batch) {
+            resultSet.add(projector.project(entry.segment, entry.row));
+        }
+        QueryResult result = QueryResult.createQueryResult(resultSet);
+        result.setQueryId(queryId);
+        result.setResultPage(page);
+        resultHandler.processResult(result);
+    }
+
+    /**
+     * Reference to a queued message. Segments are never overwritten, so the reference stays valid even if the
+     * segment is evicted from the store before the message is delivered.
+     */
+    private static final class Entry {
+        private final MessageSegment segment;
+        private final int row;
+
+        private Entry(MessageSegment segment, int row) {
+            this.segment = segment;
+            this.row = row;
+        }
+    }
+}
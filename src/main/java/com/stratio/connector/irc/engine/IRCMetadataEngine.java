@@ -31,6 +31,7 @@ import com.stratio.crossdata.common.connector.IMetadataEngine;
 import com.stratio.crossdata.common.data.AlterOptions;
 import com.stratio.crossdata.common.data.CatalogName;
 import com.stratio.crossdata.common.data.ClusterName;
+import com.stratio.crossdata.common.data.ColumnName;
 import com.stratio.crossdata.common.data.TableName;
 import com.stratio.crossdata.common.exceptions.ConnectorException;
 import com.stratio.crossdata.common.exceptions.UnsupportedException;
@@ -85,13 +86,24 @@ public class IRCMetadataEngine implements IMetadataEngine{
         if(indexMetadata.getColumns().size()>1){
             throw new ConnectorException("Only supported one column index");
         }
-        if(!indexMetadata.getColumns().containsKey("message")){
-            throw new ConnectorException("Only supported index in the column message");
+        for (ColumnName column : indexMetadata.getColumns().keySet()) {
+            if (!"message".equals(column.getName())) {
+                throw new ConnectorException("Only supported index in the column message");
+            }
         }
+        getManager(targetCluster).createIndex(indexMetadata.getName().getTableName().getName());
     }
 
     @Override
     public void dropIndex(ClusterName targetCluster, IndexMetadata indexMetadata) throws ConnectorException {
+        getManager(targetCluster).dropIndex(indexMetadata.getName().getTableName().getName());
+    }
 
+    private IRCManager getManager(ClusterName targetCluster) throws ConnectorException {
+        IRCManager manager = managers.get(targetCluster);
+        if (manager == null) {
+            throw new ConnectorException("Cluster " + targetCluster + " is not connected");
+        }
+        return manager;
     }
 }
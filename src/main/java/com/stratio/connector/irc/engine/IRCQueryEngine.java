@@ -25,180 +25,394 @@
 package com.stratio.connector.irc.engine;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.stratio.connector.irc.manager.ChannelSnapshot;
 import com.stratio.connector.irc.manager.IRCManager;
-import com.stratio.connector.irc.manager.Message;
+import com.stratio.connector.irc.manager.IRCOptions;
+import com.stratio.connector.irc.metrics.MetricRegistry;
 import com.stratio.crossdata.common.connector.IQueryEngine;
 import com.stratio.crossdata.common.connector.IResultHandler;
-import com.stratio.crossdata.common.data.Cell;
 import com.stratio.crossdata.common.data.ClusterName;
-import com.stratio.crossdata.common.data.ColumnName;
 import com.stratio.crossdata.common.data.ResultSet;
 import com.stratio.crossdata.common.data.Row;
 import com.stratio.crossdata.common.exceptions.ConnectorException;
+import com.stratio.crossdata.common.exceptions.ExecutionException;
 import com.stratio.crossdata.common.exceptions.UnsupportedException;
-import com.stratio.crossdata.common.logicalplan.Filter;
-import com.stratio.crossdata.common.logicalplan.LogicalStep;
 import com.stratio.crossdata.common.logicalplan.LogicalWorkflow;
-import com.stratio.crossdata.common.logicalplan.Project;
-import com.stratio.crossdata.common.logicalplan.Select;
-import com.stratio.crossdata.common.metadata.ColumnMetadata;
-import com.stratio.crossdata.common.metadata.ColumnType;
+import com.stratio.crossdata.common.logicalplan.Window;
 import com.stratio.crossdata.common.result.QueryResult;
-import com.stratio.crossdata.common.statements.structures.ColumnSelector;
-import com.stratio.crossdata.common.statements.structures.Operator;
-import com.stratio.crossdata.common.statements.structures.StringSelector;
+import com.stratio.crossdata.common.statements.structures.window.WindowType;
 
 /**
- * Skeleton query engine
+ * Query engine of the IRC connector.
+ *
+ * <p>Workflows are parsed into a {@link QueryPlan} and run over a snapshot of the messages of a channel, so a
+ * query never blocks the ingest of new messages. Plain queries are answered from the per-cluster result cache when
+ * possible, large unlimited scans are split over a fork-join pool, and aggregations are computed by the connector.
+ * Asynchronous queries stream their result in pages, and windowed queries run as continuous queries fed by the
+ * messages appended to their channel. Every query records the use of its channel, which joins the channel first
+ * when channels are joined lazily.</p>
  */
 public class IRCQueryEngine implements IQueryEngine {
 
     private Map<ClusterName, IRCManager> managers;
 
+    /**
+     * Queries launched with {@link #asyncExecute} that are still running.
+     */
+    private final ConcurrentMap<String, RunningQuery> runningQueries = new ConcurrentHashMap<>();
+
+    /**
+     * Result caches of the connected managers. A manager and its channel sequences are replaced on reconnection,
+     * so caches are tied to the manager instance.
+     */
+    private final Map<IRCManager, QueryCache> caches = Collections.synchronizedMap(
+            new WeakHashMap<IRCManager, QueryCache>());
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "irc-query-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Pool of the parallel scans, shared by every query.
+     */
+    private final ForkJoinPool scanPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
     public IRCQueryEngine(Map<ClusterName, IRCManager> managers) {
         this.managers = managers;
     }
 
     @Override
     public QueryResult execute(LogicalWorkflow workflow) throws ConnectorException {
+        long start = System.nanoTime();
         ResultSet resultSet = new ResultSet();
-        Project project = (Project) workflow.getInitialSteps().iterator().next();
-        IRCManager engine = managers.get(project.getClusterName());
-        List<Message> messages = engine.getMessagesFromChannel(project.getTableName().getName());
-        LogicalStep nextStep = project.getNextStep();
-        while (nextStep != null) {
-            if (nextStep instanceof Filter) {
-                Filter filter = (Filter) nextStep;
-                messages = this.applyFilter(messages, filter);
-            } else if (nextStep instanceof Select) {
-                Select select = (Select) nextStep;
-                resultSet = computeResultSet(messages, select);
+        QueryPlan plan = QueryPlan.parse(workflow);
+        IRCManager manager = getManager(plan);
+        MetricRegistry metrics = manager.getMetrics();
+        QueryStats stats = metrics == null ? null : new QueryStats();
+        String channel = plan.getProject().getTableName().getName();
+        manager.useChannel(channel);
+        ChannelSnapshot snapshot = manager.getMessagesFromChannel(channel);
+        if (plan.getAggregation() != null) {
+            for (Row row : aggregate(plan, snapshot, manager.getOptions(), stats)) {
+                resultSet.add(row);
+            }
+            resultSet.setColumnMetadata(plan.getProjection().getColumnMetadata());
+        } else if (plan.getSelect() != null) {
+            boolean newestFirst = isNewestFirst(plan, manager);
+            QueryCache cache = getCache(manager);
+            if (cache == null) {
+                resultSet = computeResultSet(scan(plan, snapshot, newestFirst, Long.MIN_VALUE, manager.getOptions(),
+                        stats), plan.getProjection());
+            } else {
+                resultSet = computeCachedResultSet(cache, plan, snapshot, newestFirst, manager.getOptions(), stats);
             }
-            nextStep = nextStep.getNextStep();
         }
-
+        if (stats != null) {
+            stats.record(metrics, System.nanoTime() - start);
+        }
         return QueryResult.createQueryResult(resultSet);
     }
 
+    /**
+     * Count the groups of an aggregated query. The whole pass is accounted as filtering.
+     */
+    private List<Row> aggregate(QueryPlan plan, ChannelSnapshot snapshot, IRCOptions options, QueryStats stats) {
+        long start = System.nanoTime();
+        ChannelScan scan = plan.scan(snapshot, false);
+        long opened = System.nanoTime();
+        List<Row> rows = plan.getAggregation().compute(scan, plan.getLimit(), options.getQueryGroupBucket());
+        if (stats != null) {
+            stats.add(opened - start, System.nanoTime() - opened, 0, scan.getExamined(), rows.size());
+        }
+        return rows;
+    }
+
+    /**
+     * Answer a query from the cache when the channel has not changed since its result was computed. An unlimited
+     * result of a channel that only gained or evicted messages is extended with a scan of the new messages.
+     */
+    private ResultSet computeCachedResultSet(QueryCache cache, QueryPlan plan, ChannelSnapshot snapshot,
+            boolean newestFirst, IRCOptions options, QueryStats stats) throws ExecutionException {
+        String key = QueryCache.getKey(plan, newestFirst);
+        long first = snapshot.getFirstSequence();
+        long end = snapshot.getEndSequence();
+        QueryCache.CachedResult cached = cache.get(key);
+        QueryCache.CachedResult result;
+        if (cached != null && cached.getFirstSequence() == first && cached.getEndSequence() == end) {
+            return cached.toResultSet();
+        } else if (cached != null && plan.getLimit() < 0 && cached.isExtensibleTo(first, end)) {
+            result = cached.extend(first, end, scan(plan, snapshot, false, cached.getEndSequence(), options, stats));
+        } else {
+            result = new QueryCache.CachedResult(first, end, scan(plan, snapshot, newestFirst, Long.MIN_VALUE,
+                    options, stats), plan.getProjection().getColumnMetadata());
+        }
+        cache.put(key, result);
+        return result.toResultSet();
+    }
+
+    /**
+     * Get the result cache of a manager.
+     * @return The cache or null if caching is disabled for the cluster.
+     */
+    private QueryCache getCache(IRCManager manager) {
+        IRCOptions options = manager.getOptions();
+        if (options.getQueryCacheEntries() <= 0 || options.getQueryCacheRows() <= 0) {
+            return null;
+        }
+        synchronized (caches) {
+            QueryCache cache = caches.get(manager);
+            if (cache == null) {
+                cache = new QueryCache(options.getQueryCacheEntries(), options.getQueryCacheRows());
+                caches.put(manager, cache);
+            }
+            return cache;
+        }
+    }
+
     @Override
     public void asyncExecute(String queryId, LogicalWorkflow workflow, IResultHandler resultHandler)
             throws ConnectorException {
-        throw new UnsupportedException("Method not implemented");
+        QueryPlan plan = QueryPlan.parse(workflow);
+        IRCManager manager = getManager(plan);
+        String channel = plan.getProject().getTableName().getName();
+        if (plan.getWindow() != null) {
+            if (plan.getAggregation() != null) {
+                throw new UnsupportedException("Continuous queries cannot aggregate");
+            }
+            startContinuousQuery(queryId, plan, manager, channel, resultHandler);
+            return;
+        }
+        manager.useChannel(channel);
+        ChannelSnapshot snapshot = manager.getMessagesFromChannel(channel);
+        AsyncQuery query = new AsyncQuery(queryId, this, snapshot, plan, resultHandler,
+                manager.getOptions().getQueryPageSize(), isNewestFirst(plan, manager),
+                manager.getOptions().getQueryGroupBucket());
+        launch(queryId, query);
     }
 
-    public ResultSet computeResultSet(List<Message> messages, Select select) {
-        ResultSet resultSet = new ResultSet();
-        for (Message message : messages) {
-            resultSet.add(this.computeRow(message, select));
+    private void startContinuousQuery(String queryId, QueryPlan plan, IRCManager manager, String channel,
+            IResultHandler resultHandler) throws ExecutionException {
+        if (plan.getSelect() == null) {
+            throw new ExecutionException("Continuous queries require a projection");
+        }
+        if (!manager.useChannel(channel)) {
+            throw new ExecutionException("Channel #" + channel + " is not joined, cannot stream its messages");
+        }
+        IRCOptions options = manager.getOptions();
+        int batchSize = options.getStreamBatchSize();
+        long batchMillis = options.getStreamBatchTime();
+        Window window = plan.getWindow();
+        if (window.getType() == WindowType.NUM_ROWS && window.getNumRows() > 0) {
+            batchSize = window.getNumRows();
+        } else if (window.getType() == WindowType.TEMPORAL && window.getDurationInMilliseconds() > 0) {
+            batchMillis = window.getDurationInMilliseconds();
+        }
+        ContinuousQuery query = new ContinuousQuery(queryId, this, manager, channel, plan, resultHandler,
+                batchSize, batchMillis, options.getStreamQueueSize());
+        query.subscribe();
+        try {
+            launch(queryId, query);
+        } catch (ExecutionException e) {
+            query.cancel();
+            throw e;
         }
+    }
 
-        //Store the metadata information
-        List<ColumnMetadata> columnMetadataList = new ArrayList<>();
-        for (Map.Entry<ColumnName, ColumnType> aliasType : select.getTypeMapFromColumnName().entrySet()) {
-            ColumnName columnName = aliasType.getKey();
-            columnName.setAlias(select.getColumnMap().get(columnName));
-            ColumnMetadata metadata = new ColumnMetadata(columnName, null, aliasType.getValue());
-            columnMetadataList.add(metadata);
+    private void launch(String queryId, RunningQuery query) throws ExecutionException {
+        if (runningQueries.putIfAbsent(queryId, query) != null) {
+            throw new ExecutionException("Query " + queryId + " is already running");
+        }
+        try {
+            executor.execute(query);
+        } catch (RejectedExecutionException e) {
+            runningQueries.remove(queryId, query);
+            throw new ExecutionException("Query engine is shut down", e);
         }
-        resultSet.setColumnMetadata(columnMetadataList);
-        return resultSet;
     }
 
-    public Row computeRow(Message message, Select select) {
-        Row result = new Row();
-        for (ColumnName columnName : select.getColumnMap().keySet()) {
-            String alias = select.getColumnMap().get(columnName);
-            switch (columnName.getName()) {
-            case "message":
-                result.addCell(alias, new Cell(message.getMessage()));
-                break;
-            case "timestamp":
-                result.addCell(alias, new Cell(message.getTimestamp()));
-                break;
-            case "host":
-                result.addCell(alias, new Cell(message.getHost()));
-                break;
-            case "channel":
-                result.addCell(alias, new Cell(message.getChannel()));
-                break;
-            default:
-                result.addCell(alias, new Cell(""));
+    @Override
+    public void stop(String queryId) throws ConnectorException {
+        RunningQuery query = runningQueries.remove(queryId);
+        if (query != null) {
+            query.cancel();
+        }
+    }
+
+    /**
+     * Stop the continuous queries of a manager that is being disconnected, so they do not keep polling it. Their
+     * handlers are told the queries ended.
+     * @param manager The manager.
+     */
+    public void stopQueries(IRCManager manager) {
+        for (Map.Entry<String, RunningQuery> entry : runningQueries.entrySet()) {
+            RunningQuery query = entry.getValue();
+            if (query instanceof ContinuousQuery && ((ContinuousQuery) query).getManager() == manager
+                    && runningQueries.remove(entry.getKey(), query)) {
+                ((ContinuousQuery) query).close();
             }
         }
-        return result;
     }
 
-    private List<Message> applyFilter(List<Message> messages, Filter filter) throws UnsupportedException {
-        List<Message> result = new ArrayList<Message>();
-        for (Message message : messages) {
-            if(this.applyFilter(message, filter)) {
-                result.add(message);
+    /**
+     * Stop every running query and release the query threads.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        scanPool.shutdownNow();
+        for (RunningQuery query : runningQueries.values()) {
+            query.cancel();
+        }
+        runningQueries.clear();
+    }
+
+    void finished(String queryId, RunningQuery query) {
+        runningQueries.remove(queryId, query);
+    }
+
+    /**
+     * Check if a query should scan the channel newest first, so a limited query reads only the latest messages.
+     */
+    private boolean isNewestFirst(QueryPlan plan, IRCManager manager) {
+        return plan.getLimit() >= 0 && manager.getOptions().isQueryNewestFirst();
+    }
+
+    private IRCManager getManager(QueryPlan plan) throws ExecutionException {
+        IRCManager manager = managers.get(plan.getProject().getClusterName());
+        if (manager == null) {
+            throw new ExecutionException("Cluster " + plan.getProject().getClusterName() + " is not connected");
+        }
+        return manager;
+    }
+
+    /**
+     * Scan a channel projecting the messages that satisfy the filters. The scan stops as soon as the limit is
+     * reached. Unlimited scans over at least the parallel threshold of messages are split into chunks of
+     * consecutive messages evaluated on the scan pool, and the chunks are concatenated in channel order.
+     * @param plan The query.
+     * @param snapshot The messages of the channel.
+     * @param reverse Whether to scan newest first. Rows are returned in channel order anyway.
+     * @param fromSequence The first sequence to consider.
+     * @param options The options of the cluster.
+     * @param stats The statistics the scan is added to, or null if metrics are disabled.
+     * @return The rows.
+     * @throws ExecutionException If a parallel scan fails or is interrupted.
+     */
+    ScannedRows scan(QueryPlan plan, ChannelSnapshot snapshot, boolean reverse, long fromSequence,
+            IRCOptions options, QueryStats stats) throws ExecutionException {
+        long from = Math.max(plan.getFromSequence(snapshot), fromSequence);
+        long to = plan.getToSequence(snapshot);
+        int parallelism = Math.min(options.getQueryParallelism(), scanPool.getParallelism());
+        if (plan.getLimit() < 0 && parallelism > 1 && to - from >= options.getQueryParallelThreshold()) {
+            return parallelScan(plan, snapshot, from, to, parallelism, stats);
+        }
+        ScannedRows rows = scanRange(plan, snapshot, reverse, from, to, stats);
+        if (reverse) {
+            rows.reverse();
+        }
+        return rows;
+    }
+
+    private ScannedRows scanRange(QueryPlan plan, ChannelSnapshot snapshot, boolean reverse, long from, long to,
+            QueryStats stats) {
+        ScannedRows rows = new ScannedRows();
+        long start = stats == null ? 0 : System.nanoTime();
+        ChannelScan scan = plan.scan(snapshot, reverse, from, to);
+        Projection.Projector projector = plan.getProjection().newProjector();
+        int limit = plan.getLimit();
+        if (stats == null) {
+            while ((limit < 0 || rows.size() < limit) && scan.next()) {
+                rows.add(scan.getSegment().getBaseSequence() + scan.getRow(),
+                        projector.project(scan.getSegment(), scan.getRow()));
             }
+            return rows;
         }
-        return result;
+        long opened = System.nanoTime();
+        long projectNanos = 0;
+        while ((limit < 0 || rows.size() < limit) && scan.next()) {
+            long matched = System.nanoTime();
+            Row row = projector.project(scan.getSegment(), scan.getRow());
+            projectNanos += System.nanoTime() - matched;
+            rows.add(scan.getSegment().getBaseSequence() + scan.getRow(), row);
+        }
+        stats.add(opened - start, System.nanoTime() - opened - projectNanos, projectNanos, scan.getExamined(),
+                rows.size());
+        return rows;
     }
 
-    private boolean applyFilter(Message message, Filter filter) throws UnsupportedException {
-        boolean result = false;
-        ColumnSelector columnSelector = (ColumnSelector) filter.getRelation().getLeftTerm();
-        StringSelector stringSelector;
-        if (filter.getRelation().getRightTerm() instanceof StringSelector) {
-            stringSelector = (StringSelector) filter.getRelation().getRightTerm();
-        } else {
-            throw new UnsupportedException("Only support String comparator");
-        }
-        switch (columnSelector.getName().getName()) {
-        case "message":
-            result = applyFilter(message.getMessage(), filter.getRelation().getOperator(), stringSelector);
-            break;
-        case "timestamp":
-            result = applyFilter(message.getTimestamp(), filter.getRelation().getOperator(), stringSelector);
-            break;
-        case "host":
-            result = applyFilter(message.getHost(), filter.getRelation().getOperator(), stringSelector);
-            break;
-        case "channel":
-            result = applyFilter(message.getChannel(), filter.getRelation().getOperator(), stringSelector);
-            break;
-        }
-        return result;
-    }
-
-    private boolean applyFilter(String value, Operator operator, StringSelector selector) throws UnsupportedException {
-        boolean result = false;
-        switch (operator) {
-        case EQ:
-            result = value.equals(selector.getStringValue());
-            break;
-        case MATCH:
-            result = value.matches("(.*)" + selector.getStringValue() + "(.*)");
-            break;
-        case GT:
-            result = value.compareTo(selector.getStringValue()) > 0;
-            break;
-        case LT:
-            result = value.compareTo(selector.getStringValue()) < 0;
-            break;
-        case GET:
-            result = value.compareTo(selector.getStringValue()) >= 0;
-            break;
-        case LET:
-            result = value.compareTo(selector.getStringValue()) <= 0;
-            break;
-        case DISTINCT:
-            result = !value.equals(selector.getStringValue());
-            break;
-        default:
-            throw new UnsupportedException("Operator not supported");
-        }
-        return result;
+    /**
+     * Scan a range of sequences split in as many chunks as the parallelism of the query.
+     */
+    private ScannedRows parallelScan(final QueryPlan plan, final ChannelSnapshot snapshot, long from, long to,
+            int parallelism, final QueryStats stats) throws ExecutionException {
+        long chunk = (to - from + parallelism - 1) / parallelism;
+        List<Callable<ScannedRows>> tasks = new ArrayList<>(parallelism);
+        List<QueryStats> chunkStats = new ArrayList<>(parallelism);
+        for (long start = from; start < to; start += chunk) {
+            final long chunkFrom = start;
+            final long chunkTo = Math.min(to, start + chunk);
+            // Each chunk records its own statistics, merged once every chunk is done.
+            final QueryStats taskStats = stats == null ? null : new QueryStats();
+            chunkStats.add(taskStats);
+            tasks.add(new Callable<ScannedRows>() {
+                @Override
+                public ScannedRows call() {
+                    return scanRange(plan, snapshot, false, chunkFrom, chunkTo, taskStats);
+                }
+            });
+        }
+        ScannedRows rows = new ScannedRows();
+        try {
+            for (Future<ScannedRows> chunkRows : scanPool.invokeAll(tasks)) {
+                rows.addAll(chunkRows.get());
+            }
+            if (stats != null) {
+                for (QueryStats taskStats : chunkStats) {
+                    stats.add(taskStats);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException("Interrupted while scanning", e);
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw new ExecutionException("Parallel scan failed: " + e.getCause().getMessage(), e.getCause());
+        }
+        return rows;
     }
 
-    @Override
-    public void stop(String queryId) throws ConnectorException {
-        throw new UnsupportedException("Method not implemented");
+    /**
+     * Build a result set from scanned rows.
+     * @param rows The rows in channel order.
+     * @param projection The projection of the rows.
+     * @return The result set.
+     */
+    ResultSet computeResultSet(ScannedRows rows, Projection projection) {
+        ResultSet resultSet = new ResultSet();
+        for (Row row : rows.getRows()) {
+            resultSet.add(row);
+        }
+        resultSet.setColumnMetadata(projection.getColumnMetadata());
+        return resultSet;
     }
 }
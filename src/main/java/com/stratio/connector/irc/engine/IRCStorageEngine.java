@@ -24,15 +24,20 @@
 
 package com.stratio.connector.irc.engine;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import com.stratio.connector.irc.manager.IRCManager;
 import com.stratio.crossdata.common.connector.IStorageEngine;
+import com.stratio.crossdata.common.data.Cell;
 import com.stratio.crossdata.common.data.ClusterName;
 import com.stratio.crossdata.common.data.Row;
 import com.stratio.crossdata.common.data.TableName;
 import com.stratio.crossdata.common.exceptions.ConnectorException;
+import com.stratio.crossdata.common.exceptions.ExecutionException;
 import com.stratio.crossdata.common.exceptions.UnsupportedException;
 import com.stratio.crossdata.common.logicalplan.Filter;
 import com.stratio.crossdata.common.metadata.TableMetadata;
@@ -52,19 +57,48 @@ public class IRCStorageEngine implements IStorageEngine{
 
     @Override public void insert(ClusterName targetCluster, TableMetadata targetTable, Row row)
             throws ConnectorException {
-        Object message= row.getCell("message");
-        if(message==null){
-            throw new ConnectorException("You must add message column in the insert clause.");
-        }
-        IRCManager manager= managers.get(targetCluster);
-        manager.sendMessage(targetTable.getName().getName(),message.toString());
+        send(targetCluster, targetTable, Collections.singletonList(getMessage(row)));
     }
 
+    /**
+     * Convert the rows to messages and enqueue them at once in the outbound queue of the cluster. The call does
+     * not wait for the messages to be sent.
+     */
     @Override public void insert(ClusterName targetCluster, TableMetadata targetTable, Collection<Row> rows)
             throws ConnectorException {
+        List<String> messages = new ArrayList<>(rows.size());
         for(Row row:rows){
-            insert(targetCluster,targetTable,row);
+            messages.add(getMessage(row));
+        }
+        send(targetCluster, targetTable, messages);
+    }
+
+    private void send(ClusterName targetCluster, TableMetadata targetTable, List<String> messages)
+            throws ConnectorException {
+        IRCManager manager= managers.get(targetCluster);
+        if (manager == null) {
+            throw new ExecutionException("Cluster " + targetCluster + " is not connected");
+        }
+        String channel = targetTable.getName().getName();
+        if (!manager.useChannel(channel)) {
+            throw new ExecutionException("Channel #" + channel + " is not joined by " + targetCluster + ", "
+                    + messages.size() + " messages rejected");
+        }
+        if (!manager.sendMessages(channel, messages)) {
+            if (manager.getMetrics() != null) {
+                manager.getMetrics().counter("send.rejected").add(messages.size());
+            }
+            throw new ExecutionException("Outbound queue of " + targetCluster + " is full, " + messages.size()
+                    + " messages to " + channel + " rejected");
+        }
+    }
+
+    private static String getMessage(Row row) throws ConnectorException {
+        Cell message= row.getCell("message");
+        if(message==null || message.getValue()==null){
+            throw new ConnectorException("You must add message column in the insert clause.");
         }
+        return message.getValue().toString();
     }
 
     @Override public void delete(ClusterName targetCluster, TableName tableName, Collection<Filter> whereClauses)
@@ -0,0 +1,549 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.stratio.connector.irc.manager.MemorySegment;
+import com.stratio.connector.irc.manager.Message;
+import com.stratio.connector.irc.manager.MessageSegment;
+import com.stratio.connector.irc.manager.StringDictionary;
+import com.stratio.crossdata.common.exceptions.UnsupportedException;
+import com.stratio.crossdata.common.logicalplan.Filter;
+import com.stratio.crossdata.common.statements.structures.ColumnSelector;
+import com.stratio.crossdata.common.statements.structures.IntegerSelector;
+import com.stratio.crossdata.common.statements.structures.Operator;
+import com.stratio.crossdata.common.statements.structures.StringSelector;
+
+/**
+ * Compiles {@link Filter} steps into {@link MessagePredicate}s. The column, the operator and the right term are
+ * resolved at compile time so evaluating a row does no string switching, casting or regex compilation.
+ */
+public final class MessagePredicates {
+
+    /**
+     * Predicate that accepts every message.
+     */
+    public static final MessagePredicate TRUE = new MessagePredicate() {
+        @Override
+        public boolean accept(MessageSegment segment, int row) {
+            return true;
+        }
+    };
+
+    /**
+     * Predicate that rejects every message.
+     */
+    public static final MessagePredicate FALSE = new MessagePredicate() {
+        @Override
+        public boolean accept(MessageSegment segment, int row) {
+            return false;
+        }
+    };
+
+    private static final String REGEX_CHARACTERS = "\\^$.|?*+()[]{}";
+
+    private MessagePredicates() {
+    }
+
+    /**
+     * Compile a list of filters into a single predicate that accepts the messages that satisfy all of them.
+     * @param filters The filters.
+     * @return The predicate.
+     * @throws UnsupportedException If a filter cannot be evaluated by the connector.
+     */
+    public static MessagePredicate compile(List<Filter> filters) throws UnsupportedException {
+        List<MessagePredicate> predicates = new ArrayList<>();
+        for (Filter filter : filters) {
+            MessagePredicate predicate = compile(filter);
+            if (predicate == FALSE) {
+                return FALSE;
+            }
+            if (predicate != TRUE) {
+                predicates.add(predicate);
+            }
+        }
+        if (predicates.isEmpty()) {
+            return TRUE;
+        }
+        if (predicates.size() == 1) {
+            return predicates.get(0);
+        }
+        return new And(predicates.toArray(new MessagePredicate[predicates.size()]));
+    }
+
+    /**
+     * Compile a filter into a predicate.
+     * @param filter The filter.
+     * @return The predicate.
+     * @throws UnsupportedException If the filter cannot be evaluated by the connector.
+     */
+    public static MessagePredicate compile(Filter filter) throws UnsupportedException {
+        ColumnSelector columnSelector = (ColumnSelector) filter.getRelation().getLeftTerm();
+        if (filter.getRelation().getRightTerm() instanceof IntegerSelector
+                && "timestamp".equals(columnSelector.getName().getName())) {
+            long millis = ((IntegerSelector) filter.getRelation().getRightTerm()).getValue();
+            return compileTimestamp(filter.getRelation().getOperator(), millis, 1);
+        }
+        if (!(filter.getRelation().getRightTerm() instanceof StringSelector)) {
+            throw new UnsupportedException("Only support String comparator");
+        }
+        String value = ((StringSelector) filter.getRelation().getRightTerm()).getStringValue();
+        Operator operator = filter.getRelation().getOperator();
+        switch (columnSelector.getName().getName()) {
+        case "message":
+            return compileMessage(operator, value);
+        case "timestamp":
+            return compileTimestamp(operator, value);
+        case "user":
+            return compileString(StringColumn.USER, operator, value);
+        case "host":
+            return compileString(StringColumn.HOST, operator, value);
+        case "channel":
+            return compileString(StringColumn.CHANNEL, operator, value);
+        default:
+            return FALSE;
+        }
+    }
+
+    private static MessagePredicate compileMessage(Operator operator, String value) throws UnsupportedException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        switch (operator) {
+        case EQ:
+            return new MessageEquals(bytes, false);
+        case DISTINCT:
+            return new MessageEquals(bytes, true);
+        case MATCH:
+            if (!isRegex(value)) {
+                return new MessageContains(bytes);
+            }
+            try {
+                return new MessageRegex(Pattern.compile(value));
+            } catch (PatternSyntaxException e) {
+                throw new UnsupportedException("Invalid MATCH expression: " + e.getMessage());
+            }
+        default:
+            return compileString(StringColumn.MESSAGE, operator, value);
+        }
+    }
+
+    private static MessagePredicate compileTimestamp(Operator operator, String value) throws UnsupportedException {
+        Long bound = parseTimestamp(value);
+        if (bound == null || operator == Operator.MATCH) {
+            return compileString(StringColumn.TIMESTAMP, operator, value);
+        }
+        return compileTimestamp(operator, bound / 1000, 1000);
+    }
+
+    /**
+     * Compile a comparison of the timestamps truncated to a unit.
+     * @param operator The operator.
+     * @param bound The bound, in units.
+     * @param unit The millis of a unit: 1000 for the formatted column, 1 for epoch millis.
+     * @return The predicate.
+     * @throws UnsupportedException If the operator cannot be applied to timestamps.
+     */
+    private static MessagePredicate compileTimestamp(Operator operator, long bound, long unit)
+            throws UnsupportedException {
+        switch (operator) {
+        case EQ:
+            return new TimestampCompare(bound, unit, 0, true);
+        case DISTINCT:
+            return new Not(new TimestampCompare(bound, unit, 0, true));
+        case GT:
+            return new TimestampCompare(bound, unit, 1, false);
+        case LT:
+            return new TimestampCompare(bound, unit, -1, false);
+        case GET:
+            return new TimestampCompare(bound, unit, 1, true);
+        case LET:
+            return new TimestampCompare(bound, unit, -1, true);
+        default:
+            throw new UnsupportedException("Operator not supported");
+        }
+    }
+
+    private static MessagePredicate compileString(StringColumn column, Operator operator, String value)
+            throws UnsupportedException {
+        switch (operator) {
+        case EQ:
+            return compileEquals(column, value, false);
+        case DISTINCT:
+            return compileEquals(column, value, true);
+        case MATCH:
+            try {
+                return new StringRegex(column, Pattern.compile(value));
+            } catch (PatternSyntaxException e) {
+                throw new UnsupportedException("Invalid MATCH expression: " + e.getMessage());
+            }
+        case GT:
+            return new StringCompare(column, value, 1, false);
+        case LT:
+            return new StringCompare(column, value, -1, false);
+        case GET:
+            return new StringCompare(column, value, 1, true);
+        case LET:
+            return new StringCompare(column, value, -1, true);
+        default:
+            throw new UnsupportedException("Operator not supported");
+        }
+    }
+
+    private static MessagePredicate compileEquals(StringColumn column, String value, boolean negate) {
+        switch (column) {
+        case USER:
+        case HOST:
+            return new DictionaryEquals(column, value, negate);
+        case CHANNEL:
+            return new ChannelEquals(value, negate);
+        default:
+            return new StringEquals(column, value, negate);
+        }
+    }
+
+    /**
+     * Parse a timestamp with the format of the timestamp column.
+     * @param value The formatted timestamp.
+     * @return The epoch millis or null if the value does not follow the format.
+     */
+    static Long parseTimestamp(String value) {
+        SimpleDateFormat format = new SimpleDateFormat(Message.TIMESTAMP_PATTERN);
+        format.setLenient(false);
+        ParsePosition position = new ParsePosition(0);
+        Date date = format.parse(value, position);
+        if (date == null || position.getIndex() != value.length()) {
+            return null;
+        }
+        return date.getTime();
+    }
+
+    /**
+     * Check if a MATCH expression uses regular expression syntax.
+     * @param value The expression.
+     * @return Whether it contains any regular expression metacharacter.
+     */
+    static boolean isRegex(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (REGEX_CHARACTERS.indexOf(value.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Accessor of a string column chosen at compile time.
+     */
+    enum StringColumn {
+        MESSAGE {
+            @Override
+            String get(MessageSegment segment, int row) {
+                return segment.getMessage(row);
+            }
+        },
+        TIMESTAMP {
+            @Override
+            String get(MessageSegment segment, int row) {
+                return Message.formatTimestamp(segment.getTimestamp(row));
+            }
+        },
+        USER {
+            @Override
+            String get(MessageSegment segment, int row) {
+                return segment.getUser(row);
+            }
+        },
+        HOST {
+            @Override
+            String get(MessageSegment segment, int row) {
+                return segment.getHost(row);
+            }
+        },
+        CHANNEL {
+            @Override
+            String get(MessageSegment segment, int row) {
+                return segment.getChannel();
+            }
+        };
+
+        abstract String get(MessageSegment segment, int row);
+    }
+
+    /**
+     * Create a matcher per thread, so a compiled predicate can be shared by the tasks of a parallel scan while
+     * each thread reuses its matcher for every row.
+     * @param pattern The pattern.
+     * @return The matchers.
+     */
+    private static ThreadLocal<Matcher> newMatcher(final Pattern pattern) {
+        return new ThreadLocal<Matcher>() {
+            @Override
+            protected Matcher initialValue() {
+                return pattern.matcher("");
+            }
+        };
+    }
+
+    static final class And implements MessagePredicate {
+        private final MessagePredicate[] predicates;
+
+        And(MessagePredicate[] predicates) {
+            this.predicates = predicates;
+        }
+
+        @Override
+        public boolean accept(MessageSegment segment, int row) {
+            for (MessagePredicate predicate : predicates) {
+                if (!predicate.accept(segment, row)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static final class Not implements MessagePredicate {
+        private final MessagePredicate predicate;
+
+        Not(MessagePredicate predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        public boolean accept(MessageSegment segment, int row) {
+            return !predicate.accept(segment, row);
+        }
+    }
+
+    static final class StringEquals implements MessagePredicate {
+        private final StringColumn column;
+        private final String value;
+        private final boolean negate;
+
+        StringEquals(StringColumn column, String value, boolean negate) {
+            this.column = column;
+            this.value = value;
+            this.negate = negate;
+        }
+
+        @Override
+        public boolean accept(MessageSegment segment, int row) {
+            return value.equals(column.get(segment, row)) != negate;
+        }
+    }
+
+    /**
+     * Compares the user or host ids of in-memory segments with the id of the value, which is looked up once per
+     * dictionary. Only found ids are cached, since a value missing from a dictionary may be added by a later
+     * message; rows of a snapshot were encoded before it was taken, so they never miss an id added afterwards.
+     */
+    static final class DictionaryEquals implements MessagePredicate {
+        private final StringColumn column;
+        private final String value;
+        private final boolean negate;
+        private volatile Lookup lookup = new Lookup(null, -1);
+
+        DictionaryEquals(StringColumn column, String value, boolean negate) {
+            this.column = column;
+            this.value = value;
+            this.negate = negate;
+        }
+
+        @Override
+        public boolean accept(MessageSegment segment, int row) {
+            if (!(segment instanceof MemorySegment)) {
+                return value.equals(column.get(segment, row)) != negate;
+            }
+            MemorySegment memory = (MemorySegment) segment;
+            int id = column == StringColumn.USER ? memory.getUserId(row) : memory.getHostId(row);
+            return (id == getId(memory.getDictionary())) != negate;
+        }
+
+        private int getId(StringDictionary dictionary) {
+            Lookup current = lookup;
+            if (current.dictionary == dictionary && current.id >= 0) {
+                return current.id;
+            }
+            int id = dictionary.lookup(value);
+            if (id >= 0) {
+                lookup = new Lookup(dictionary, id);
+            }
+            return id;
+        }
+    }
+
+    private static final class Lookup {
+        private final StringDictionary dictionary;
+        private final int id;
+
+        private Lookup(StringDictionary dictionary, int id) {
+            this.dictionary = dictionary;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Compares the channel once per segment: the segments of a channel share the same name instance.
+     */
+    static final class ChannelEquals implements MessagePredicate {
+        private final String value;
+        private final boolean negate;
+        private volatile String accepted = null;
+        private volatile String rejected = null;
+
+        ChannelEquals(String value, boolean negate) {
+            this.value = value;
+            this.negate = negate;
+        }
+
+        @Override
+        public boolean accept(MessageSegment segment, int row) {
+            String channel = segment.getChannel();
+            if (channel == accepted) {
+                return true;
+            }
+            if (channel == rejected) {
+                return false;
+            }
+            boolean result = value.equals(channel) != negate;
+            if (result) {
+                accepted = channel;
+            } else {
+                rejected = channel;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Accepts the rows whose comparison with the value has the expected sign, or is zero when inclusive.
+     */
+    static final class StringCompare implements MessagePredicate {
+        private final StringColumn column;
+        private final String value;
+        private final int sign;
+        private final boolean inclusive;
+
+        StringCompare(StringColumn column, String value, int sign, boolean inclusive) {
+            this.column = column;
+            this.value = value;
+            this.sign = sign;
+            this.inclusive = inclusive;
+        }
+
+        @Override
+        public boolean accept(MessageSegment segment, int row) {
+            int comparison = column.get(segment, row).compareTo(value);
+            return comparison == 0 ? inclusive : Integer.signum(comparison) == sign;
+        }
+    }
+
+    static final class StringRegex implements MessagePredicate {
+        private final StringColumn column;
+        private final ThreadLocal<Matcher> matcher;
+
+        StringRegex(StringColumn column, Pattern pattern) {
+            this.column = column;
+            this.matcher = newMatcher(pattern);
+        }
+
+        @Override
+        public boolean accept(MessageSegment segment, int row) {
+            return matcher.get().reset(column.get(segment, row)).find();
+        }
+    }
+
+    static final class MessageEquals implements MessagePredicate {
+        private final byte[] value;
+        private final boolean negate;
+
+        MessageEquals(byte[] value, boolean negate) {
+            this.value = value;
+            this.negate = negate;
+        }
+
+        @Override
+        public boolean accept(MessageSegment segment, int row) {
+            return segment.messageEquals(row, value) != negate;
+        }
+    }
+
+    static final class MessageContains implements MessagePredicate {
+        private final byte[] needle;
+
+        MessageContains(byte[] needle) {
+            this.needle = needle;
+        }
+
+        @Override
+        public boolean accept(MessageSegment segment, int row) {
+            return segment.messageContains(row, needle);
+        }
+    }
+
+    static final class MessageRegex implements MessagePredicate {
+        private final ThreadLocal<Matcher> matcher;
+
+        MessageRegex(Pattern pattern) {
+            this.matcher = newMatcher(pattern);
+        }
+
+        @Override
+        public boolean accept(MessageSegment segment, int row) {
+            return matcher.get().reset(segment.getMessage(row)).find();
+        }
+    }
+
+    /**
+     * Compares timestamps with second precision, as the formatted timestamp column does.
+     */
+    static final class TimestampCompare implements MessagePredicate {
+        private final long bound;
+        private final long unit;
+        private final int sign;
+        private final boolean inclusive;
+
+        TimestampCompare(long bound, long unit, int sign, boolean inclusive) {
+            this.bound = bound;
+            this.unit = unit;
+            this.sign = sign;
+            this.inclusive = inclusive;
+        }
+
+        @Override
+        public boolean accept(MessageSegment segment, int row) {
+            long comparison = segment.getTimestamp(row) / unit - bound;
+            return comparison == 0 ? inclusive : Long.signum(comparison) == sign;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.stratio.connector.irc.manager.MemorySegment;
+import com.stratio.connector.irc.manager.Message;
+import com.stratio.connector.irc.manager.MessageSegment;
+import com.stratio.crossdata.common.data.Cell;
+import com.stratio.crossdata.common.data.ColumnName;
+import com.stratio.crossdata.common.data.Row;
+import com.stratio.crossdata.common.logicalplan.Select;
+import com.stratio.crossdata.common.metadata.ColumnMetadata;
+import com.stratio.crossdata.common.metadata.ColumnType;
+
+/**
+ * {@link Select} compiled once per query into the field and alias of each projected column, so projecting a
+ * message neither looks up the column map nor switches on column names. A timestamp column declared as BIGINT is
+ * projected as epoch millis and only other timestamp columns are formatted.
+ */
+class Projection {
+
+    private static final int MESSAGE = 0;
+    private static final int TIMESTAMP = 1;
+    private static final int USER = 2;
+    private static final int HOST = 3;
+    private static final int CHANNEL = 4;
+    private static final int UNKNOWN = 5;
+    private static final int EPOCH_MILLIS = 6;
+
+    private final String[] aliases;
+    private final int[] fields;
+    private final List<ColumnMetadata> columnMetadata;
+
+    private Projection(String[] aliases, int[] fields, List<ColumnMetadata> columnMetadata) {
+        this.aliases = aliases;
+        this.fields = fields;
+        this.columnMetadata = columnMetadata;
+    }
+
+    /**
+     * Compile a projection. The select step is not modified.
+     * @param select The projection.
+     * @return The compiled projection.
+     */
+    static Projection compile(Select select) {
+        Map<ColumnName, String> columnMap = select.getColumnMap();
+        Map<ColumnName, ColumnType> types = select.getTypeMapFromColumnName();
+        String[] aliases = new String[columnMap.size()];
+        int[] fields = new int[columnMap.size()];
+        int column = 0;
+        for (Map.Entry<ColumnName, String> entry : columnMap.entrySet()) {
+            aliases[column] = entry.getValue();
+            fields[column] = getField(entry.getKey().getName());
+            if (fields[column] == TIMESTAMP && types.get(entry.getKey()) == ColumnType.BIGINT) {
+                fields[column] = EPOCH_MILLIS;
+            }
+            column++;
+        }
+        List<ColumnMetadata> columnMetadata = new ArrayList<>();
+        for (Map.Entry<ColumnName, ColumnType> type : types.entrySet()) {
+            ColumnName original = type.getKey();
+            ColumnName columnName = new ColumnName(original.getTableName(), original.getName());
+            columnName.setAlias(columnMap.get(original));
+            columnMetadata.add(new ColumnMetadata(columnName, null, type.getValue()));
+        }
+        return new Projection(aliases, fields, Collections.unmodifiableList(columnMetadata));
+    }
+
+    private static int getField(String column) {
+        switch (column) {
+        case "message":
+            return MESSAGE;
+        case "timestamp":
+            return TIMESTAMP;
+        case "user":
+            return USER;
+        case "host":
+            return HOST;
+        case "channel":
+            return CHANNEL;
+        default:
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Get the metadata of the projected columns, named by their aliases.
+     * @return The metadata of each column.
+     */
+    List<ColumnMetadata> getColumnMetadata() {
+        return columnMetadata;
+    }
+
+    /**
+     * Create the projector of a thread.
+     * @return The projector.
+     */
+    Projector newProjector() {
+        return new Projector();
+    }
+
+    /**
+     * Builds the rows of the messages projected by one thread. Cells of repeated values are shared by the rows:
+     * the channel, the users and hosts of in-memory segments, resolved by their dictionary ids, and the timestamp
+     * while consecutive messages fall in the same second.
+     */
+    final class Projector {
+
+        private final Cell empty = new Cell("");
+        private Cell channel;
+        private Cell[] users = new Cell[64];
+        private Cell[] hosts = new Cell[64];
+        private long second = Long.MIN_VALUE;
+        private Cell timestamp;
+
+        private Projector() {
+        }
+
+        /**
+         * Build the row of a message.
+         * @param segment The segment that holds the message.
+         * @param row The row of the message in the segment.
+         * @return The row.
+         */
+        Row project(MessageSegment segment, int row) {
+            Row result = new Row();
+            for (int column = 0; column < fields.length; column++) {
+                Cell cell;
+                switch (fields[column]) {
+                case MESSAGE:
+                    cell = new Cell(segment.getMessage(row));
+                    break;
+                case TIMESTAMP:
+                    cell = getTimestamp(segment.getTimestamp(row));
+                    break;
+                case EPOCH_MILLIS:
+                    cell = new Cell(segment.getTimestamp(row));
+                    break;
+                case USER:
+                    cell = getUser(segment, row);
+                    break;
+                case HOST:
+                    cell = getHost(segment, row);
+                    break;
+                case CHANNEL:
+                    cell = getChannel(segment.getChannel());
+                    break;
+                default:
+                    cell = empty;
+                }
+                result.addCell(aliases[column], cell);
+            }
+            return result;
+        }
+
+        private Cell getTimestamp(long millis) {
+            long current = millis / 1000;
+            if (timestamp == null || current != second) {
+                second = current;
+                timestamp = new Cell(Message.formatTimestamp(millis));
+            }
+            return timestamp;
+        }
+
+        private Cell getChannel(String name) {
+            if (channel == null || channel.getValue() != name) {
+                channel = new Cell(name);
+            }
+            return channel;
+        }
+
+        private Cell getUser(MessageSegment segment, int row) {
+            if (!(segment instanceof MemorySegment)) {
+                return new Cell(segment.getUser(row));
+            }
+            MemorySegment memory = (MemorySegment) segment;
+            int id = memory.getUserId(row);
+            if (id >= users.length) {
+                users = Arrays.copyOf(users, Math.max(id + 1, users.length * 2));
+            }
+            String user = memory.getUser(row);
+            // Dictionary values are unique instances, so a cached cell holds the same one unless the segment
+            // was encoded with another generation of the dictionary.
+            if (users[id] == null || users[id].getValue() != user) {
+                users[id] = new Cell(user);
+            }
+            return users[id];
+        }
+
+        private Cell getHost(MessageSegment segment, int row) {
+            if (!(segment instanceof MemorySegment)) {
+                return new Cell(segment.getHost(row));
+            }
+            MemorySegment memory = (MemorySegment) segment;
+            int id = memory.getHostId(row);
+            if (id >= hosts.length) {
+                hosts = Arrays.copyOf(hosts, Math.max(id + 1, hosts.length * 2));
+            }
+            String host = memory.getHost(row);
+            if (hosts[id] == null || hosts[id].getValue() != host) {
+                hosts[id] = new Cell(host);
+            }
+            return hosts[id];
+        }
+    }
+}
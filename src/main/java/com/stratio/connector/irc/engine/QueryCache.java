@@ -0,0 +1,219 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.stratio.crossdata.common.data.ColumnName;
+import com.stratio.crossdata.common.data.ResultSet;
+import com.stratio.crossdata.common.data.Row;
+import com.stratio.crossdata.common.logicalplan.Filter;
+import com.stratio.crossdata.common.metadata.ColumnMetadata;
+import com.stratio.crossdata.common.statements.structures.ColumnSelector;
+import com.stratio.crossdata.common.statements.structures.Selector;
+
+/**
+ * Bounded LRU cache of query results of the channels of one {@link com.stratio.connector.irc.manager.IRCManager}.
+ *
+ * <p>Results are keyed by a normalized form of the query: cluster, table, projection, filters in any order and
+ * limit. Each result remembers the range of sequences of the channel it was computed from, so it is valid while
+ * the channel has not changed, and an unlimited result can be brought up to date by dropping the rows of evicted
+ * messages and scanning only the appended ones. The cache is bounded both by entries and by total rows.</p>
+ */
+class QueryCache {
+
+    private final int maxEntries;
+    private final long maxRows;
+    private final LinkedHashMap<String, CachedResult> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long rows = 0;
+
+    /**
+     * Class constructor.
+     * @param maxEntries The maximum number of cached results.
+     * @param maxRows The maximum number of rows of all the cached results.
+     */
+    QueryCache(int maxEntries, long maxRows) {
+        this.maxEntries = maxEntries;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Build the key of a query.
+     * @param plan The query.
+     * @param newestFirst Whether the query scans newest first.
+     * @return The key.
+     */
+    static String getKey(QueryPlan plan, boolean newestFirst) {
+        StringBuilder key = new StringBuilder();
+        key.append(plan.getProject().getClusterName()).append('|');
+        key.append(plan.getProject().getTableName().getQualifiedName()).append('|');
+        for (Map.Entry<ColumnName, String> column : plan.getSelect().getColumnMap().entrySet()) {
+            key.append(column.getKey().getName()).append(" AS ").append(column.getValue()).append(',');
+        }
+        List<String> filters = new ArrayList<>();
+        for (Filter filter : plan.getFilters()) {
+            filters.add(describe(filter.getRelation().getLeftTerm()) + " " + filter.getRelation().getOperator()
+                    + " " + describe(filter.getRelation().getRightTerm()));
+        }
+        Collections.sort(filters);
+        key.append('|').append(filters);
+        key.append('|').append(plan.getLimit()).append(newestFirst ? " newest" : " oldest");
+        return key.toString();
+    }
+
+    private static String describe(Selector selector) {
+        if (selector instanceof ColumnSelector) {
+            return ((ColumnSelector) selector).getName().getName();
+        }
+        return selector.getType() + ":" + selector.getStringValue();
+    }
+
+    synchronized CachedResult get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Cache a result, evicting the least recently used ones while the cache is over its bounds. Results larger
+     * than the whole cache are not cached.
+     * @param key The key of the query.
+     * @param result The result.
+     */
+    synchronized void put(String key, CachedResult result) {
+        CachedResult previous = entries.remove(key);
+        if (previous != null) {
+            rows -= previous.rows.size();
+        }
+        if (result.rows.size() > maxRows) {
+            return;
+        }
+        entries.put(key, result);
+        rows += result.rows.size();
+        Iterator<CachedResult> eldest = entries.values().iterator();
+        while ((entries.size() > maxEntries || rows > maxRows) && eldest.hasNext()) {
+            rows -= eldest.next().rows.size();
+            eldest.remove();
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Immutable result of a query over the sequences [firstSequence, endSequence) of a channel.
+     */
+    static final class CachedResult {
+        private final long firstSequence;
+        private final long endSequence;
+        private final List<Row> rows;
+        private final long[] sequences;
+        private final List<ColumnMetadata> columns;
+
+        /**
+         * Class constructor.
+         * @param firstSequence The first sequence of the channel when the result was computed.
+         * @param endSequence The sequence after the last one of the channel when the result was computed.
+         * @param rows The rows in channel order.
+         * @param sequences The sequence of the message of each row.
+         * @param columns The metadata of the columns.
+         */
+        CachedResult(long firstSequence, long endSequence, List<Row> rows, long[] sequences,
+                List<ColumnMetadata> columns) {
+            this.firstSequence = firstSequence;
+            this.endSequence = endSequence;
+            this.rows = rows;
+            this.sequences = sequences;
+            this.columns = columns;
+        }
+
+        /**
+         * Class constructor.
+         * @param firstSequence The first sequence of the channel when the result was computed.
+         * @param endSequence The sequence after the last one of the channel when the result was computed.
+         * @param rows The rows in channel order.
+         * @param columns The metadata of the columns.
+         */
+        CachedResult(long firstSequence, long endSequence, ScannedRows rows, List<ColumnMetadata> columns) {
+            this(firstSequence, endSequence, rows.getRows(), rows.getSequences(), columns);
+        }
+
+        long getFirstSequence() {
+            return firstSequence;
+        }
+
+        long getEndSequence() {
+            return endSequence;
+        }
+
+        /**
+         * Check if the result can be brought up to a newer state of the channel: the channel only grew at its end
+         * and lost messages at its beginning.
+         * @param first The first sequence of the channel.
+         * @param end The sequence after the last one of the channel.
+         * @return Whether {@link #extend} applies.
+         */
+        boolean isExtensibleTo(long first, long end) {
+            return first >= firstSequence && end >= endSequence;
+        }
+
+        /**
+         * Build the result for a newer state of the channel.
+         * @param first The first sequence of the channel.
+         * @param end The sequence after the last one of the channel.
+         * @param appended The rows of the matching messages from {@link #getEndSequence()} on.
+         * @return The new result.
+         */
+        CachedResult extend(long first, long end, ScannedRows appended) {
+            int kept = 0;
+            while (kept < sequences.length && sequences[kept] < first) {
+                kept++;
+            }
+            ScannedRows extended = new ScannedRows();
+            for (int i = kept; i < sequences.length; i++) {
+                extended.add(sequences[i], rows.get(i));
+            }
+            extended.addAll(appended);
+            return new CachedResult(first, end, extended, columns);
+        }
+
+        /**
+         * Build a result set sharing the cached rows.
+         * @return The result set.
+         */
+        ResultSet toResultSet() {
+            ResultSet resultSet = new ResultSet();
+            for (Row row : rows) {
+                resultSet.add(row);
+            }
+            resultSet.setColumnMetadata(columns);
+            return resultSet;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import com.stratio.connector.irc.manager.ChannelSnapshot;
+import com.stratio.connector.irc.manager.MessageIndex;
+import com.stratio.crossdata.common.exceptions.UnsupportedException;
+import com.stratio.crossdata.common.logicalplan.Filter;
+import com.stratio.crossdata.common.logicalplan.GroupBy;
+import com.stratio.crossdata.common.logicalplan.Limit;
+import com.stratio.crossdata.common.logicalplan.LogicalStep;
+import com.stratio.crossdata.common.logicalplan.LogicalWorkflow;
+import com.stratio.crossdata.common.logicalplan.Project;
+import com.stratio.crossdata.common.logicalplan.Select;
+import com.stratio.crossdata.common.logicalplan.Window;
+import com.stratio.crossdata.common.statements.structures.ColumnSelector;
+import com.stratio.crossdata.common.statements.structures.IntegerSelector;
+import com.stratio.crossdata.common.statements.structures.Operator;
+import com.stratio.crossdata.common.statements.structures.Selector;
+import com.stratio.crossdata.common.statements.structures.StringSelector;
+
+/**
+ * Steps of a {@link LogicalWorkflow} understood by the connector, with its filters compiled.
+ */
+class QueryPlan {
+
+    /**
+     * Minimum length of a token fragment searched in the full-text index.
+     */
+    static final int MIN_FRAGMENT = 3;
+
+    private final Project project;
+    private final List<Filter> filters;
+    private final MessagePredicate predicate;
+    private final List<MessageIndex.Term> indexTerms = new ArrayList<>();
+    private long fromTimestamp = Long.MIN_VALUE;
+    private long toTimestamp = Long.MAX_VALUE;
+    private final Select select;
+    private final Projection projection;
+    private final Aggregation aggregation;
+    private final Window window;
+    private final int limit;
+
+    private QueryPlan(Project project, List<Filter> filters, Select select, GroupBy groupBy, Window window,
+            int limit) throws UnsupportedException {
+        this.project = project;
+        this.filters = filters;
+        this.predicate = MessagePredicates.compile(filters);
+        for (Filter filter : filters) {
+            restrictTimeRange(filter);
+            indexTerms.addAll(getIndexTerms(filter));
+        }
+        this.select = select;
+        this.projection = select == null ? null : Projection.compile(select);
+        this.aggregation = select == null ? null : Aggregation.create(select, groupBy);
+        this.window = window;
+        this.limit = limit;
+    }
+
+    /**
+     * Narrow the time range of the scan with a range filter on the timestamp column. Formatted bounds are rounded
+     * to whole seconds, the precision of the formatted column; integer bounds are epoch millis.
+     * @param filter The filter.
+     */
+    private void restrictTimeRange(Filter filter) {
+        if (!(filter.getRelation().getLeftTerm() instanceof ColumnSelector)) {
+            return;
+        }
+        ColumnSelector column = (ColumnSelector) filter.getRelation().getLeftTerm();
+        if (!"timestamp".equals(column.getName().getName())) {
+            return;
+        }
+        Selector value = filter.getRelation().getRightTerm();
+        long start;
+        long precision;
+        if (value instanceof IntegerSelector) {
+            start = ((IntegerSelector) value).getValue();
+            precision = 1;
+        } else if (value instanceof StringSelector) {
+            Long bound = MessagePredicates.parseTimestamp(value.getStringValue());
+            if (bound == null) {
+                return;
+            }
+            start = bound / 1000 * 1000;
+            precision = 1000;
+        } else {
+            return;
+        }
+        switch (filter.getRelation().getOperator()) {
+        case EQ:
+            fromTimestamp = Math.max(fromTimestamp, start);
+            toTimestamp = Math.min(toTimestamp, start + precision);
+            break;
+        case GT:
+            fromTimestamp = Math.max(fromTimestamp, start + precision);
+            break;
+        case GET:
+            fromTimestamp = Math.max(fromTimestamp, start);
+            break;
+        case LT:
+            toTimestamp = Math.min(toTimestamp, start);
+            break;
+        case LET:
+            toTimestamp = Math.min(toTimestamp, start + precision);
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Get the terms every message matching a filter contains, so the full-text index can narrow the messages to
+     * check. A MATCH on the message column is a substring test: the tokens delimited on both sides inside its
+     * value are whole tokens of the matching messages, while the ones at the edges may continue in the message
+     * and are searched as fragments. Fragments shorter than {@link #MIN_FRAGMENT} characters are left out, since
+     * most of the vocabulary would contain them.
+     * @param filter The filter.
+     * @return The lowercase terms, empty if the index cannot help.
+     */
+    private static List<MessageIndex.Term> getIndexTerms(Filter filter) {
+        List<MessageIndex.Term> terms = new ArrayList<>();
+        if (filter.getRelation().getOperator() != Operator.MATCH
+                || !(filter.getRelation().getLeftTerm() instanceof ColumnSelector)
+                || !(filter.getRelation().getRightTerm() instanceof StringSelector)) {
+            return terms;
+        }
+        ColumnSelector column = (ColumnSelector) filter.getRelation().getLeftTerm();
+        String value = filter.getRelation().getRightTerm().getStringValue();
+        if (!"message".equals(column.getName().getName()) || MessagePredicates.isRegex(value)) {
+            return terms;
+        }
+        int start = -1;
+        for (int i = 0; i <= value.length(); i++) {
+            boolean tokenChar = i < value.length() && Character.isLetterOrDigit(value.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                boolean tokenStart = start > 0;
+                boolean tokenEnd = i < value.length();
+                if (tokenStart && tokenEnd || i - start >= MIN_FRAGMENT) {
+                    terms.add(new MessageIndex.Term(value.substring(start, i).toLowerCase(Locale.ROOT), tokenStart,
+                            tokenEnd));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Walk the steps of a workflow.
+     * @param workflow The workflow.
+     * @return The plan.
+     * @throws UnsupportedException If the workflow contains a step that cannot be executed.
+     */
+    static QueryPlan parse(LogicalWorkflow workflow) throws UnsupportedException {
+        Project project = (Project) workflow.getInitialSteps().iterator().next();
+        List<Filter> filters = new ArrayList<>();
+        Select select = null;
+        GroupBy groupBy = null;
+        Window window = null;
+        int limit = -1;
+        LogicalStep nextStep = project.getNextStep();
+        while (nextStep != null) {
+            if (nextStep instanceof Filter) {
+                filters.add((Filter) nextStep);
+            } else if (nextStep instanceof Select) {
+                select = (Select) nextStep;
+            } else if (nextStep instanceof GroupBy) {
+                groupBy = (GroupBy) nextStep;
+            } else if (nextStep instanceof Window) {
+                window = (Window) nextStep;
+            } else if (nextStep instanceof Limit) {
+                limit = ((Limit) nextStep).getLimit();
+            }
+            nextStep = nextStep.getNextStep();
+        }
+        return new QueryPlan(project, filters, select, groupBy, window, limit);
+    }
+
+    Project getProject() {
+        return project;
+    }
+
+    List<Filter> getFilters() {
+        return filters;
+    }
+
+    MessagePredicate getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * Open a cursor over the messages that satisfy the filters. Only the segments that overlap the time range of
+     * the timestamp filters are visited. When the channel is indexed, the index narrows the messages a MATCH
+     * filter on the message column has to check to the ones containing its tokens, or for the fragments at its
+     * edges, any indexed token that contains the fragment; messages older than the index are scanned. Either way every visited message is checked with the filters, so the index never changes
+     * the result.
+     * @param snapshot The messages of the channel.
+     * @param reverse Whether to walk the messages newest first.
+     * @return The cursor.
+     */
+    ChannelScan scan(ChannelSnapshot snapshot, boolean reverse) {
+        return scan(snapshot, reverse, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Open a cursor over the messages of a range of sequences that satisfy the filters.
+     * @param snapshot The messages of the channel.
+     * @param reverse Whether to walk the messages newest first.
+     * @param fromSequence The first sequence to consider.
+     * @param toSequence The sequence after the last one to consider.
+     * @return The cursor.
+     */
+    ChannelScan scan(ChannelSnapshot snapshot, boolean reverse, long fromSequence, long toSequence) {
+        long from = Math.max(getFromSequence(snapshot), fromSequence);
+        long to = Math.min(getToSequence(snapshot), toSequence);
+        MessageIndex index = snapshot.getIndex();
+        if (index == null || indexTerms.isEmpty()) {
+            return new ChannelScan(snapshot, predicate, null, from, to, reverse);
+        }
+        long indexedFrom = Math.max(from, index.getFirstSequence());
+        long[] candidates = indexedFrom < to ? index.search(indexTerms, indexedFrom, to) : new long[0];
+        long covered = Math.max(from, index.getFirstSequence());
+        if (covered > indexedFrom) {
+            // Messages were evicted from the index during the search, scan them instead.
+            int first = Arrays.binarySearch(candidates, covered);
+            candidates = Arrays.copyOfRange(candidates, first >= 0 ? first : -first - 1, candidates.length);
+            indexedFrom = covered;
+        }
+        return new ChannelScan(snapshot, predicate, candidates, indexedFrom, from, to, reverse);
+    }
+
+    /**
+     * Get the first sequence in the time range of the timestamp filters.
+     * @param snapshot The messages of the channel.
+     * @return The sequence.
+     */
+    long getFromSequence(ChannelSnapshot snapshot) {
+        return fromTimestamp == Long.MIN_VALUE ? snapshot.getFirstSequence() : snapshot.findSequence(fromTimestamp);
+    }
+
+    /**
+     * Get the sequence after the last one in the time range of the timestamp filters.
+     * @param snapshot The messages of the channel.
+     * @return The sequence.
+     */
+    long getToSequence(ChannelSnapshot snapshot) {
+        return toTimestamp == Long.MAX_VALUE ? snapshot.getEndSequence() : snapshot.findSequence(toTimestamp);
+    }
+
+    /**
+     * Get the projection of the query.
+     * @return The select step or null if the workflow has none.
+     */
+    Select getSelect() {
+        return select;
+    }
+
+    /**
+     * Get the compiled projection of the query.
+     * @return The projection or null if the workflow has no select step.
+     */
+    Projection getProjection() {
+        return projection;
+    }
+
+    /**
+     * Get the aggregation of the query.
+     * @return The aggregation or null if the query returns one row per message.
+     */
+    Aggregation getAggregation() {
+        return aggregation;
+    }
+
+    /**
+     * Get the maximum number of rows of the result.
+     * @return The limit or -1 if the result is not limited.
+     */
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Get the window of a continuous query.
+     * @return The window step or null if the query is not continuous.
+     */
+    Window getWindow() {
+        return window;
+    }
+}
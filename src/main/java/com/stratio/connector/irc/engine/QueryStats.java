@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import com.stratio.connector.irc.metrics.MetricRegistry;
+
+/**
+ * Time spent by a query in each phase and rows it visited, added up over the chunks of a parallel scan. The scan
+ * phase locates the range and the index candidates, the filter phase evaluates the predicates over them and the
+ * project phase builds the rows of the matching messages. Each chunk of a parallel scan records its own statistics,
+ * which are added to the ones of the query when the chunks are done; the methods are synchronized anyway, so the
+ * statistics may be shared between threads.
+ */
+class QueryStats {
+
+    private int scans = 0;
+    private long scanNanos = 0;
+    private long filterNanos = 0;
+    private long projectNanos = 0;
+    private long scanned = 0;
+    private long returned = 0;
+
+    synchronized void add(long scanNanos, long filterNanos, long projectNanos, long scanned, long returned) {
+        this.scans++;
+        this.scanNanos += scanNanos;
+        this.filterNanos += filterNanos;
+        this.projectNanos += projectNanos;
+        this.scanned += scanned;
+        this.returned += returned;
+    }
+
+    /**
+     * Add the statistics of a finished chunk of a parallel scan.
+     * @param chunk The statistics of the chunk.
+     */
+    void add(QueryStats chunk) {
+        int chunkScans;
+        long chunkScanNanos;
+        long chunkFilterNanos;
+        long chunkProjectNanos;
+        long chunkScanned;
+        long chunkReturned;
+        synchronized (chunk) {
+            chunkScans = chunk.scans;
+            chunkScanNanos = chunk.scanNanos;
+            chunkFilterNanos = chunk.filterNanos;
+            chunkProjectNanos = chunk.projectNanos;
+            chunkScanned = chunk.scanned;
+            chunkReturned = chunk.returned;
+        }
+        synchronized (this) {
+            scans += chunkScans;
+            scanNanos += chunkScanNanos;
+            filterNanos += chunkFilterNanos;
+            projectNanos += chunkProjectNanos;
+            scanned += chunkScanned;
+            returned += chunkReturned;
+        }
+    }
+
+    /**
+     * Record the query in the metrics of its cluster. The phases of queries answered without scanning are not
+     * recorded.
+     * @param metrics The metrics.
+     * @param latencyNanos The time to execute the whole query.
+     */
+    synchronized void record(MetricRegistry metrics, long latencyNanos) {
+        metrics.histogram("query.latency").record(latencyNanos);
+        if (scans > 0) {
+            metrics.histogram("query.scan").record(scanNanos);
+            metrics.histogram("query.filter").record(filterNanos);
+            metrics.histogram("query.project").record(projectNanos);
+        }
+        metrics.counter("query.rows.scanned").add(scanned);
+        metrics.counter("query.rows.returned").add(returned);
+    }
+}
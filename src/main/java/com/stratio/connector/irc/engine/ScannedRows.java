@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.stratio.crossdata.common.data.Row;
+
+/**
+ * Projected rows of the messages matched by a scan, along with the sequence of the message of each row.
+ */
+final class ScannedRows {
+
+    private final List<Row> rows = new ArrayList<>();
+    private long[] sequences = new long[16];
+
+    void add(long sequence, Row row) {
+        if (rows.size() == sequences.length) {
+            sequences = Arrays.copyOf(sequences, sequences.length * 2);
+        }
+        sequences[rows.size()] = sequence;
+        rows.add(row);
+    }
+
+    /**
+     * Append the rows of a scan over later messages.
+     * @param other The rows.
+     */
+    void addAll(ScannedRows other) {
+        int size = rows.size();
+        if (size + other.size() > sequences.length) {
+            sequences = Arrays.copyOf(sequences, Math.max(sequences.length * 2, size + other.size()));
+        }
+        System.arraycopy(other.sequences, 0, sequences, size, other.size());
+        rows.addAll(other.rows);
+    }
+
+    /**
+     * Reverse the rows of a newest-first scan into channel order.
+     */
+    void reverse() {
+        Collections.reverse(rows);
+        for (int i = 0, j = rows.size() - 1; i < j; i++, j--) {
+            long sequence = sequences[i];
+            sequences[i] = sequences[j];
+            sequences[j] = sequence;
+        }
+    }
+
+    int size() {
+        return rows.size();
+    }
+
+    List<Row> getRows() {
+        return rows;
+    }
+
+    long[] getSequences() {
+        return Arrays.copyOf(sequences, rows.size());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Selection of the channels a manager joins with comma separated glob patterns, where {@code *} matches any text
+ * and {@code ?} any character. Channel names are compared ignoring case, as IRC servers do.
+ */
+public class ChannelFilter {
+
+    private final Pattern include;
+    private final Pattern exclude;
+
+    /**
+     * Class constructor.
+     * @param include The patterns of the channels to join, or an empty string to join every channel.
+     * @param exclude The patterns of the channels never joined, or an empty string to exclude none.
+     */
+    public ChannelFilter(String include, String exclude) {
+        this.include = compile(include);
+        this.exclude = compile(exclude);
+    }
+
+    /**
+     * Check if a channel is selected.
+     * @param channel The channel name with the leading #.
+     * @return Whether the channel is included and not excluded.
+     */
+    public boolean accepts(String channel) {
+        String name = channel.toLowerCase(Locale.ROOT);
+        return (include == null || include.matcher(name).matches())
+                && (exclude == null || !exclude.matcher(name).matches());
+    }
+
+    /**
+     * Compile glob patterns into a single regular expression.
+     * @param globs The comma separated patterns.
+     * @return The expression or null if there are no patterns.
+     */
+    private static Pattern compile(String globs) {
+        if (globs == null) {
+            return null;
+        }
+        StringBuilder regex = new StringBuilder();
+        for (String glob : globs.split(",")) {
+            glob = glob.trim().toLowerCase(Locale.ROOT);
+            if (glob.isEmpty()) {
+                continue;
+            }
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            int literal = 0;
+            for (int i = 0; i < glob.length(); i++) {
+                char character = glob.charAt(i);
+                if (character == '*' || character == '?') {
+                    if (i > literal) {
+                        regex.append(Pattern.quote(glob.substring(literal, i)));
+                    }
+                    regex.append(character == '*' ? ".*" : ".");
+                    literal = i + 1;
+                }
+            }
+            if (literal < glob.length()) {
+                regex.append(Pattern.quote(glob.substring(literal)));
+            }
+        }
+        return regex.length() == 0 ? null : Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
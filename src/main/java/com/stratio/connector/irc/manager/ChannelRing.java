@@ -0,0 +1,96 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Consistent hash ring assigning channels to the connections of an {@link IRCManager}.
+ *
+ * <p>Every connection owns several points of the ring and a channel belongs to the connection of the first point
+ * at or after the hash of its lowercase name, so channels spread evenly and growing the pool only moves the
+ * channels of the new points.</p>
+ */
+public class ChannelRing {
+
+    private static final int POINTS_PER_NODE = 64;
+
+    private final int[] points;
+    private final int[] nodes;
+
+    /**
+     * Class constructor.
+     * @param size The number of connections.
+     */
+    public ChannelRing(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("The ring needs at least one connection");
+        }
+        long[] ring = new long[size * POINTS_PER_NODE];
+        for (int node = 0; node < size; node++) {
+            for (int point = 0; point < POINTS_PER_NODE; point++) {
+                int hash = hash("connection-" + node + "-" + point);
+                ring[node * POINTS_PER_NODE + point] = ((long) hash << 32) | node;
+            }
+        }
+        Arrays.sort(ring);
+        this.points = new int[ring.length];
+        this.nodes = new int[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            points[i] = (int) (ring[i] >> 32);
+            nodes[i] = (int) ring[i];
+        }
+    }
+
+    /**
+     * Get the connection that owns a channel.
+     * @param channel The channel name.
+     * @return The index of the connection.
+     */
+    public int getNode(String channel) {
+        int position = Arrays.binarySearch(points, hash(channel.toLowerCase(Locale.ROOT)));
+        if (position < 0) {
+            position = -position - 1;
+        }
+        return nodes[position == points.length ? 0 : position];
+    }
+
+    /**
+     * FNV-1a hash of the UTF-8 bytes of a text, with a final mix so close names land far apart.
+     */
+    private static int hash(String text) {
+        int hash = 0x811C9DC5;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
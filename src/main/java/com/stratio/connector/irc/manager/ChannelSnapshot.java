@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.util.Arrays;
+
+/**
+ * Immutable view of the messages of a channel at a given point in time, oldest first.
+ */
+public class ChannelSnapshot {
+
+    private static final ChannelSnapshot EMPTY = new ChannelSnapshot(new MessageSegment[0], null);
+
+    private final MessageSegment[] segments;
+    private final MessageIndex index;
+    private final int[] starts;
+    private final int size;
+
+    /**
+     * Class constructor. The size of every segment is captured at construction time.
+     * @param segments The segments of the channel, oldest first.
+     * @param index The full-text index of the channel or null if it is not indexed.
+     */
+    public ChannelSnapshot(MessageSegment[] segments, MessageIndex index) {
+        this.segments = segments;
+        this.index = index;
+        this.starts = new int[segments.length + 1];
+        for (int i = 0; i < segments.length; i++) {
+            starts[i + 1] = starts[i] + segments[i].size();
+        }
+        this.size = starts[segments.length];
+    }
+
+    public static ChannelSnapshot empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the full-text index of the channel. It may contain messages appended after the snapshot was taken.
+     * @return The index or null if the channel is not indexed.
+     */
+    public MessageIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the sequence of the oldest message in the snapshot.
+     * @return The sequence.
+     */
+    public long getFirstSequence() {
+        return segments.length == 0 ? 0 : segments[0].getBaseSequence();
+    }
+
+    /**
+     * Get the sequence after the newest message in the snapshot.
+     * @return The sequence.
+     */
+    public long getEndSequence() {
+        if (segments.length == 0) {
+            return 0;
+        }
+        return segments[segments.length - 1].getBaseSequence() + getSegmentSize(segments.length - 1);
+    }
+
+    /**
+     * Find the first message not older than a timestamp, skipping whole segments and binary searching inside the
+     * boundary one. Empty segments, like a newest one that has no visible rows yet, are skipped.
+     * @param timestamp The epoch millis.
+     * @return The sequence of the message, or {@link #getEndSequence()} if every message is older.
+     */
+    public long findSequence(long timestamp) {
+        int count = segments.length;
+        while (count > 0 && getSegmentSize(count - 1) == 0) {
+            count--;
+        }
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (segments[middle].getMaxTimestamp(getSegmentSize(middle)) < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == count) {
+            return getEndSequence();
+        }
+        MessageSegment segment = segments[low];
+        return segment.getBaseSequence() + segment.findRow(timestamp, getSegmentSize(low));
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    public MessageSegment getSegment(int index) {
+        return segments[index];
+    }
+
+    /**
+     * Get the number of rows of a segment visible in this snapshot.
+     * @param index The index of the segment.
+     * @return The number of rows.
+     */
+    public int getSegmentSize(int index) {
+        return starts[index + 1] - starts[index];
+    }
+
+    /**
+     * Find the segment that holds a row of the snapshot.
+     * @param row The row in the snapshot.
+     * @return The index of the segment.
+     */
+    public int getSegmentIndex(int row) {
+        int index = Arrays.binarySearch(starts, row);
+        if (index < 0) {
+            return -index - 2;
+        }
+        while (index < segments.length - 1 && starts[index + 1] == row) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Get the offset of a row inside its segment.
+     * @param segmentIndex The index of the segment that holds the row.
+     * @param row The row in the snapshot.
+     * @return The row in the segment.
+     */
+    public int getSegmentRow(int segmentIndex, int row) {
+        return row - starts[segmentIndex];
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock of the ingest path. With a positive resolution a daemon thread refreshes a cached time every resolution
+ * millis, so timestamping a message is a volatile read; with a resolution of 0, or while the clock is stopped,
+ * every call reads the system clock.
+ */
+public class CoarseClock {
+
+    private final long resolution;
+    private volatile long now = System.currentTimeMillis();
+    private volatile boolean ticking = false;
+    private ScheduledExecutorService ticker;
+
+    /**
+     * Class constructor.
+     * @param resolution The millis between refreshes of the cached time, or 0 to always read the system clock.
+     */
+    public CoarseClock(long resolution) {
+        this.resolution = Math.max(0, resolution);
+    }
+
+    /**
+     * Get the current time.
+     * @return The epoch millis, up to the resolution behind the system clock.
+     */
+    public long currentTimeMillis() {
+        return ticking ? now : System.currentTimeMillis();
+    }
+
+    /**
+     * Start refreshing the cached time. Does nothing if the resolution is 0 or the clock is already started.
+     */
+    public synchronized void start() {
+        if (resolution == 0 || ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "irc-clock");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        now = System.currentTimeMillis();
+        ticking = true;
+        ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                now = System.currentTimeMillis();
+            }
+        }, resolution, resolution, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop refreshing the cached time. Later calls read the system clock.
+     */
+    public synchronized void stop() {
+        if (ticker != null) {
+            ticking = false;
+            ticker.shutdown();
+            ticker = null;
+        }
+    }
+}
@@ -1,50 +1,833 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
 package com.stratio.connector.irc.manager;
 
+import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.jibble.pircbot.IrcException;
-import org.jibble.pircbot.PircBot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.stratio.connector.irc.client.IRCClient;
+import com.stratio.connector.irc.client.IRCClientListener;
+import com.stratio.connector.irc.client.NioIRCClient;
+import com.stratio.connector.irc.client.PircBotClient;
+import com.stratio.connector.irc.metrics.Gauge;
+import com.stratio.connector.irc.metrics.JmxReporter;
+import com.stratio.connector.irc.metrics.LogReporter;
+import com.stratio.connector.irc.metrics.Meter;
+import com.stratio.connector.irc.metrics.MetricRegistry;
+import com.stratio.connector.irc.metrics.MetricsReporter;
+
 
 public class IRCManager {
     private static Logger LOG = LoggerFactory.getLogger(IRCManager.class);
-    private static Map<String, List<Message>> channels = new HashMap<>();
 
-    public CrossdataIRCBot bot;
+    /**
+     * Maximum length of a JOIN line, leaving room for the server to add the prefix within the 512 bytes of a line.
+     */
+    private static final int MAX_JOIN_LINE = 400;
+
+    private final ConcurrentMap<String, MessageStore> channels = new ConcurrentHashMap<>();
+    private final IRCOptions options;
+    private final String host;
+
+    /**
+     * Directory of the channel logs of this server, or null if messages are kept only in memory.
+     */
+    private final File persistenceDir;
+    private ScheduledExecutorService logSync;
+
+    /**
+     * Snapshot of the channels of this server, or null if channels start empty.
+     */
+    private final File snapshotFile;
+
+    /**
+     * Thread that reconnects the lost connections and parts idle channels, or null while the manager is
+     * disconnected.
+     */
+    private ScheduledExecutorService supervisor;
+
+    /**
+     * Whether the manager was disconnected, so closed connections are not reconnected.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Whether the last connect succeeded, so disconnecting saves the channels it connected with.
+     */
+    private volatile boolean started = false;
+
+    /**
+     * Connections of the manager. Each channel is joined, read and written by the connection that owns it in the
+     * ring.
+     */
+    private final Connection[] connections;
+    private final ChannelRing ring;
+
+    /**
+     * Names of the users and hosts of every channel of the manager.
+     */
+    private final StringInterner interner;
+
+    /**
+     * Channels joined by the manager with the epoch millis they were last used. Joins and parts are serialized
+     * by locking the map.
+     */
+    private final ConcurrentMap<String, Long> subscribed = new ConcurrentHashMap<>();
+    private final ChannelFilter channelFilter;
+
+    /**
+     * Next sequence of the channels parted with their store evicted, until the channel gets a new store.
+     */
+    private final ConcurrentMap<String, Long> evictedSequences = new ConcurrentHashMap<>();
+
+    /**
+     * Hand-off of the received messages to the ingest thread, or null to append them on the client threads.
+     */
+    private final IngestQueue ingest;
+
+    /**
+     * Clock of the messages received without a server-time tag.
+     */
+    private final CoarseClock clock;
+
+    /**
+     * Metrics of the manager, or null if they are disabled.
+     */
+    private final MetricRegistry metrics;
+    private final Meter ingested;
+    private final List<MetricsReporter> reporters = new ArrayList<>();
 
     public IRCManager(String host, String name) {
-        this.bot = new CrossdataIRCBot(name, host);
+        this(host, name, new IRCOptions());
+    }
+
+    public IRCManager(String host, String name, IRCOptions options) {
+        this.options = options;
+        this.host = host;
+        int size = Math.max(1, options.getConnections());
+        this.connections = new Connection[size];
+        for (int i = 0; i < size; i++) {
+            connections[i] = new Connection(i == 0 ? name : name + i, i);
+        }
+        this.ring = new ChannelRing(size);
+        this.interner = new StringInterner(Math.max(1, options.getDictionaryMaxEntries()));
+        this.clock = new CoarseClock(options.getIngestClockResolution());
+        this.channelFilter = new ChannelFilter(options.getChannelsInclude(), options.getChannelsExclude());
+        if (options.getIngestQueueSize() > 0) {
+            IngestQueue.Overflow overflow = IngestQueue.Overflow.parse(options.getIngestOverflow());
+            if (overflow == IngestQueue.Overflow.BLOCK && "nio".equalsIgnoreCase(options.getClient())) {
+                throw new IllegalArgumentException("The block ingest overflow policy would stall the event loops "
+                        + "shared by every nio client, use drop-oldest or sample");
+            }
+            this.ingest = new IngestQueue(new IngestQueue.Consumer() {
+                @Override
+                public void consume(String channel, String user, String host, long timestamp, byte[] body) {
+                    append(channel, user, host, timestamp, body);
+                }
+
+                @Override
+                public void consume(String channel, String[] users, String[] hosts, long[] timestamps,
+                        byte[][] bodies, int from, int to) {
+                    if (ingested != null) {
+                        ingested.mark(to - from);
+                    }
+                    getStore(channel).append(timestamps, users, hosts, bodies, from, to);
+                }
+            }, "irc-ingest-" + host, options.getIngestQueueSize(), overflow, options.getIngestSampleRate());
+        } else {
+            this.ingest = null;
+        }
+        String dir = options.getPersistenceDir();
+        this.persistenceDir = dir == null ? null : new File(dir, host);
+        String snapshotDir = options.getSnapshotDir();
+        this.snapshotFile = snapshotDir == null ? null : new File(snapshotDir, host + ".snapshot");
+        if (options.isMetricsEnabled()) {
+            this.metrics = new MetricRegistry();
+            this.ingested = metrics.meter("ingest.messages");
+            registerGauges();
+        } else {
+            this.metrics = null;
+            this.ingested = null;
+        }
     }
 
+    /**
+     * Get the metrics of the manager, shared with the engines of its cluster.
+     * @return The registry or null if metrics are disabled.
+     */
+    public MetricRegistry getMetrics() {
+        return metrics;
+    }
+
+    private void registerGauges() {
+        metrics.register("connections.total", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return connections.length;
+            }
+        });
+        metrics.register("connections.connected", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                int connected = 0;
+                for (Connection connection : connections) {
+                    if (connection.client.isConnected()) {
+                        connected++;
+                    }
+                }
+                return connected;
+            }
+        });
+        metrics.register("send.queue.depth", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                int depth = 0;
+                for (Connection connection : connections) {
+                    depth += connection.outbound.getQueueDepth();
+                }
+                return depth;
+            }
+        });
+        metrics.register("send.messages", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                long sent = 0;
+                for (Connection connection : connections) {
+                    sent += connection.outbound.getSentMessages();
+                }
+                return sent;
+            }
+        });
+        metrics.register("send.lines", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                long sent = 0;
+                for (Connection connection : connections) {
+                    sent += connection.outbound.getSentLines();
+                }
+                return sent;
+            }
+        });
+        metrics.register("send.discarded", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                long discarded = 0;
+                for (Connection connection : connections) {
+                    discarded += connection.outbound.getDiscarded();
+                }
+                return discarded;
+            }
+        });
+        metrics.register("send.latency.mean", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                double total = 0;
+                long sent = 0;
+                for (Connection connection : connections) {
+                    total += connection.outbound.getMeanSendLatency() * connection.outbound.getSentMessages();
+                    sent += connection.outbound.getSentMessages();
+                }
+                return sent == 0 ? 0 : total / sent;
+            }
+        });
+        metrics.register("send.latency.max", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                double max = 0;
+                for (Connection connection : connections) {
+                    max = Math.max(max, connection.outbound.getMaxSendLatency());
+                }
+                return max;
+            }
+        });
+        if (ingest != null) {
+            metrics.register("ingest.queue.depth", new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return ingest.getQueueDepth();
+                }
+            });
+            metrics.register("ingest.received", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return ingest.getReceived();
+                }
+            });
+            metrics.register("ingest.dropped", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return ingest.getDropped();
+                }
+            });
+            metrics.register("ingest.blocked", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return ingest.getBlocked();
+                }
+            });
+            metrics.register("ingest.appended", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return ingest.getAppended();
+                }
+            });
+        }
+        metrics.register("dictionary.entries", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return interner.size();
+            }
+        });
+        metrics.register("dictionary.generations", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return interner.getGenerations();
+            }
+        });
+    }
+
+    /**
+     * Register the buffered messages and bytes and the received messages of a channel.
+     * @param store The store of the channel.
+     */
+    private void registerGauges(final MessageStore store) {
+        String prefix = "channel." + store.getChannel() + ".";
+        metrics.register(prefix + "received", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return store.getNextSequence();
+            }
+        });
+        metrics.register(prefix + "messages", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return store.size();
+            }
+        });
+        metrics.register(prefix + "bytes", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return store.getBytes();
+            }
+        });
+        metrics.register(prefix + "gaps", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return store.getGaps().size();
+            }
+        });
+    }
+
+    /**
+     * Start the reporters of the metrics configured in the options.
+     * @param scope The name the metrics are reported under, usually the cluster name.
+     */
+    public synchronized void startMetrics(String scope) {
+        if (metrics == null || !reporters.isEmpty()) {
+            return;
+        }
+        for (String name : options.getMetricsReporters().split(",")) {
+            name = name.trim();
+            MetricsReporter reporter;
+            if (name.isEmpty()) {
+                continue;
+            } else if ("jmx".equalsIgnoreCase(name)) {
+                reporter = new JmxReporter();
+            } else if ("log".equalsIgnoreCase(name)) {
+                reporter = new LogReporter();
+            } else {
+                try {
+                    reporter = (MetricsReporter) Class.forName(name).newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    LOG.error("Cannot create the metrics reporter " + name, e);
+                    continue;
+                }
+            }
+            reporter.start(scope, metrics, options.getMetricsReportInterval());
+            reporters.add(reporter);
+        }
+    }
+
+    private synchronized void stopMetrics() {
+        for (MetricsReporter reporter : reporters) {
+            reporter.stop();
+        }
+        reporters.clear();
+    }
+
+    public IRCOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Start the threads of the manager, recover its channels and connect to the server. If any step fails, the
+     * steps already done are undone, so a failed connect leaves no thread or file open.
+     * @throws Exception If the manager cannot connect.
+     */
     public void connect() throws Exception {
+        closed = false;
         try {
-            bot.connect();
-        } catch (IrcException e) {
-            throw new Exception(e.getMessage(),e.getCause());
+            clock.start();
+            startSupervisor();
+            if (ingest != null) {
+                ingest.start();
+            }
+            if (persistenceDir != null) {
+                recoverChannels();
+                startLogSync();
+            }
+            if (snapshotFile != null && snapshotFile.isFile()) {
+                loadSnapshot();
+            }
+            for (Connection connection : connections) {
+                connection.connect();
+            }
+            for (Connection connection : connections) {
+                connection.outbound.start();
+            }
+        } catch (Exception | Error e) {
+            disconnect();
+            throw e;
         }
+        started = true;
     }
 
     public void joinChannel(String channel) {
-        this.bot.joinChannel("#" + channel);
+        subscribe("#" + channel, true);
+    }
+
+    /**
+     * Record the use of a channel before writing to it, querying it or listening to it. A channel not joined yet is
+     * joined only if channels are joined lazily and the channel patterns select it.
+     * @param channel The channel name without the leading #.
+     * @return Whether the channel is joined.
+     */
+    public boolean useChannel(String channel) {
+        if (options.isChannelsJoinLazy()) {
+            return subscribe("#" + channel, true);
+        }
+        return touch("#" + channel);
+    }
+
+    /**
+     * Record the use of a channel already joined, without joining it otherwise.
+     * @param channel The channel name with the leading #.
+     * @return Whether the channel is joined.
+     */
+    private boolean touch(String channel) {
+        return subscribed.replace(channel, clock.currentTimeMillis()) != null;
+    }
+
+    /**
+     * Join a channel selected by the channel patterns, or record the use of a channel already joined.
+     * @param channel The channel name with the leading #.
+     * @param evict Whether to part the least recently used channel when the limit of channels is reached, instead
+     *              of leaving the channel unjoined.
+     * @return Whether the channel is joined.
+     */
+    private boolean subscribe(String channel, boolean evict) {
+        if (touch(channel)) {
+            return true;
+        }
+        long now = clock.currentTimeMillis();
+        if (!channelFilter.accepts(channel)) {
+            return false;
+        }
+        String evicted = null;
+        synchronized (subscribed) {
+            if (subscribed.containsKey(channel)) {
+                subscribed.put(channel, now);
+                return true;
+            }
+            int max = options.getChannelsMax();
+            if (max > 0 && subscribed.size() >= max) {
+                if (!evict) {
+                    LOG.debug("Not joining " + channel + ", the limit of " + max + " channels is reached");
+                    return false;
+                }
+                evicted = getLeastRecentlyUsed();
+                if (evicted == null) {
+                    LOG.warn("Not joining " + channel + ", every one of the " + max + " channels is in use");
+                    return false;
+                }
+                subscribed.remove(evicted);
+            }
+            subscribed.put(channel, now);
+        }
+        if (evicted != null) {
+            part(evicted, "least recently used channel");
+        }
+        getOwner(channel).join(channel);
+        return true;
+    }
+
+    /**
+     * Get the least recently used channel without continuous queries.
+     * @return The channel name with the leading #, or null if every channel has continuous queries.
+     */
+    private String getLeastRecentlyUsed() {
+        String oldest = null;
+        long oldestUse = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> entry : subscribed.entrySet()) {
+            if (entry.getValue() < oldestUse && !isListened(entry.getKey())) {
+                oldest = entry.getKey();
+                oldestUse = entry.getValue();
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Part the channels that were not used during the idle timeout.
+     */
+    private void partIdleChannels() {
+        long timeout = options.getChannelsIdleTimeout();
+        long now = clock.currentTimeMillis();
+        for (Map.Entry<String, Long> entry : subscribed.entrySet()) {
+            long idle = now - entry.getValue();
+            if (idle >= timeout && !isListened(entry.getKey())
+                    && subscribed.remove(entry.getKey(), entry.getValue())) {
+                part(entry.getKey(), "idle for " + idle + " ms");
+            }
+        }
+    }
+
+    private boolean isListened(String channel) {
+        MessageStore store = channels.get(channel);
+        return store != null && store.hasListeners();
+    }
+
+    /**
+     * Part a channel no longer subscribed and evict its store. The messages already logged stay on disk.
+     * @param channel The channel name with the leading #.
+     * @param reason The reason, for the log.
+     */
+    private void part(String channel, String reason) {
+        LOG.info("Parting " + channel + ", " + reason);
+        getOwner(channel).part(channel);
+        MessageStore store;
+        synchronized (channels) {
+            store = channels.remove(channel);
+            if (store != null) {
+                evictedSequences.put(channel, store.getNextSequence());
+            }
+        }
+        if (store == null) {
+            return;
+        }
+        if (metrics != null) {
+            metrics.removeAll("channel." + channel + ".");
+        }
+        try {
+            store.close();
+        } catch (IOException e) {
+            LOG.error("Cannot close the log of " + channel, e);
+        }
+    }
+
+    /**
+     * Get the connection that joins, reads and writes a channel.
+     * @param channel The channel name with the leading #.
+     * @return The connection.
+     */
+    private Connection getOwner(String channel) {
+        return connections[ring.getNode(channel)];
     }
 
-    public void sendMessage(String channel, String message) {
-        this.bot.send("#" + channel, message);
+    /**
+     * Enqueue a message to a channel. It is sent when the rate of the server allows it.
+     * @param channel The channel name without the leading #.
+     * @param message The message.
+     * @return Whether the message was enqueued, false if the outbound queue is full.
+     */
+    public boolean sendMessage(String channel, String message) {
+        return sendMessages(channel, Collections.singletonList(message));
     }
 
-    public List<Message> getMessagesFromChannel(String channel) {
-        String realChannelName = "#" + channel;
-        List<Message> result = new ArrayList<>();
-        if (channels.containsKey(realChannelName)) {
-            result = channels.get(realChannelName);
+    /**
+     * Enqueue several messages to a channel at once. Either every message is enqueued or none is. The channel
+     * should be joined first with {@link #useChannel(String)}.
+     * @param channel The channel name without the leading #.
+     * @param messages The messages.
+     * @return Whether the messages were enqueued, false if the outbound queue is full.
+     */
+    public boolean sendMessages(String channel, Collection<String> messages) {
+        return getOwner("#" + channel).outbound.offer("#" + channel, messages);
+    }
+
+    /**
+     * Get the outbound queues of the connections of the manager.
+     * @return The queues, one per connection.
+     */
+    public List<OutboundQueue> getOutboundQueues() {
+        List<OutboundQueue> queues = new ArrayList<>(connections.length);
+        for (Connection connection : connections) {
+            queues.add(connection.outbound);
+        }
+        return queues;
+    }
+
+    /**
+     * Get the messages stored for a channel. Reading neither joins a channel nor records its use: queries call
+     * {@link #useChannel(String)} first, so a channel queried while joins are lazy is joined.
+     * @param channel The channel name without the leading #.
+     * @return The snapshot, empty if the channel is not joined.
+     */
+    public ChannelSnapshot getMessagesFromChannel(String channel) {
+        MessageStore store = channels.get("#" + channel);
+        if (store == null) {
+            return ChannelSnapshot.empty();
         }
-        return result;
+        return store.snapshot();
+    }
+
+    /**
+     * Get the intervals in which messages of a channel may have been lost because its connection was down.
+     * @param channel The channel name without the leading #.
+     * @return The gaps, oldest first.
+     */
+    public List<MessageStore.Gap> getGaps(String channel) {
+        MessageStore store = channels.get("#" + channel);
+        if (store == null) {
+            return Collections.emptyList();
+        }
+        return store.getGaps();
+    }
+
+    /**
+     * Index the messages of a channel, including the ones received from now on.
+     * @param channel The channel name without the leading #.
+     */
+    public void createIndex(String channel) {
+        getStore("#" + channel).createIndex();
+    }
+
+    public void dropIndex(String channel) {
+        MessageStore store = channels.get("#" + channel);
+        if (store != null) {
+            store.dropIndex();
+        }
+    }
+
+    /**
+     * Subscribe to the messages received in a channel from now on. The channel should be joined first with
+     * {@link #useChannel(String)}.
+     * @param channel The channel name without the leading #.
+     * @param listener The listener.
+     */
+    public void addMessageListener(String channel, MessageListener listener) {
+        getStore("#" + channel).addListener(listener);
+    }
+
+    public void removeMessageListener(String channel, MessageListener listener) {
+        MessageStore store = channels.get("#" + channel);
+        if (store != null) {
+            store.removeListener(listener);
+        }
+    }
+
+    /**
+     * Append a received message to the store of its channel, updating its index and log.
+     */
+    private void append(String channel, String user, String host, long timestamp, byte[] body) {
+        if (ingested != null) {
+            ingested.mark();
+        }
+        getStore(channel).append(timestamp, user, host, body);
+    }
+
+    private MessageStore getStore(String channel) {
+        MessageStore store = channels.get(channel);
+        if (store == null) {
+            synchronized (channels) {
+                store = channels.get(channel);
+                if (store == null) {
+                    store = createStore(channel);
+                    channels.put(channel, store);
+                    if (metrics != null) {
+                        registerGauges(store);
+                    }
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Create the store of a channel, opening its log when persistence is enabled. A channel whose log cannot be
+     * opened is kept only in memory.
+     * @param channel The channel name with the leading #.
+     * @return The store.
+     */
+    private MessageStore createStore(String channel) {
+        MessageLog log = null;
+        if (persistenceDir != null) {
+            try {
+                log = MessageLog.open(new File(persistenceDir, URLEncoder.encode(channel, "UTF-8")), channel,
+                        options.getPersistenceFileBytes(), options.getPersistenceMaxBytes(),
+                        options.getPersistenceRetention(), options.getPersistenceSyncMessages());
+            } catch (IOException e) {
+                LOG.error("Cannot open the log of " + channel + ", its messages will be kept only in memory", e);
+            }
+        }
+        MessageStore store = new MessageStore(channel, options.getChannelMaxMessages(), options.getChannelMaxBytes(),
+                options.getChannelSegmentDuration(), options.getChannelRetention(), log, interner);
+        Long next = evictedSequences.remove(channel);
+        if (next != null) {
+            store.skipTo(next);
+        }
+        return store;
+    }
+
+    /**
+     * Open the logs of the channels seen in previous runs, so their history can be queried before they receive
+     * new messages. Only the record positions are loaded, the messages stay on disk.
+     */
+    private void recoverChannels() throws UnsupportedEncodingException {
+        File[] directories = persistenceDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory();
+            }
+        });
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            getStore(URLDecoder.decode(directory.getName(), "UTF-8"));
+        }
+    }
+
+    /**
+     * Restore the channels saved by the last disconnect. Channels no longer selected by the channel patterns are
+     * skipped, and channels with a log keep the messages recovered from it. A snapshot that cannot be read is
+     * ignored, so the channels start with the messages restored until the failure.
+     */
+    private void loadSnapshot() {
+        final long start = System.nanoTime();
+        final long[] restored = new long[2];
+        try {
+            long created = SnapshotFile.read(snapshotFile, new SnapshotFile.Visitor() {
+                private MessageStore store;
+
+                @Override
+                public void startChannel(String channel) {
+                    store = channelFilter.accepts(channel) ? getStore(channel) : null;
+                    if (store != null) {
+                        restored[0]++;
+                    }
+                }
+
+                @Override
+                public void message(long sequence, long timestamp, String user, String host, byte[] body) {
+                    if (store != null && store.restore(sequence, timestamp, user, host, body)) {
+                        restored[1]++;
+                    }
+                }
+
+                @Override
+                public void endChannel(String channel, long nextSequence) {
+                    if (store != null) {
+                        store.skipTo(nextSequence);
+                    }
+                    store = null;
+                }
+            });
+            LOG.info("Restored " + restored[1] + " messages of " + restored[0] + " channels from the snapshot of "
+                    + Message.formatTimestamp(created) + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        } catch (IOException e) {
+            LOG.error("Cannot restore the snapshot " + snapshotFile + " after " + restored[1] + " messages", e);
+        }
+    }
+
+    /**
+     * Save the channels in a snapshot, replacing the previous one.
+     */
+    private void writeSnapshot() {
+        long start = System.nanoTime();
+        try {
+            long messages = SnapshotFile.write(snapshotFile, channels.values());
+            LOG.info("Saved " + messages + " messages of " + channels.size() + " channels to " + snapshotFile
+                    + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        } catch (IOException e) {
+            LOG.error("Cannot save the snapshot " + snapshotFile, e);
+        }
+    }
+
+    /**
+     * Sync the channel logs periodically, so a logged message waits at most the sync interval to reach the disk.
+     */
+    private synchronized void startLogSync() {
+        if (logSync != null) {
+            return;
+        }
+        logSync = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "irc-log-sync");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long interval = Math.max(1, options.getPersistenceSyncInterval());
+        logSync.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (MessageStore store : channels.values()) {
+                    try {
+                        store.sync();
+                    } catch (IOException e) {
+                        LOG.error("Cannot sync the log of " + store.getChannel(), e);
+                    }
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
     }
 
     public static void main(String[] args) throws Exception {
@@ -56,48 +839,280 @@ public class IRCManager {
     }
 
     public void disconnect() {
-        this.bot.disconnect();
+        closed = true;
+        // Queued messages were reported as inserted, so they are sent before the clients disconnect.
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, options.getSendDrainTimeout()));
+        for (Connection connection : connections) {
+            connection.outbound.stop(deadline);
+        }
+        for (Connection connection : connections) {
+            connection.client.disconnect();
+        }
+        if (ingest != null) {
+            ingest.stop();
+        }
+        // A manager that failed to connect may not hold every channel of the snapshot, so it keeps the snapshot.
+        if (snapshotFile != null && started) {
+            writeSnapshot();
+        }
+        started = false;
+        stopMetrics();
+        clock.stop();
+        synchronized (this) {
+            if (logSync != null) {
+                logSync.shutdown();
+                logSync = null;
+            }
+            if (supervisor != null) {
+                supervisor.shutdownNow();
+                supervisor = null;
+            }
+        }
+        for (MessageStore store : channels.values()) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                LOG.error("Cannot close the log of " + store.getChannel(), e);
+            }
+        }
+    }
+
+    private synchronized void startSupervisor() {
+        if (supervisor != null) {
+            return;
+        }
+        supervisor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "irc-supervisor-" + host);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long timeout = options.getChannelsIdleTimeout();
+        if (timeout > 0) {
+            long interval = Math.max(1000, Math.min(timeout / 2, 60 * 1000L));
+            supervisor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    partIdleChannels();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Schedule a task on the supervisor.
+     * @return Whether the task was scheduled, false if the manager is disconnected.
+     */
+    private synchronized boolean schedule(Runnable task, long delay) {
+        if (closed || supervisor == null) {
+            return false;
+        }
+        try {
+            supervisor.schedule(task, delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the delay of a reconnection attempt: none for the first one, then an exponential backoff capped by the
+     * maximum delay, with a random half of it so the connections of a server do not retry in lockstep. The
+     * doubling saturates at the maximum delay instead of overflowing.
+     * @param attempt The number of failed attempts so far.
+     * @param initialDelay The millis before the second attempt.
+     * @param maxDelay The maximum millis between attempts.
+     * @return The millis to wait.
+     */
+    static long getBackoff(int attempt, long initialDelay, long maxDelay) {
+        if (attempt == 0) {
+            return 0;
+        }
+        long initial = Math.max(1, initialDelay);
+        long max = Math.max(1, maxDelay);
+        int shift = Math.min(attempt - 1, 63);
+        long delay = initial > max >> shift ? max : initial << shift;
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
     }
 
-    class CrossdataIRCBot extends PircBot {
-        private final String host;
+    /**
+     * Connection of the manager to the server, with its own client and outbound queue.
+     *
+     * <p>A lost connection is reconnected by the supervisor with exponential backoff and jitter. Once registered
+     * again it joins the channels it had joined, several per line, and records the gap in their stores.</p>
+     */
+    private final class Connection implements IRCClientListener, OutboundQueue.Sender {
+        private final int index;
+        private final IRCClient client;
+        private final OutboundQueue outbound;
+
+        /**
+         * Channels joined by this connection, joined again after a reconnection.
+         */
+        private final Set<String> joined = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final AtomicBoolean reconnecting = new AtomicBoolean();
+        private volatile long lostTimestamp;
+        private volatile long lostNanos;
+
+        private Connection(String name, int index) {
+            this.index = index;
+            if ("nio".equalsIgnoreCase(options.getClient())) {
+                this.client = new NioIRCClient(name, host, this, options.getClientEventLoops(),
+                        options.isClientServerTime());
+            } else {
+                this.client = new PircBotClient(name, host, this);
+            }
+            this.outbound = new OutboundQueue(this, "irc-send-" + host + "-" + index, options.getSendQueueSize(),
+                    options.getSendInterval(), options.getSendBurst(), options.getSendMaxTargets());
+        }
+
+        /**
+         * Connect to the server. Unless channels are joined lazily, the first connection lists the channels of
+         * the server and each selected channel is then joined by its owner.
+         */
+        private void connect() throws IOException {
+            client.connect();
+            if (index == 0 && !options.isChannelsJoinLazy()) {
+                client.listChannels();
+            }
+        }
+
+        private void join(String channel) {
+            joined.add(channel);
+            client.joinChannel(channel);
+        }
+
+        private void part(String channel) {
+            joined.remove(channel);
+            client.partChannel(channel);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return client.isConnected();
+        }
+
+        /**
+         * Send a message to several channels in one line, without pacing since the outbound queue already paces
+         * the messages.
+         * @param channels The channel names with the leading #.
+         * @param message The message.
+         */
+        @Override
+        public void send(List<String> channels, String message) {
+            StringBuilder line = new StringBuilder("PRIVMSG ");
+            for (int i = 0; i < channels.size(); i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                line.append(channels.get(i));
+            }
+            client.sendRawLine(line.append(" :").append(message).toString());
+            long now = clock.currentTimeMillis();
+            byte[] body = message.getBytes(StandardCharsets.UTF_8);
+            for (String channel : channels) {
+                if (ingest != null) {
+                    ingest.offer(channel, client.getNick(), host, now, body);
+                } else {
+                    IRCManager.this.append(channel, client.getNick(), host, now, body);
+                }
+            }
+        }
 
-        public CrossdataIRCBot(String name, String host) {
-            this.setName(name);
-            this.host = host;
-            this.setVerbose(true);
+        @Override
+        public void onMessage(String channel, String sender, String hostname, long timestamp, byte[] message) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(channel + "-" + sender + "-" + hostname + "=>" + new String(message, StandardCharsets.UTF_8));
+            }
+            if (evictedSequences.containsKey(channel) && !subscribed.containsKey(channel)) {
+                // Received before the server processed the PART.
+                return;
+            }
+            long received = timestamp < 0 ? clock.currentTimeMillis() : timestamp;
+            if (ingest != null) {
+                ingest.offer(channel, sender, hostname, received, message);
+            } else {
+                append(channel, sender, hostname, received, message);
+            }
         }
 
-        public void connect() throws IrcException, IOException {
-            this.connect(this.host);
-            this.listChannels();
+        @Override
+        public void onChannelInfo(String channel) {
+            LOG.debug("DETECT CHANNEL: " + channel);
+            subscribe(channel, false);
+        }
 
+        @Override
+        public void onDisconnect() {
+            if (closed || !options.isReconnectEnabled() || !reconnecting.compareAndSet(false, true)) {
+                return;
+            }
+            lostTimestamp = clock.currentTimeMillis();
+            lostNanos = System.nanoTime();
+            LOG.warn("Connection " + index + " to " + host + " lost, reconnecting");
+            scheduleReconnect(0);
         }
 
-        public void send(String channel, String message){
-            this.sendMessage(channel,message);
-            Message msg=new Message(this.getName(),this.host,channel,message);
-            if(channels.containsKey(channel)){
-                List<Message> messages=channels.get(channel);
-                messages.add(msg);
+        private void scheduleReconnect(final int attempt) {
+            boolean scheduled = schedule(new Runnable() {
+                @Override
+                public void run() {
+                    reconnect(attempt);
+                }
+            }, getBackoff(attempt, options.getReconnectInitialDelay(), options.getReconnectMaxDelay()));
+            if (!scheduled) {
+                reconnecting.set(false);
             }
         }
 
-        public void onMessage(String channel, String sender, String login, String hostname, String message) {
-            LOG.info(channel + "-" + sender + "-" + login + "-" + hostname + "=>" + message);
-            Message msg = new Message(sender, hostname, channel, message);
-            if (!channels.containsKey(channel)) {
-                channels.put(channel, new ArrayList<Message>());
+
+        private void reconnect(int attempt) {
+            if (closed) {
+                reconnecting.set(false);
+                return;
             }
-            List<Message> messages = channels.get(channel);
-            messages.add(msg);
+            if (metrics != null) {
+                metrics.counter("reconnect.attempts").inc();
+            }
+            try {
+                client.connect();
+            } catch (IOException e) {
+                LOG.warn("Reconnection " + (attempt + 1) + " of connection " + index + " to " + host + " failed: "
+                        + e.getMessage());
+                scheduleReconnect(attempt + 1);
+                return;
+            }
+            reconnecting.set(false);
+            rejoin();
+            long now = clock.currentTimeMillis();
+            for (String channel : joined) {
+                getStore(channel).addGap(lostTimestamp, now);
+            }
+            long recovery = System.nanoTime() - lostNanos;
+            if (metrics != null) {
+                metrics.histogram("reconnect.recovery").record(recovery);
+            }
+            LOG.info("Connection " + index + " to " + host + " recovered in "
+                    + TimeUnit.NANOSECONDS.toMillis(recovery) + " ms, rejoining " + joined.size() + " channels");
         }
 
-        protected void onChannelInfo(String channel,
-                int userCount,
-                String topic) {
-            LOG.info("DETECT CHANNEL: " + channel);
-            this.joinChannel(channel);
+        /**
+         * Join the channels again, as many per line as fit in the line length limit of the protocol.
+         */
+        private void rejoin() {
+            StringBuilder line = new StringBuilder();
+            for (String channel : joined) {
+                if (line.length() > 0 && line.length() + channel.length() + 1 > MAX_JOIN_LINE) {
+                    client.sendRawLine(line.toString());
+                    line.setLength(0);
+                }
+                line.append(line.length() == 0 ? "JOIN " : ",").append(channel);
+            }
+            if (line.length() > 0) {
+                client.sendRawLine(line.toString());
+            }
         }
     }
 }
@@ -0,0 +1,502 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tuning options of an {@link IRCManager}, read from the connector options of the attached cluster.
+ */
+public class IRCOptions {
+
+    /**
+     * Maximum number of messages kept in memory per channel.
+     */
+    public static final String CHANNEL_MAX_MESSAGES = "channel.max.messages";
+
+    /**
+     * Maximum estimated heap bytes kept in memory per channel.
+     */
+    public static final String CHANNEL_MAX_BYTES = "channel.max.bytes";
+
+    /**
+     * Milliseconds covered by each time partition of a channel, 0 to partition only by size.
+     */
+    public static final String CHANNEL_SEGMENT_DURATION = "channel.segment.duration";
+
+    /**
+     * Milliseconds a message is retained, 0 to retain messages until the channel is full.
+     */
+    public static final String CHANNEL_RETENTION = "channel.retention";
+
+    /**
+     * Maximum number of user and host names interned for all the channels before cold names are dropped.
+     */
+    public static final String DICTIONARY_MAX_ENTRIES = "dictionary.max.entries";
+
+    /**
+     * Comma separated glob patterns of the channels joined, empty to join every channel.
+     */
+    public static final String CHANNELS_INCLUDE = "channels.include";
+
+    /**
+     * Comma separated glob patterns of the channels never joined.
+     */
+    public static final String CHANNELS_EXCLUDE = "channels.exclude";
+
+    /**
+     * Maximum number of joined channels, 0 for no limit. When a channel is used at the limit the least recently
+     * used one is parted.
+     */
+    public static final String CHANNELS_MAX = "channels.max";
+
+    /**
+     * When channels are joined: all, joining every channel listed by the server on connection, or lazy, joining
+     * a channel the first time a table is created for it or it is queried.
+     */
+    public static final String CHANNELS_JOIN = "channels.join";
+
+    /**
+     * Milliseconds a joined channel may go without being queried before it is parted and its messages evicted,
+     * 0 to never part idle channels.
+     */
+    public static final String CHANNELS_IDLE_TIMEOUT = "channels.idle.timeout";
+
+    /**
+     * Number of rows of each page delivered by asynchronous queries.
+     */
+    public static final String QUERY_PAGE_SIZE = "query.page.size";
+
+    /**
+     * Whether limited queries scan the channel newest first, returning its latest matching messages.
+     */
+    public static final String QUERY_NEWEST_FIRST = "query.newest.first";
+
+    /**
+     * Maximum number of rows of each batch pushed by continuous queries.
+     */
+    public static final String STREAM_BATCH_SIZE = "stream.batch.size";
+
+    /**
+     * Maximum milliseconds a continuous query waits to fill a batch.
+     */
+    public static final String STREAM_BATCH_TIME = "stream.batch.time";
+
+    /**
+     * Maximum number of matching messages queued per continuous query.
+     */
+    public static final String STREAM_QUEUE_SIZE = "stream.queue.size";
+
+    /**
+     * Directory where the messages are logged to survive restarts, empty to keep them only in memory.
+     */
+    public static final String PERSISTENCE_DIR = "persistence.dir";
+
+    /**
+     * Maximum bytes of each log file of a channel.
+     */
+    public static final String PERSISTENCE_FILE_BYTES = "persistence.file.bytes";
+
+    /**
+     * Maximum bytes logged per channel, 0 for no limit.
+     */
+    public static final String PERSISTENCE_MAX_BYTES = "persistence.max.bytes";
+
+    /**
+     * Milliseconds a logged message is kept on disk, 0 to keep it until the log is full.
+     */
+    public static final String PERSISTENCE_RETENTION = "persistence.retention";
+
+    /**
+     * Number of logged messages that triggers a sync to disk.
+     */
+    public static final String PERSISTENCE_SYNC_MESSAGES = "persistence.sync.messages";
+
+    /**
+     * Maximum milliseconds a logged message waits to be synced to disk.
+     */
+    public static final String PERSISTENCE_SYNC_INTERVAL = "persistence.sync.interval";
+
+    /**
+     * Directory where the channels are saved in a snapshot on disconnect and restored from on connect, empty to
+     * start with empty channels.
+     */
+    public static final String SNAPSHOT_DIR = "snapshot.dir";
+
+    /**
+     * Maximum number of messages waiting to be sent.
+     */
+    public static final String SEND_QUEUE_SIZE = "send.queue.size";
+
+    /**
+     * Milliseconds between messages sent to the server once the burst is spent.
+     */
+    public static final String SEND_INTERVAL = "send.interval";
+
+    /**
+     * Number of messages that can be sent at once after an idle period.
+     */
+    public static final String SEND_BURST = "send.burst";
+
+    /**
+     * Maximum number of channels a message with the same text is sent to in one line.
+     */
+    public static final String SEND_MAX_TARGETS = "send.max.targets";
+
+    /**
+     * Maximum milliseconds a disconnect waits for the queued messages to be sent before discarding them.
+     */
+    public static final String SEND_DRAIN_TIMEOUT = "send.drain.timeout";
+
+    /**
+     * Number of connections to the server the channels are spread over.
+     */
+    public static final String CONNECTIONS = "connections";
+
+    /**
+     * Client used to connect to the server: pircbot, with blocking I/O threads per connection, or nio, sharing a
+     * few event loops among every connection of the JVM.
+     */
+    public static final String CLIENT = "client";
+
+    /**
+     * Maximum number of event loops shared by the nio clients of the JVM.
+     */
+    public static final String CLIENT_EVENT_LOOPS = "client.event.loops";
+
+    /**
+     * Whether the nio clients request the server-time capability and timestamp messages with the time the server
+     * received them.
+     */
+    public static final String CLIENT_SERVER_TIME = "client.server.time";
+
+    /**
+     * Maximum number of received messages waiting for the ingest thread, 0 to append them on the client threads.
+     */
+    public static final String INGEST_QUEUE_SIZE = "ingest.queue.size";
+
+    /**
+     * What to do with a message received when the ingest queue is full: block, drop-oldest or sample. Block is the
+     * default of the pircbot client and is refused with the nio client, whose default is drop-oldest.
+     */
+    public static final String INGEST_OVERFLOW = "ingest.overflow";
+
+    /**
+     * One of how many messages received while the ingest queue is full is kept by the sample policy.
+     */
+    public static final String INGEST_SAMPLE_RATE = "ingest.sample.rate";
+
+    /**
+     * Whether lost connections are reconnected, rejoining their channels.
+     */
+    public static final String RECONNECT_ENABLED = "reconnect.enabled";
+
+    /**
+     * Milliseconds before the second reconnection attempt, doubled by each failed attempt.
+     */
+    public static final String RECONNECT_INITIAL_DELAY = "reconnect.initial.delay";
+
+    /**
+     * Maximum milliseconds between reconnection attempts.
+     */
+    public static final String RECONNECT_MAX_DELAY = "reconnect.max.delay";
+
+    /**
+     * Milliseconds between refreshes of the cached clock that timestamps received messages, 0 to read the system
+     * clock for every message.
+     */
+    public static final String INGEST_CLOCK_RESOLUTION = "ingest.clock.resolution";
+
+    /**
+     * Maximum number of query results cached per cluster, 0 to disable the cache.
+     */
+    public static final String QUERY_CACHE_ENTRIES = "query.cache.entries";
+
+    /**
+     * Maximum number of rows of all the query results cached per cluster.
+     */
+    public static final String QUERY_CACHE_ROWS = "query.cache.rows";
+
+    /**
+     * Maximum number of threads scanning a channel for one query, 1 to always scan on the query thread.
+     */
+    public static final String QUERY_PARALLELISM = "query.parallelism";
+
+    /**
+     * Minimum number of messages in the scanned range for a query to be scanned in parallel.
+     */
+    public static final String QUERY_PARALLEL_THRESHOLD = "query.parallel.threshold";
+
+    /**
+     * Milliseconds of the buckets timestamps are truncated to when a query groups by timestamp.
+     */
+    public static final String QUERY_GROUP_BUCKET = "query.group.bucket";
+
+    /**
+     * Whether the metrics of the cluster are recorded.
+     */
+    public static final String METRICS_ENABLED = "metrics.enabled";
+
+    /**
+     * Comma separated reporters of the metrics: jmx, log or the class name of a
+     * {@link com.stratio.connector.irc.metrics.MetricsReporter}.
+     */
+    public static final String METRICS_REPORTERS = "metrics.reporters";
+
+    /**
+     * Milliseconds between the reports of the reporters that push the metrics.
+     */
+    public static final String METRICS_REPORT_INTERVAL = "metrics.report.interval";
+
+    private final Map<String, String> options;
+
+    public IRCOptions(Map<String, String> options) {
+        this.options = new HashMap<>();
+        if (options != null) {
+            this.options.putAll(options);
+        }
+    }
+
+    public IRCOptions() {
+        this(null);
+    }
+
+    public int getChannelMaxMessages() {
+        return getInt(CHANNEL_MAX_MESSAGES, 100000);
+    }
+
+    public long getChannelMaxBytes() {
+        return getLong(CHANNEL_MAX_BYTES, 64L * 1024 * 1024);
+    }
+
+    public long getChannelSegmentDuration() {
+        return getLong(CHANNEL_SEGMENT_DURATION, 10 * 60 * 1000L);
+    }
+
+    public long getChannelRetention() {
+        return getLong(CHANNEL_RETENTION, 0);
+    }
+
+    public int getDictionaryMaxEntries() {
+        return getInt(DICTIONARY_MAX_ENTRIES, 100000);
+    }
+
+    public String getChannelsInclude() {
+        return getString(CHANNELS_INCLUDE, "");
+    }
+
+    public String getChannelsExclude() {
+        return getString(CHANNELS_EXCLUDE, "");
+    }
+
+    public int getChannelsMax() {
+        return getInt(CHANNELS_MAX, 0);
+    }
+
+    public boolean isChannelsJoinLazy() {
+        return "lazy".equalsIgnoreCase(getString(CHANNELS_JOIN, "all"));
+    }
+
+    public long getChannelsIdleTimeout() {
+        return getLong(CHANNELS_IDLE_TIMEOUT, 0);
+    }
+
+    public int getQueryPageSize() {
+        return getInt(QUERY_PAGE_SIZE, 1000);
+    }
+
+    public boolean isQueryNewestFirst() {
+        return getBoolean(QUERY_NEWEST_FIRST, true);
+    }
+
+    public int getQueryParallelism() {
+        return getInt(QUERY_PARALLELISM, Runtime.getRuntime().availableProcessors());
+    }
+
+    public long getQueryParallelThreshold() {
+        return getLong(QUERY_PARALLEL_THRESHOLD, 100000);
+    }
+
+    public long getQueryGroupBucket() {
+        return getLong(QUERY_GROUP_BUCKET, 60 * 1000L);
+    }
+
+    public int getQueryCacheEntries() {
+        return getInt(QUERY_CACHE_ENTRIES, 32);
+    }
+
+    public long getQueryCacheRows() {
+        return getLong(QUERY_CACHE_ROWS, 100000);
+    }
+
+    public int getStreamBatchSize() {
+        return getInt(STREAM_BATCH_SIZE, 100);
+    }
+
+    public long getStreamBatchTime() {
+        return getLong(STREAM_BATCH_TIME, 1000);
+    }
+
+    public int getStreamQueueSize() {
+        return getInt(STREAM_QUEUE_SIZE, 10000);
+    }
+
+    public String getPersistenceDir() {
+        return getString(PERSISTENCE_DIR, null);
+    }
+
+    public String getSnapshotDir() {
+        return getString(SNAPSHOT_DIR, null);
+    }
+
+    public long getPersistenceFileBytes() {
+        return getLong(PERSISTENCE_FILE_BYTES, 64L * 1024 * 1024);
+    }
+
+    public long getPersistenceMaxBytes() {
+        return getLong(PERSISTENCE_MAX_BYTES, 0);
+    }
+
+    public long getPersistenceRetention() {
+        return getLong(PERSISTENCE_RETENTION, 0);
+    }
+
+    public int getPersistenceSyncMessages() {
+        return getInt(PERSISTENCE_SYNC_MESSAGES, 1000);
+    }
+
+    public long getPersistenceSyncInterval() {
+        return getLong(PERSISTENCE_SYNC_INTERVAL, 1000);
+    }
+
+    public int getSendQueueSize() {
+        return getInt(SEND_QUEUE_SIZE, 10000);
+    }
+
+    public long getSendInterval() {
+        return getLong(SEND_INTERVAL, 1000);
+    }
+
+    public int getSendBurst() {
+        return getInt(SEND_BURST, 5);
+    }
+
+    public int getSendMaxTargets() {
+        return getInt(SEND_MAX_TARGETS, 4);
+    }
+
+    public long getSendDrainTimeout() {
+        return getLong(SEND_DRAIN_TIMEOUT, 5000);
+    }
+
+    public int getConnections() {
+        return getInt(CONNECTIONS, 1);
+    }
+
+    public String getClient() {
+        return getString(CLIENT, "pircbot");
+    }
+
+    public int getClientEventLoops() {
+        return getInt(CLIENT_EVENT_LOOPS, 2);
+    }
+
+    public boolean isClientServerTime() {
+        return getBoolean(CLIENT_SERVER_TIME, true);
+    }
+
+    public long getIngestClockResolution() {
+        return getLong(INGEST_CLOCK_RESOLUTION, 0);
+    }
+
+    public int getIngestQueueSize() {
+        return getInt(INGEST_QUEUE_SIZE, 64 * 1024);
+    }
+
+    public String getIngestOverflow() {
+        return getString(INGEST_OVERFLOW, "nio".equalsIgnoreCase(getClient()) ? "drop-oldest" : "block");
+    }
+
+    public int getIngestSampleRate() {
+        return getInt(INGEST_SAMPLE_RATE, 10);
+    }
+
+    public boolean isReconnectEnabled() {
+        return getBoolean(RECONNECT_ENABLED, true);
+    }
+
+    public long getReconnectInitialDelay() {
+        return getLong(RECONNECT_INITIAL_DELAY, 1000);
+    }
+
+    public long getReconnectMaxDelay() {
+        return getLong(RECONNECT_MAX_DELAY, 60 * 1000L);
+    }
+
+    public boolean isMetricsEnabled() {
+        return getBoolean(METRICS_ENABLED, true);
+    }
+
+    public String getMetricsReporters() {
+        return getString(METRICS_REPORTERS, "jmx");
+    }
+
+    public long getMetricsReportInterval() {
+        return getLong(METRICS_REPORT_INTERVAL, 60 * 1000L);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = options.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option " + key + " must be a number: " + value, e);
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = options.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = options.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Inbound pipeline of an {@link IRCManager}.
+ *
+ * <p>The client threads only enqueue the received messages, so reading the sockets never waits for the stores,
+ * their indexes or their logs. An ingest thread takes every queued message at once, swapping the full buffer with
+ * an empty one, and appends them in order, each run of messages of the same channel as one store operation. When
+ * the queue is full the overflow policy decides: block the client thread, leaving the following messages in the
+ * socket; drop the oldest queued message; or sample, where one of every sample rate incoming messages replaces the
+ * oldest queued message and the rest are dropped.</p>
+ */
+public class IngestQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestQueue.class);
+
+    /**
+     * What to do with a message received when the queue is full.
+     */
+    public enum Overflow {
+        BLOCK, DROP_OLDEST, SAMPLE;
+
+        /**
+         * Parse a policy name, such as drop-oldest.
+         * @param name The name.
+         * @return The policy.
+         */
+        public static Overflow parse(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /**
+     * Appends a received message to the store of its channel.
+     */
+    interface Consumer {
+        void consume(String channel, String user, String host, long timestamp, byte[] body);
+
+        /**
+         * Append the messages of a channel in the slots from inclusive to to exclusive as one store operation.
+         */
+        void consume(String channel, String[] users, String[] hosts, long[] timestamps, byte[][] bodies, int from,
+                int to);
+    }
+
+    private final Consumer consumer;
+    private final String name;
+    private final int capacity;
+    private final Overflow overflow;
+    private final int sampleRate;
+    private final AtomicLong appended = new AtomicLong();
+    private Thread thread;
+
+    /**
+     * Whether an ingest thread is still appending queued messages, guarded by the queue lock.
+     */
+    private boolean draining = false;
+
+    /**
+     * Messages waiting for the ingest thread, guarded by the queue lock.
+     */
+    private Buffer pending;
+
+    /**
+     * Counters guarded by the queue lock.
+     */
+    private long received = 0;
+    private long dropped = 0;
+    private long blocked = 0;
+    private long overflowed = 0;
+
+    /**
+     * Class constructor.
+     * @param consumer The consumer of the messages.
+     * @param name The name of the ingest thread.
+     * @param capacity The maximum number of queued messages.
+     * @param overflow The policy when the queue is full.
+     * @param sampleRate One of how many messages is kept when sampling.
+     */
+    IngestQueue(Consumer consumer, String name, int capacity, Overflow overflow, int sampleRate) {
+        this.consumer = consumer;
+        this.name = name;
+        this.capacity = Math.max(1, capacity);
+        this.overflow = overflow;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.pending = new Buffer(this.capacity);
+    }
+
+    /**
+     * Start the ingest thread.
+     */
+    synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        while (draining) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    drain();
+                } finally {
+                    synchronized (IngestQueue.this) {
+                        draining = false;
+                        IngestQueue.this.notifyAll();
+                    }
+                }
+            }
+        }, name);
+        draining = true;
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the ingest thread once the queued messages are appended. Messages offered afterwards are appended by
+     * the thread that offers them, once the ingest thread has finished, so they never overtake the queued ones.
+     */
+    void stop() {
+        Thread stopped;
+        synchronized (this) {
+            stopped = thread;
+            thread = null;
+            notifyAll();
+        }
+        if (stopped != null) {
+            try {
+                stopped.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Enqueue a received message, applying the overflow policy if the queue is full.
+     * @param channel The channel name with the leading #.
+     * @param user The user that sent the message.
+     * @param host The host of the user.
+     * @param timestamp The epoch millis of the message.
+     * @param body The UTF-8 encoded message.
+     */
+    public void offer(String channel, String user, String host, long timestamp, byte[] body) {
+        synchronized (this) {
+            boolean counted = false;
+            while (thread != null || draining) {
+                if (thread == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dropped++;
+                        return;
+                    }
+                    continue;
+                }
+                if (!counted) {
+                    received++;
+                    counted = true;
+                }
+                if (pending.size < capacity) {
+                    pending.add(channel, user, host, timestamp, body);
+                    if (pending.size == 1) {
+                        notifyAll();
+                    }
+                    return;
+                }
+                if (overflow == Overflow.BLOCK) {
+                    blocked++;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dropped++;
+                        return;
+                    }
+                } else if (overflow == Overflow.SAMPLE && ++overflowed % sampleRate != 0) {
+                    dropped++;
+                    return;
+                } else {
+                    pending.removeOldest();
+                    dropped++;
+                }
+            }
+        }
+        consume(channel, user, host, timestamp, body);
+    }
+
+    /**
+     * Get the number of messages waiting to be appended.
+     * @return The queue depth.
+     */
+    public synchronized int getQueueDepth() {
+        return pending.size;
+    }
+
+    /**
+     * Get the number of messages offered while the ingest thread runs, including the dropped ones.
+     * @return The number of messages.
+     */
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    /**
+     * Get the number of messages lost because the queue was full.
+     * @return The number of messages.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Get the number of times a client thread waited for room in the queue.
+     * @return The number of waits.
+     */
+    public synchronized long getBlocked() {
+        return blocked;
+    }
+
+    public long getAppended() {
+        return appended.get();
+    }
+
+    private void drain() {
+        Buffer spare = new Buffer(capacity);
+        while (true) {
+            Buffer batch;
+            synchronized (this) {
+                while (pending.size == 0 && thread != null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (pending.size == 0) {
+                    return;
+                }
+                batch = pending;
+                pending = spare;
+                notifyAll();
+            }
+            int slot = batch.head;
+            int remaining = batch.size;
+            while (remaining > 0) {
+                String channel = batch.channels[slot];
+                int end = slot + 1;
+                while (end - slot < remaining && end < capacity && channel.equals(batch.channels[end])) {
+                    end++;
+                }
+                consume(channel, batch, slot, end);
+                for (int i = slot; i < end; i++) {
+                    batch.release(i);
+                }
+                remaining -= end - slot;
+                slot = end % capacity;
+            }
+            batch.head = 0;
+            batch.size = 0;
+            spare = batch;
+        }
+    }
+
+    private void consume(String channel, String user, String host, long timestamp, byte[] body) {
+        try {
+            consumer.consume(channel, user, host, timestamp, body);
+            appended.incrementAndGet();
+        } catch (RuntimeException e) {
+            LOG.error("Cannot append a message of " + channel, e);
+        }
+    }
+
+    private void consume(String channel, Buffer batch, int from, int to) {
+        try {
+            consumer.consume(channel, batch.users, batch.hosts, batch.timestamps, batch.bodies, from, to);
+            appended.addAndGet(to - from);
+        } catch (RuntimeException e) {
+            LOG.error("Cannot append the messages of " + channel, e);
+        }
+    }
+
+    /**
+     * Ring of queued messages stored by columns.
+     */
+    private static final class Buffer {
+        private final String[] channels;
+        private final String[] users;
+        private final String[] hosts;
+        private final long[] timestamps;
+        private final byte[][] bodies;
+        private int head = 0;
+        private int size = 0;
+
+        private Buffer(int capacity) {
+            channels = new String[capacity];
+            users = new String[capacity];
+            hosts = new String[capacity];
+            timestamps = new long[capacity];
+            bodies = new byte[capacity][];
+        }
+
+        private void add(String channel, String user, String host, long timestamp, byte[] body) {
+            int slot = (head + size) % channels.length;
+            channels[slot] = channel;
+            users[slot] = user;
+            hosts[slot] = host;
+            timestamps[slot] = timestamp;
+            bodies[slot] = body;
+            size++;
+        }
+
+        private void removeOldest() {
+            release(head);
+            head = (head + 1) % channels.length;
+            size--;
+        }
+
+        private void release(int slot) {
+            channels[slot] = null;
+            users[slot] = null;
+            hosts[slot] = null;
+            bodies[slot] = null;
+        }
+    }
+}
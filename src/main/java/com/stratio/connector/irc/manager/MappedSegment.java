@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Segment reading the records of a {@link MessageLog} file through a memory mapping, so its messages live in the
+ * page cache instead of the heap. Only the start position of each record is kept on the heap.
+ *
+ * <p>A record is laid out as its length, excluding the length itself, followed by the epoch-millis timestamp, the
+ * length-prefixed UTF-8 user and host and the UTF-8 body, which takes the rest of the record.</p>
+ */
+public class MappedSegment extends MessageSegment {
+
+    static final int LENGTH_BYTES = 4;
+    static final int HEADER_BYTES = 8 + 2 + 2;
+
+    private final ByteBuffer buffer;
+    private final int[] positions;
+    private final int size;
+
+    /**
+     * Class constructor.
+     * @param channel The channel of the messages.
+     * @param baseSequence The sequence of the first record.
+     * @param buffer The mapped file. It is never modified.
+     * @param positions The start position of every record.
+     * @param size The number of visible records.
+     */
+    MappedSegment(String channel, long baseSequence, ByteBuffer buffer, int[] positions, int size) {
+        super(channel, baseSequence);
+        this.buffer = buffer;
+        this.positions = positions;
+        this.size = size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getTimestamp(int row) {
+        return buffer.getLong(positions[row] + LENGTH_BYTES);
+    }
+
+    @Override
+    public String getUser(int row) {
+        int position = positions[row] + LENGTH_BYTES + 8;
+        return decode(position + 2, buffer.getShort(position) & 0xFFFF);
+    }
+
+    @Override
+    public String getHost(int row) {
+        int position = getHostPosition(row);
+        return decode(position + 2, buffer.getShort(position) & 0xFFFF);
+    }
+
+    @Override
+    public String getMessage(int row) {
+        int start = getBodyPosition(row);
+        return decode(start, getEndPosition(row) - start);
+    }
+
+    @Override
+    public boolean messageContains(int row, byte[] needle) {
+        if (needle.length == 0) {
+            return true;
+        }
+        int last = getEndPosition(row) - needle.length;
+        byte first = needle[0];
+        for (int i = getBodyPosition(row); i <= last; i++) {
+            if (buffer.get(i) != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < needle.length && buffer.get(i + j) == needle[j]) {
+                j++;
+            }
+            if (j == needle.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean messageEquals(int row, byte[] value) {
+        int start = getBodyPosition(row);
+        if (getEndPosition(row) - start != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (buffer.get(start + i) != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the heap bytes of this segment, the mapped records are not counted.
+     * @return The number of bytes.
+     */
+    @Override
+    public long estimateBytes() {
+        return positions.length * 4L;
+    }
+
+    private int getHostPosition(int row) {
+        int position = positions[row] + LENGTH_BYTES + 8;
+        return position + 2 + (buffer.getShort(position) & 0xFFFF);
+    }
+
+    private int getBodyPosition(int row) {
+        int position = getHostPosition(row);
+        return position + 2 + (buffer.getShort(position) & 0xFFFF);
+    }
+
+    private int getEndPosition(int row) {
+        int position = positions[row];
+        return position + LENGTH_BYTES + buffer.getInt(position);
+    }
+
+    private String decode(int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
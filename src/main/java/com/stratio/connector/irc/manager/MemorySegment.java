@@ -0,0 +1,225 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Heap segment storing the messages by columns: epoch-millis timestamps, dictionary ids for user and host and the
+ * UTF-8 bodies packed in a single byte array.
+ *
+ * <p>A segment has a single writer. The columns start small and grow up to the capacity of the segment; every
+ * column slot is written and the grown columns are published before the size, so readers only need to read
+ * {@link #size()} before touching the columns.</p>
+ */
+public class MemorySegment extends MessageSegment {
+
+    private static final int INITIAL_ROWS = 64;
+    private static final int INITIAL_BODY_BYTES_PER_ROW = 32;
+
+    private final StringDictionary dictionary;
+    private final int capacity;
+    private volatile Columns columns;
+    private volatile int size = 0;
+
+    /**
+     * Class constructor.
+     * @param channel The channel of the messages.
+     * @param baseSequence The sequence of the first message of the segment in its channel.
+     * @param dictionary The dictionary of user and host names.
+     * @param capacity The maximum number of messages.
+     */
+    public MemorySegment(String channel, long baseSequence, StringDictionary dictionary, int capacity) {
+        super(channel, baseSequence);
+        this.dictionary = dictionary;
+        this.capacity = capacity;
+        int rows = Math.min(capacity, INITIAL_ROWS);
+        this.columns = new Columns(new long[rows], new int[rows], new int[rows], new int[rows + 1],
+                new byte[rows * INITIAL_BODY_BYTES_PER_ROW]);
+    }
+
+    /**
+     * Append a message. Only one thread may append to a segment.
+     * @param timestamp The epoch millis of the message, not lower than the previous one.
+     * @param userId The dictionary id of the user.
+     * @param hostId The dictionary id of the host.
+     * @param body The UTF-8 encoded message.
+     */
+    void append(long timestamp, int userId, int hostId, byte[] body) {
+        int row = size;
+        Columns current = columns;
+        if (row == current.timestamps.length) {
+            int rows = Math.min(capacity, row * 2);
+            current = new Columns(Arrays.copyOf(current.timestamps, rows), Arrays.copyOf(current.userIds, rows),
+                    Arrays.copyOf(current.hostIds, rows), Arrays.copyOf(current.offsets, rows + 1), current.bodies);
+        }
+        int start = current.offsets[row];
+        if (start + body.length > current.bodies.length) {
+            byte[] bodies = Arrays.copyOf(current.bodies, Math.max(current.bodies.length * 2, start + body.length));
+            current = new Columns(current.timestamps, current.userIds, current.hostIds, current.offsets, bodies);
+        }
+        System.arraycopy(body, 0, current.bodies, start, body.length);
+        current.timestamps[row] = timestamp;
+        current.userIds[row] = userId;
+        current.hostIds[row] = hostId;
+        current.offsets[row + 1] = start + body.length;
+        if (current != columns) {
+            columns = current;
+        }
+        size = row + 1;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getTimestamp(int row) {
+        return columns.timestamps[row];
+    }
+
+    @Override
+    public int findRow(long timestamp, int rows) {
+        long[] timestamps = columns.timestamps;
+        int low = 0;
+        int high = rows;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Get the dictionary the user and host ids of this segment belong to. Ids of segments with different
+     * dictionaries are not comparable.
+     * @return The dictionary.
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int getUserId(int row) {
+        return columns.userIds[row];
+    }
+
+    @Override
+    public String getUser(int row) {
+        return dictionary.decode(columns.userIds[row]);
+    }
+
+    public int getHostId(int row) {
+        return columns.hostIds[row];
+    }
+
+    @Override
+    public String getHost(int row) {
+        return dictionary.decode(columns.hostIds[row]);
+    }
+
+    @Override
+    public String getMessage(int row) {
+        Columns current = columns;
+        int start = current.offsets[row];
+        return new String(current.bodies, start, current.offsets[row + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean messageContains(int row, byte[] needle) {
+        Columns current = columns;
+        byte[] data = current.bodies;
+        int start = current.offsets[row];
+        int last = current.offsets[row + 1] - needle.length;
+        if (needle.length == 0) {
+            return true;
+        }
+        byte first = needle[0];
+        for (int i = start; i <= last; i++) {
+            if (data[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < needle.length && data[i + j] == needle[j]) {
+                j++;
+            }
+            if (j == needle.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean messageEquals(int row, byte[] value) {
+        Columns current = columns;
+        byte[] data = current.bodies;
+        int start = current.offsets[row];
+        if (current.offsets[row + 1] - start != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (data[start + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long estimateBytes() {
+        Columns current = columns;
+        return current.timestamps.length * 8L + current.userIds.length * 4L + current.hostIds.length * 4L
+                + current.offsets.length * 4L + current.bodies.length;
+    }
+
+    /**
+     * Column arrays of a segment. A new instance is published whenever an array grows.
+     */
+    private static final class Columns {
+        private final long[] timestamps;
+        private final int[] userIds;
+        private final int[] hostIds;
+        private final int[] offsets;
+        private final byte[] bodies;
+
+        private Columns(long[] timestamps, int[] userIds, int[] hostIds, int[] offsets, byte[] bodies) {
+            this.timestamps = timestamps;
+            this.userIds = userIds;
+            this.hostIds = hostIds;
+            this.offsets = offsets;
+            this.bodies = bodies;
+        }
+    }
+}
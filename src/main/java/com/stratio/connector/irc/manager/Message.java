@@ -1,28 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
 package com.stratio.connector.irc.manager;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
 public class Message {
-    private final String timestamp;
+
+    /**
+     * Format of the timestamp column.
+     */
+    public static final String TIMESTAMP_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    private static final ThreadLocal<TimestampFormat> TIMESTAMP_FORMAT = new ThreadLocal<TimestampFormat>() {
+        @Override
+        protected TimestampFormat initialValue() {
+            return new TimestampFormat();
+        }
+    };
+
+    private final long timestamp;
     private final String user;
     private final String host;
     private final String channel;
     private final String message;
 
+    /**
+     * Class constructor. The message is timestamped with the current time.
+     * @param user The user that sent the message.
+     * @param host The host of the user.
+     * @param channel The channel of the message.
+     * @param message The message.
+     */
     public Message(String user, String host, String channel, String message) {
-        SimpleDateFormat dateFormat =new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        this.timestamp =  dateFormat.format(new Date());
+        this(System.currentTimeMillis(), user, host, channel, message);
+    }
+
+    /**
+     * Class constructor.
+     * @param timestamp The epoch millis of the message.
+     * @param user The user that sent the message.
+     * @param host The host of the user.
+     * @param channel The channel of the message.
+     * @param message The message.
+     */
+    public Message(long timestamp, String user, String host, String channel, String message) {
+        this.timestamp = timestamp;
         this.user = user;
         this.host = host;
         this.channel = channel;
         this.message = message;
     }
 
-    public String getTimestamp() {
+    /**
+     * Format an epoch timestamp as it is shown in the timestamp column. Each thread keeps the last second it
+     * formatted, so scans and projections over consecutive messages format each second once.
+     * @param timestamp The epoch millis.
+     * @return The formatted timestamp.
+     */
+    public static String formatTimestamp(long timestamp) {
+        return TIMESTAMP_FORMAT.get().format(timestamp);
+    }
+
+    /**
+     * Get the time of the message.
+     * @return The epoch millis.
+     */
+    public long getTimestamp() {
         return timestamp;
     }
 
+    /**
+     * Get the time of the message as it is shown in the timestamp column.
+     * @return The formatted timestamp.
+     */
+    public String getFormattedTimestamp() {
+        return formatTimestamp(timestamp);
+    }
+
     public String getUser() {
         return user;
     }
@@ -38,4 +115,24 @@ public class Message {
     public String getMessage() {
         return message;
     }
+
+    /**
+     * Formatter of one thread with the last formatted second.
+     */
+    private static final class TimestampFormat {
+        private final SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_PATTERN);
+        private final Date date = new Date(0);
+        private long second = Long.MIN_VALUE;
+        private String formatted;
+
+        private String format(long timestamp) {
+            long current = timestamp >= 0 ? timestamp / 1000 : (timestamp - 999) / 1000;
+            if (formatted == null || current != second) {
+                date.setTime(timestamp);
+                formatted = format.format(date);
+                second = current;
+            }
+            return formatted;
+        }
+    }
 }
@@ -0,0 +1,357 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted index from the lowercase tokens of the messages of a channel to the sequences of the messages that
+ * contain them.
+ *
+ * <p>Postings are appended by the single writer of the {@link MessageStore} and read without locking: each
+ * posting list publishes an immutable view whose bounds never change, and the writer only appends past those
+ * bounds or publishes a new view.</p>
+ */
+public class MessageIndex {
+
+    private static final long[] NO_SEQUENCES = new long[0];
+
+    private final Map<String, PostingList> postings = new ConcurrentHashMap<>();
+
+    /**
+     * Sequence of the oldest message covered by the index.
+     */
+    private volatile long firstSequence;
+
+    /**
+     * Class constructor.
+     * @param firstSequence The sequence of the first message that will be indexed.
+     */
+    public MessageIndex(long firstSequence) {
+        this.firstSequence = firstSequence;
+    }
+
+    /**
+     * Split a text into its distinct lowercase tokens, runs of letters and digits.
+     * @param text The text.
+     * @return The tokens in order of appearance.
+     */
+    public static List<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean tokenChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return new ArrayList<>(tokens);
+    }
+
+    /**
+     * Index a message. Sequences must be added in increasing order.
+     * @param sequence The sequence of the message.
+     * @param message The message.
+     */
+    void add(long sequence, String message) {
+        for (String token : tokenize(message)) {
+            PostingList list = postings.get(token);
+            if (list == null) {
+                list = new PostingList();
+                postings.put(token, list);
+            }
+            list.add(sequence);
+        }
+    }
+
+    /**
+     * Forget the messages of evicted segments.
+     * @param sequence The sequence of the oldest retained message.
+     */
+    void evictBefore(long sequence) {
+        firstSequence = Math.max(firstSequence, sequence);
+        for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+            if (entry.getValue().evictBefore(sequence)) {
+                postings.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Find the messages that contain every term. A whole token is looked up directly; a fragment takes the union
+     * of the postings of every indexed token it can be part of, so the result may hold messages that only
+     * contain the fragment with another case or inside a longer token, and must be checked by the caller.
+     * @param terms The lowercase terms.
+     * @param from The first sequence to consider.
+     * @param to The sequence after the last one to consider.
+     * @return The sorted sequences of the messages that may contain every term.
+     */
+    public long[] search(List<Term> terms, long from, long to) {
+        if (terms.isEmpty()) {
+            return NO_SEQUENCES;
+        }
+        List<PostingView> views = new ArrayList<>(terms.size());
+        for (Term term : terms) {
+            PostingView view = term.isWhole() ? find(term.getText(), from, to) : union(term, from, to);
+            if (view.size() == 0) {
+                return NO_SEQUENCES;
+            }
+            views.add(view);
+        }
+        Collections.sort(views, new Comparator<PostingView>() {
+            @Override
+            public int compare(PostingView first, PostingView second) {
+                return Integer.compare(first.size(), second.size());
+            }
+        });
+        PostingView shortest = views.get(0);
+        long[] result = Arrays.copyOfRange(shortest.values, shortest.start, shortest.end);
+        int size = result.length;
+        for (int i = 1; i < views.size() && size > 0; i++) {
+            size = intersect(result, size, views.get(i));
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    private PostingView find(String token, long from, long to) {
+        PostingList list = postings.get(token);
+        return list == null ? new PostingView(NO_SEQUENCES, 0, 0) : list.view(from, to);
+    }
+
+    /**
+     * Merge the postings of the tokens a fragment can be part of.
+     */
+    private PostingView union(Term term, long from, long to) {
+        List<PostingView> views = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+            if (term.matches(entry.getKey())) {
+                PostingView view = entry.getValue().view(from, to);
+                views.add(view);
+                total += view.size();
+            }
+        }
+        if (views.size() == 1) {
+            return views.get(0);
+        }
+        long[] values = new long[total];
+        int size = 0;
+        for (PostingView view : views) {
+            System.arraycopy(view.values, view.start, values, size, view.size());
+            size += view.size();
+        }
+        Arrays.sort(values);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || values[distinct - 1] != values[i]) {
+                values[distinct++] = values[i];
+            }
+        }
+        return new PostingView(values, 0, distinct);
+    }
+
+    /**
+     * Get the sequence of the oldest message covered by the index. Older messages, like the ones only kept in a
+     * {@link MessageLog}, are not indexed.
+     * @return The sequence.
+     */
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * Get the number of distinct tokens.
+     * @return The number of tokens.
+     */
+    public int getTokenCount() {
+        return postings.size();
+    }
+
+    /**
+     * Keep in place the sequences that are also in a posting view, using binary search over the longer list.
+     */
+    private static int intersect(long[] sequences, int size, PostingView view) {
+        int kept = 0;
+        int low = view.start;
+        for (int i = 0; i < size; i++) {
+            int position = Arrays.binarySearch(view.values, low, view.end, sequences[i]);
+            if (position >= 0) {
+                sequences[kept++] = sequences[i];
+                low = position + 1;
+            } else {
+                low = -position - 1;
+            }
+            if (low >= view.end) {
+                break;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Lowercase text searched in the index, either a whole token or a fragment of one. A fragment that follows a
+     * delimiter in the searched text starts a token, one that precedes a delimiter ends a token, and one that
+     * touches neither can be anywhere inside a token.
+     */
+    public static final class Term {
+        private final String text;
+        private final boolean tokenStart;
+        private final boolean tokenEnd;
+
+        /**
+         * Class constructor.
+         * @param text The lowercase text.
+         * @param tokenStart Whether the text starts the tokens that contain it.
+         * @param tokenEnd Whether the text ends the tokens that contain it.
+         */
+        public Term(String text, boolean tokenStart, boolean tokenEnd) {
+            this.text = text;
+            this.tokenStart = tokenStart;
+            this.tokenEnd = tokenEnd;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Check if the term is a whole token.
+         * @return Whether it both starts and ends the tokens that contain it.
+         */
+        public boolean isWhole() {
+            return tokenStart && tokenEnd;
+        }
+
+        /**
+         * Check if an indexed token can contain the term.
+         * @param token The token.
+         * @return Whether the term is part of the token at the required position.
+         */
+        boolean matches(String token) {
+            if (tokenStart && tokenEnd) {
+                return token.equals(text);
+            } else if (tokenStart) {
+                return token.startsWith(text);
+            } else if (tokenEnd) {
+                return token.endsWith(text);
+            }
+            return token.contains(text);
+        }
+
+        @Override
+        public String toString() {
+            return (tokenStart ? "" : "*") + text + (tokenEnd ? "" : "*");
+        }
+    }
+
+    /**
+     * Sorted range of a posting list.
+     */
+    private static final class PostingView {
+        private final long[] values;
+        private final int start;
+        private final int end;
+
+        private PostingView(long[] values, int start, int end) {
+            this.values = values;
+            this.start = start;
+            this.end = end;
+        }
+
+        private int size() {
+            return end - start;
+        }
+    }
+
+    /**
+     * Growable sorted list of sequences. Readers use the published {@link Postings}, whose start never changes
+     * and whose size only grows.
+     */
+    private static final class PostingList {
+        private volatile Postings current = new Postings(new long[4], 0, 0);
+
+        private void add(long sequence) {
+            Postings postings = current;
+            if (postings.size == postings.values.length) {
+                int live = postings.size - postings.start;
+                long[] values = Arrays.copyOfRange(postings.values, postings.start,
+                        postings.start + Math.max(4, live * 2));
+                postings = new Postings(values, 0, live);
+            }
+            postings.values[postings.size] = sequence;
+            postings.size = postings.size + 1;
+            current = postings;
+        }
+
+        /**
+         * Drop the sequences below a bound.
+         * @return Whether the list is empty.
+         */
+        private boolean evictBefore(long sequence) {
+            Postings postings = current;
+            int size = postings.size;
+            int position = Arrays.binarySearch(postings.values, postings.start, size, sequence);
+            int start = position >= 0 ? position : -position - 1;
+            if (start > postings.start) {
+                current = new Postings(postings.values, start, size);
+            }
+            return start == size;
+        }
+
+        private PostingView view(long from, long to) {
+            Postings postings = current;
+            int size = postings.size;
+            int start = Arrays.binarySearch(postings.values, postings.start, size, from);
+            start = start >= 0 ? start : -start - 1;
+            int end = Arrays.binarySearch(postings.values, start, size, to);
+            end = end >= 0 ? end : -end - 1;
+            return new PostingView(postings.values, start, end);
+        }
+    }
+
+    private static final class Postings {
+        private final long[] values;
+        private final int start;
+        private volatile int size;
+
+        private Postings(long[] values, int start, int size) {
+            this.values = values;
+            this.start = start;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable append-only log of the messages of a channel.
+ *
+ * <p>The log is a directory of files named after the sequence of their first message. Messages are appended as
+ * length-prefixed records (see {@link MappedSegment}) to the newest file until it reaches its maximum size, and
+ * are synced to disk in batches. Files are read through read-only memory mappings, so the logged history does not
+ * live in the heap. Old files are deleted as a whole when the log exceeds its size or retention period.</p>
+ *
+ * <p>Opening a log only scans the record lengths of its files to locate the records; a torn record at the end of
+ * the newest file, left by a crash, is truncated. Writers are serialized among themselves, readers never lock the
+ * log.</p>
+ */
+public class MessageLog implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageLog.class);
+
+    private static final String SUFFIX = ".log";
+    private static final int MAX_FIELD_BYTES = 0xFFFF;
+
+    private final File directory;
+    private final String channel;
+    private final long maxFileBytes;
+    private final long maxBytes;
+    private final long retention;
+    private final int syncMessages;
+
+    /**
+     * Files of the log, oldest first. The last one is open for appending. The array is replaced when a file is
+     * added or deleted.
+     */
+    private volatile LogFile[] files = new LogFile[0];
+
+    private ByteBuffer record = ByteBuffer.allocate(1024);
+    private long nextSequence = 0;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private long bytes = 0;
+    private int unsynced = 0;
+    private boolean closed = false;
+
+    /**
+     * Class constructor. Use {@link #open(File, String, long, long, long, int)}.
+     */
+    private MessageLog(File directory, String channel, long maxFileBytes, long maxBytes, long retention,
+            int syncMessages) {
+        this.directory = directory;
+        this.channel = channel;
+        this.maxFileBytes = Math.max(1, Math.min(Integer.MAX_VALUE, maxFileBytes));
+        this.maxBytes = Math.max(0, maxBytes);
+        this.retention = Math.max(0, retention);
+        this.syncMessages = Math.max(1, syncMessages);
+    }
+
+    /**
+     * Open the log of a channel, recovering the files already in its directory.
+     * @param directory The directory of the log. It is created if it does not exist.
+     * @param channel The name of the channel.
+     * @param maxFileBytes The maximum bytes of each file.
+     * @param maxBytes The maximum bytes of the log, or 0 for no limit.
+     * @param retention The millis a message is kept, or 0 to keep messages until the log is full.
+     * @param syncMessages The number of appended messages that triggers a sync.
+     * @return The log.
+     * @throws IOException If the directory cannot be created or a file cannot be read.
+     */
+    public static MessageLog open(File directory, String channel, long maxFileBytes, long maxBytes, long retention,
+            int syncMessages) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the log directory " + directory);
+        }
+        MessageLog log = new MessageLog(directory, channel, maxFileBytes, maxBytes, retention, syncMessages);
+        log.recover();
+        return log;
+    }
+
+    private void recover() throws IOException {
+        File[] found = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (found == null) {
+            throw new IOException("Cannot list the log directory " + directory);
+        }
+        Arrays.sort(found);
+        List<LogFile> recovered = new ArrayList<>();
+        for (int i = 0; i < found.length; i++) {
+            long baseSequence;
+            try {
+                baseSequence = Long.parseLong(found[i].getName().substring(0,
+                        found[i].getName().length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring unexpected file " + found[i]);
+                continue;
+            }
+            if (!recovered.isEmpty() && baseSequence != nextSequence) {
+                LOG.warn("Ignoring " + (found.length - i) + " log files of " + channel + " after a gap at sequence "
+                        + nextSequence);
+                break;
+            }
+            LogFile file = LogFile.recover(found[i], baseSequence, i == found.length - 1);
+            recovered.add(file);
+            nextSequence = baseSequence + file.count;
+            bytes += file.bytes;
+            if (file.count > 0) {
+                lastTimestamp = file.maxTimestamp;
+            }
+        }
+        if (!recovered.isEmpty()) {
+            LogFile newest = recovered.get(recovered.size() - 1);
+            if (newest.channel == null) {
+                newest.open();
+            }
+        }
+        files = recovered.toArray(new LogFile[recovered.size()]);
+        LOG.info("Recovered " + nextSequence + " messages of " + channel + " from " + directory);
+    }
+
+    /**
+     * Append a message. Messages must be appended with consecutive sequences and non-decreasing timestamps.
+     * @param sequence The sequence of the message in its channel.
+     * @param timestamp The epoch millis of the message.
+     * @param user The user that sent the message.
+     * @param host The host of the user.
+     * @param body The UTF-8 encoded message.
+     * @throws IOException If the message cannot be written.
+     */
+    public synchronized void append(long sequence, long timestamp, String user, String host, byte[] body)
+            throws IOException {
+        if (closed) {
+            throw new IOException("The log of " + channel + " is closed");
+        }
+        if (sequence != nextSequence) {
+            throw new IOException("Expected sequence " + nextSequence + " in the log of " + channel + " but got "
+                    + sequence);
+        }
+        byte[] userBytes = encode(user);
+        byte[] hostBytes = encode(host);
+        int length = MappedSegment.HEADER_BYTES + userBytes.length + hostBytes.length + body.length;
+        if (record.capacity() < MappedSegment.LENGTH_BYTES + length) {
+            record = ByteBuffer.allocate(MappedSegment.LENGTH_BYTES + length);
+        }
+        record.clear();
+        record.putInt(length).putLong(timestamp);
+        record.putShort((short) userBytes.length).put(userBytes);
+        record.putShort((short) hostBytes.length).put(hostBytes);
+        record.put(body);
+        record.flip();
+
+        LogFile[] current = files;
+        LogFile active = current.length == 0 ? null : current[current.length - 1];
+        if (active == null || (active.count > 0 && active.bytes + record.remaining() > maxFileBytes)) {
+            active = roll(timestamp);
+        }
+        int position = (int) active.bytes;
+        while (record.hasRemaining()) {
+            active.channel.write(record);
+        }
+        active.add(position, timestamp, position + MappedSegment.LENGTH_BYTES + length);
+        bytes += MappedSegment.LENGTH_BYTES + length;
+        nextSequence++;
+        lastTimestamp = timestamp;
+        if (++unsynced >= syncMessages) {
+            sync();
+        }
+    }
+
+    /**
+     * Seal the active file, start a new one and delete the files that exceed the size or retention of the log.
+     * @param timestamp The epoch millis of the message being appended.
+     * @return The new active file.
+     */
+    private LogFile roll(long timestamp) throws IOException {
+        LogFile[] current = files;
+        if (current.length > 0) {
+            current[current.length - 1].seal();
+            unsynced = 0;
+        }
+        LogFile active = new LogFile(new File(directory, String.format("%020d%s", nextSequence, SUFFIX)),
+                nextSequence);
+        active.create();
+        current = Arrays.copyOf(current, current.length + 1);
+        current[current.length - 1] = active;
+
+        long expiration = retention == 0 ? Long.MIN_VALUE : timestamp - retention;
+        int deleted = 0;
+        while (deleted < current.length - 1 && ((maxBytes > 0 && bytes > maxBytes)
+                || current[deleted].maxTimestamp < expiration)) {
+            bytes -= current[deleted].bytes;
+            deleted++;
+        }
+        files = Arrays.copyOfRange(current, deleted, current.length);
+        for (int i = 0; i < deleted; i++) {
+            if (!current[i].file.delete()) {
+                LOG.warn("Cannot delete the log file " + current[i].file);
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Force the appended messages to disk.
+     * @throws IOException If the messages cannot be synced.
+     */
+    public synchronized void sync() throws IOException {
+        LogFile[] current = files;
+        if (unsynced > 0 && current.length > 0 && current[current.length - 1].channel != null) {
+            current[current.length - 1].channel.force(false);
+        }
+        unsynced = 0;
+    }
+
+    /**
+     * Sync and close the log. Its messages remain readable.
+     * @throws IOException If the messages cannot be synced.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LogFile[] current = files;
+        if (current.length > 0) {
+            current[current.length - 1].seal();
+        }
+    }
+
+    /**
+     * Get the logged messages below a sequence as mapped segments, oldest first. Files whose messages are past
+     * the retention period are skipped.
+     * @param before The sequence after the last message to return.
+     * @return The segments.
+     */
+    public List<MessageSegment> getSegments(long before) {
+        LogFile[] current = files;
+        long expiration = retention == 0 ? Long.MIN_VALUE : System.currentTimeMillis() - retention;
+        List<MessageSegment> segments = new ArrayList<>(current.length);
+        for (LogFile file : current) {
+            int count = file.count;
+            if (file.baseSequence >= before) {
+                break;
+            }
+            if (count == 0 || (segments.isEmpty() && file.maxTimestamp < expiration)) {
+                continue;
+            }
+            try {
+                segments.add(file.view(channel, (int) Math.min(count, before - file.baseSequence)));
+            } catch (IOException e) {
+                LOG.warn("Cannot map the log file " + file.file, e);
+                segments.clear();
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Get the sequence of the next appended message.
+     * @return The sequence.
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Get the timestamp of the last logged message.
+     * @return The epoch millis or {@link Long#MIN_VALUE} if the log is empty.
+     */
+    public synchronized long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Get the bytes of the log files.
+     * @return The number of bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    private static byte[] encode(String value) {
+        byte[] encoded = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        return encoded.length > MAX_FIELD_BYTES ? Arrays.copyOf(encoded, MAX_FIELD_BYTES) : encoded;
+    }
+
+    /**
+     * File of the log. Only the writer of the log modifies it; it publishes the record positions and the written
+     * bytes before the record count, so readers only need to read {@link #count} first.
+     */
+    private static final class LogFile {
+        private final File file;
+        private final long baseSequence;
+        private volatile int[] positions = new int[64];
+        private volatile long bytes = 0;
+        private volatile long maxTimestamp = Long.MIN_VALUE;
+        private volatile int count = 0;
+
+        /**
+         * Channel used to append, null once the file is sealed.
+         */
+        private FileChannel channel;
+
+        /**
+         * Read-only mapping of the file, remapped when a reader needs records past its end. Guarded by the file.
+         */
+        private MappedByteBuffer mapped;
+
+        private LogFile(File file, long baseSequence) {
+            this.file = file;
+            this.baseSequence = baseSequence;
+        }
+
+        /**
+         * Locate the complete records of an existing file, truncating a torn record at its end.
+         * @param file The file.
+         * @param baseSequence The sequence of its first record.
+         * @param newest Whether it is the newest file of the log, the only one that may have a torn record.
+         * @return The file.
+         */
+        private static LogFile recover(File file, long baseSequence, boolean newest) throws IOException {
+            LogFile recovered = new LogFile(file, baseSequence);
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Log file too large: " + file);
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                int position = 0;
+                while (position + MappedSegment.LENGTH_BYTES <= size) {
+                    int length = buffer.getInt(position);
+                    int end = position + MappedSegment.LENGTH_BYTES + length;
+                    if (length < MappedSegment.HEADER_BYTES || end > size || end < 0) {
+                        break;
+                    }
+                    int fields = position + MappedSegment.LENGTH_BYTES + 8;
+                    int userLength = buffer.getShort(fields) & 0xFFFF;
+                    if (fields + 2 + userLength + 2 > end
+                            || fields + 2 + userLength + 2 + (buffer.getShort(fields + 2 + userLength) & 0xFFFF)
+                            > end) {
+                        break;
+                    }
+                    recovered.add(position, buffer.getLong(position + MappedSegment.LENGTH_BYTES), end);
+                    position = end;
+                }
+                if (position < size) {
+                    LOG.warn("Truncating " + (size - position) + " bytes of a torn record at the end of " + file);
+                    if (!newest) {
+                        throw new IOException("Corrupted log file " + file);
+                    }
+                    channel.truncate(position);
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, position);
+                }
+                recovered.mapped = buffer;
+                if (newest) {
+                    channel.position(position);
+                    recovered.channel = channel;
+                    channel = null;
+                }
+            } finally {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+            return recovered;
+        }
+
+        private void create() throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        private void open() throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(bytes);
+        }
+
+        private void add(int position, long timestamp, long end) {
+            int[] current = positions;
+            if (count == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[count] = position;
+            positions = current;
+            bytes = end;
+            maxTimestamp = timestamp;
+            count = count + 1;
+        }
+
+        /**
+         * Sync the file, map it as a whole and close its channel.
+         */
+        private synchronized void seal() throws IOException {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.force(false);
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+            } finally {
+                channel.close();
+                channel = null;
+            }
+        }
+
+        /**
+         * Get a segment over the first records of the file, remapping it if they were written after the mapping.
+         * @param channelName The name of the channel.
+         * @param rows The number of records, not higher than the published count.
+         * @return The segment.
+         */
+        private synchronized MessageSegment view(String channelName, int rows) throws IOException {
+            // Count is published last, so reading it first guarantees the positions and bytes cover its records.
+            int published = count;
+            int[] current = positions;
+            long end = rows < published ? current[rows] : bytes;
+            if (mapped == null || mapped.capacity() < end) {
+                if (channel == null) {
+                    throw new IOException("Log file closed: " + file);
+                }
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+            }
+            return new MappedSegment(channelName, baseSequence, mapped, current, rows);
+        }
+    }
+}
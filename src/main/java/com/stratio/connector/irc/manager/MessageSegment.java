@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+/**
+ * Block of consecutive messages of a channel. Timestamps never decrease inside a segment and the size of a segment
+ * only grows, so readers capture {@link #size()} once and only look at the rows below it.
+ */
+public abstract class MessageSegment {
+
+    private final String channel;
+    private final long baseSequence;
+
+    /**
+     * Class constructor.
+     * @param channel The channel of the messages.
+     * @param baseSequence The sequence of the first message of the segment in its channel.
+     */
+    protected MessageSegment(String channel, long baseSequence) {
+        this.channel = channel;
+        this.baseSequence = baseSequence;
+    }
+
+    public abstract int size();
+
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * Get the sequence of the first message of the segment. Messages of a channel are numbered consecutively.
+     * @return The sequence.
+     */
+    public long getBaseSequence() {
+        return baseSequence;
+    }
+
+    public abstract long getTimestamp(int row);
+
+    /**
+     * Get the timestamp of the oldest message.
+     * @return The epoch millis, or {@link Long#MAX_VALUE} if the segment is empty.
+     */
+    public long getMinTimestamp() {
+        return size() == 0 ? Long.MAX_VALUE : getTimestamp(0);
+    }
+
+    /**
+     * Get the timestamp of the newest message among the first rows of the segment.
+     * @param rows The number of rows visible to the caller.
+     * @return The epoch millis, or {@link Long#MIN_VALUE} if no row is visible.
+     */
+    public long getMaxTimestamp(int rows) {
+        return rows == 0 ? Long.MIN_VALUE : getTimestamp(rows - 1);
+    }
+
+    /**
+     * Find the first row whose timestamp is not lower than a given one.
+     * @param timestamp The epoch millis.
+     * @param rows The number of rows visible to the caller.
+     * @return The row, or {@code rows} if every message is older.
+     */
+    public int findRow(long timestamp, int rows) {
+        int low = 0;
+        int high = rows;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getTimestamp(middle) < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public abstract String getUser(int row);
+
+    public abstract String getHost(int row);
+
+    /**
+     * Decode the body of a message.
+     * @param row The row of the message in this segment.
+     * @return The message.
+     */
+    public abstract String getMessage(int row);
+
+    /**
+     * Check if the UTF-8 body of a message contains a byte sequence without decoding it.
+     * @param row The row of the message in this segment.
+     * @param needle The UTF-8 encoded text to look for.
+     * @return Whether the message contains the text.
+     */
+    public abstract boolean messageContains(int row, byte[] needle);
+
+    /**
+     * Check if the UTF-8 body of a message is equal to a byte sequence without decoding it.
+     * @param row The row of the message in this segment.
+     * @param value The UTF-8 encoded text to compare with.
+     * @return Whether the message is equal to the text.
+     */
+    public abstract boolean messageEquals(int row, byte[] value);
+
+    /**
+     * Get the estimated heap bytes of this segment.
+     * @return The number of bytes.
+     */
+    public abstract long estimateBytes();
+}
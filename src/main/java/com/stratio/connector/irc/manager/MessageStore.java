@@ -0,0 +1,502 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded columnar store holding the last messages of one channel.
+ *
+ * <p>Messages are appended to {@link MessageSegment}s partitioned by time: a new segment starts when the active
+ * one is full or when the message falls in a different time partition. Timestamps never decrease across the
+ * store, so segments are ordered by time and range filters can skip them. When the store exceeds its capacity,
+ * or a segment falls out of the retention period, the oldest segment is evicted as a whole, so a segment is never
+ * overwritten and a reader holding a {@link ChannelSnapshot} is never affected by later appends. Writers are
+ * serialized among themselves, readers never lock.</p>
+ *
+ * <p>A store may be backed by a {@link MessageLog}. Every message is logged before it is added to memory, and
+ * snapshots read the logged messages older than the ones in memory from the log, so the history of the channel
+ * is bounded by the log instead of the heap.</p>
+ */
+public class MessageStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageStore.class);
+
+    /**
+     * Maximum number of ingest gaps remembered per channel.
+     */
+    private static final int MAX_GAPS = 256;
+
+    private static final int MAX_SEGMENT_ROWS = 8192;
+
+    private final String channel;
+    private final StringInterner interner;
+    private final int segmentRows;
+    private final int maxMessages;
+    private final long maxBytes;
+    private final long segmentDuration;
+    private final long retention;
+    private final MessageLog log;
+    private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Segments of the channel in memory, oldest first. The array is replaced when a segment is added or evicted.
+     */
+    private volatile MemorySegment[] segments = new MemorySegment[0];
+
+    /**
+     * Intervals in which messages of the channel may have been lost, oldest first. The array is replaced when a
+     * gap is added.
+     */
+    private volatile Gap[] gaps = new Gap[0];
+
+    /**
+     * Full-text index of the messages or null if the channel is not indexed.
+     */
+    private volatile MessageIndex index = null;
+
+    /**
+     * Sequence of the next appended message, guarded by the store lock.
+     */
+    private long nextSequence = 0;
+
+    /**
+     * Timestamp of the last appended message, guarded by the store lock.
+     */
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    /**
+     * Whether new messages are appended to the log, guarded by the store lock.
+     */
+    private boolean logging;
+
+    /**
+     * Number of retained messages, guarded by the store lock.
+     */
+    private int messages = 0;
+
+    /**
+     * Estimated bytes of the retained segments, guarded by the store lock.
+     */
+    private long bytes = 0;
+
+    /**
+     * Class constructor.
+     * @param channel The name of the channel.
+     * @param maxMessages The maximum number of retained messages.
+     * @param maxBytes The maximum estimated heap bytes of the retained messages.
+     */
+    public MessageStore(String channel, int maxMessages, long maxBytes) {
+        this(channel, maxMessages, maxBytes, 0, 0);
+    }
+
+    /**
+     * Class constructor.
+     * @param channel The name of the channel.
+     * @param maxMessages The maximum number of retained messages.
+     * @param maxBytes The maximum estimated heap bytes of the retained messages.
+     * @param segmentDuration The millis covered by each time partition, or 0 to partition only by size.
+     * @param retention The millis a message is retained, or 0 to retain messages until the store is full.
+     */
+    public MessageStore(String channel, int maxMessages, long maxBytes, long segmentDuration, long retention) {
+        this(channel, maxMessages, maxBytes, segmentDuration, retention, null);
+    }
+
+    /**
+     * Class constructor. The sequences of the channel continue after the messages already in the log.
+     * @param channel The name of the channel.
+     * @param maxMessages The maximum number of messages retained in memory.
+     * @param maxBytes The maximum estimated heap bytes of the messages retained in memory.
+     * @param segmentDuration The millis covered by each time partition, or 0 to partition only by size.
+     * @param retention The millis a message is retained, or 0 to retain messages until the store is full.
+     * @param log The log of the channel, or null to keep the messages only in memory.
+     */
+    public MessageStore(String channel, int maxMessages, long maxBytes, long segmentDuration, long retention,
+            MessageLog log) {
+        this(channel, maxMessages, maxBytes, segmentDuration, retention, log, new StringInterner(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Class constructor. The sequences of the channel continue after the messages already in the log.
+     * @param channel The name of the channel.
+     * @param maxMessages The maximum number of messages retained in memory.
+     * @param maxBytes The maximum estimated heap bytes of the messages retained in memory.
+     * @param segmentDuration The millis covered by each time partition, or 0 to partition only by size.
+     * @param retention The millis a message is retained, or 0 to retain messages until the store is full.
+     * @param log The log of the channel, or null to keep the messages only in memory.
+     * @param interner The dictionary of user and host names, which may be shared with other channels.
+     */
+    public MessageStore(String channel, int maxMessages, long maxBytes, long segmentDuration, long retention,
+            MessageLog log, StringInterner interner) {
+        if (maxMessages <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Channel capacity must be positive");
+        }
+        this.channel = channel;
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.segmentDuration = Math.max(0, segmentDuration);
+        this.retention = Math.max(0, retention);
+        this.segmentRows = Math.max(1, Math.min(MAX_SEGMENT_ROWS, maxMessages / 16));
+        this.log = log;
+        this.logging = log != null;
+        this.interner = interner;
+        if (log != null) {
+            this.nextSequence = log.getNextSequence();
+            this.lastTimestamp = log.getLastTimestamp();
+        }
+    }
+
+    /**
+     * Append a message evicting the oldest segments when the store is full or they have expired.
+     * @param timestamp The epoch millis of the message. It is raised to the previous one if the clock went back.
+     * @param user The user that sent the message.
+     * @param host The host of the user.
+     * @param message The message.
+     */
+    public void append(long timestamp, String user, String host, String message) {
+        append(timestamp, user, host, message == null ? new byte[0] : message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Continue the numbering of the channel after the messages of a previous store of the channel, so results
+     * cached for the previous store are never taken for results of this one. Only an empty store, or one kept
+     * only in memory, is renumbered.
+     * @param sequence The next sequence of the previous store.
+     */
+    public synchronized void skipTo(long sequence) {
+        if ((messages == 0 || log == null) && sequence > nextSequence) {
+            nextSequence = sequence;
+        }
+    }
+
+    /**
+     * Record an interval in which messages of the channel may have been lost, so a quiet channel can be told from
+     * a disconnected one. Gaps are kept apart from the messages, so queries never see them as messages; only the
+     * last {@value #MAX_GAPS} are remembered.
+     * @param from The epoch millis the connection was lost.
+     * @param to The epoch millis the channel was joined again.
+     */
+    public synchronized void addGap(long from, long to) {
+        Gap[] current = gaps;
+        int kept = Math.min(current.length, MAX_GAPS - 1);
+        Gap[] added = Arrays.copyOfRange(current, current.length - kept, current.length + 1);
+        added[kept] = new Gap(from, to);
+        gaps = added;
+    }
+
+    /**
+     * Get the recorded ingest gaps of the channel.
+     * @return The gaps, oldest first.
+     */
+    public List<Gap> getGaps() {
+        return Collections.unmodifiableList(Arrays.asList(gaps));
+    }
+
+    /**
+     * Append a message already encoded, as clients read it from the network. The message is only decoded if the
+     * channel is indexed.
+     * @param timestamp The epoch millis of the message. It is raised to the previous one if the clock went back.
+     * @param user The user that sent the message.
+     * @param host The host of the user.
+     * @param body The UTF-8 encoded message.
+     */
+    public synchronized void append(long timestamp, String user, String host, byte[] body) {
+        timestamp = Math.max(timestamp, lastTimestamp);
+        lastTimestamp = timestamp;
+        if (logging) {
+            try {
+                log.append(nextSequence, timestamp, user, host, body);
+            } catch (IOException e) {
+                LOG.error("Cannot log a message of " + channel + ", new messages will be kept only in memory", e);
+                logging = false;
+            }
+        }
+        MemorySegment active = add(timestamp, user, host, body);
+        for (MessageListener listener : listeners) {
+            try {
+                listener.onMessage(active, active.size() - 1);
+            } catch (RuntimeException e) {
+                LOG.error("Message listener of " + channel + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Append a run of messages already encoded holding the store lock once, as the ingest thread drains them.
+     * @param timestamps The epoch millis of the messages.
+     * @param users The users that sent the messages.
+     * @param hosts The hosts of the users.
+     * @param bodies The UTF-8 encoded messages.
+     * @param from The first message to append.
+     * @param to The message after the last one to append.
+     */
+    public synchronized void append(long[] timestamps, String[] users, String[] hosts, byte[][] bodies, int from,
+            int to) {
+        for (int i = from; i < to; i++) {
+            append(timestamps[i], users[i], hosts[i], bodies[i]);
+        }
+    }
+
+    /**
+     * Restore a message of a previous run, as read from a {@link SnapshotFile}. The message keeps its sequence and
+     * is kept only in memory. Stores backed by a log recover their messages from it, so they restore nothing.
+     * @param sequence The sequence of the message in its channel. Messages must be restored oldest first.
+     * @param timestamp The epoch millis of the message.
+     * @param user The user that sent the message.
+     * @param host The host of the user.
+     * @param body The UTF-8 encoded message.
+     * @return Whether the message was restored, that is, it is newer than the messages of the store.
+     */
+    public synchronized boolean restore(long sequence, long timestamp, String user, String host, byte[] body) {
+        if (log != null || sequence < nextSequence) {
+            return false;
+        }
+        nextSequence = sequence;
+        timestamp = Math.max(timestamp, lastTimestamp);
+        lastTimestamp = timestamp;
+        add(timestamp, user, host, body);
+        return true;
+    }
+
+    /**
+     * Add a message to memory with the next sequence, evicting the oldest segments when the store is full or they
+     * have expired.
+     * @return The segment of the message.
+     */
+    private MemorySegment add(long timestamp, String user, String host, byte[] body) {
+        MemorySegment[] current = segments;
+        MemorySegment active = current.length == 0 ? null : current[current.length - 1];
+        StringDictionary dictionary = interner.acquire();
+        if (active == null || active.isFull() || active.getDictionary() != dictionary
+                || active.getBaseSequence() + active.size() != nextSequence
+                || !samePartition(active.getMinTimestamp(), timestamp)) {
+            active = new MemorySegment(channel, nextSequence, dictionary, segmentRows);
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = active;
+            bytes += active.estimateBytes();
+        }
+        // The message is indexed before it is visible, so a snapshot never holds a message its index lacks.
+        MessageIndex currentIndex = index;
+        if (currentIndex != null) {
+            currentIndex.add(nextSequence, new String(body, StandardCharsets.UTF_8));
+        }
+        long before = active.estimateBytes();
+        active.append(timestamp, dictionary.encode(user), dictionary.encode(host), body);
+        bytes += active.estimateBytes() - before;
+        messages++;
+        nextSequence++;
+
+        int evicted = 0;
+        long expiration = getExpiration(timestamp);
+        while (evicted < current.length - 1 && (messages > maxMessages || bytes > maxBytes
+                || current[evicted].getMaxTimestamp(current[evicted].size()) < expiration)) {
+            messages -= current[evicted].size();
+            bytes -= current[evicted].estimateBytes();
+            evicted++;
+        }
+        if (evicted > 0) {
+            current = Arrays.copyOfRange(current, evicted, current.length);
+            if (currentIndex != null) {
+                currentIndex.evictBefore(current[0].getBaseSequence());
+            }
+        }
+        if (current != segments) {
+            segments = current;
+        }
+        return active;
+    }
+
+    /**
+     * Register a listener for the messages appended from now on. Listeners are called while the store is locked,
+     * so they see every message exactly once and in order.
+     * @param listener The listener.
+     */
+    public void addListener(MessageListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MessageListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Get a consistent view of the retained messages, including the logged ones older than the messages in memory.
+     * @return The snapshot.
+     */
+    public ChannelSnapshot snapshot() {
+        MessageIndex currentIndex = index;
+        MemorySegment[] current = segments;
+        long expiration = getExpiration(System.currentTimeMillis());
+        int expired = 0;
+        while (expired < current.length
+                && current[expired].getMaxTimestamp(current[expired].size()) < expiration) {
+            expired++;
+        }
+        MessageSegment[] retained = Arrays.copyOfRange(current, expired, current.length, MessageSegment[].class);
+        if (log == null) {
+            return new ChannelSnapshot(retained, currentIndex);
+        }
+        long before = retained.length == 0 ? Long.MAX_VALUE : retained[0].getBaseSequence();
+        List<MessageSegment> logged = log.getSegments(before);
+        MessageSegment[] all = logged.toArray(new MessageSegment[logged.size() + retained.length]);
+        System.arraycopy(retained, 0, all, logged.size(), retained.length);
+        return new ChannelSnapshot(all, currentIndex);
+    }
+
+    /**
+     * Force the logged messages to disk.
+     * @throws IOException If the messages cannot be synced.
+     */
+    public void sync() throws IOException {
+        if (log != null) {
+            log.sync();
+        }
+    }
+
+    /**
+     * Close the log of the channel, if any. Messages appended from now on are kept only in memory.
+     * @throws IOException If the logged messages cannot be synced.
+     */
+    public synchronized void close() throws IOException {
+        if (logging) {
+            logging = false;
+            log.close();
+        }
+    }
+
+    private boolean samePartition(long first, long second) {
+        return segmentDuration == 0 || first / segmentDuration == second / segmentDuration;
+    }
+
+    /**
+     * Get the timestamp below which segments have expired.
+     * @param now The current epoch millis.
+     * @return The epoch millis, or {@link Long#MIN_VALUE} if there is no retention period.
+     */
+    private long getExpiration(long now) {
+        return retention == 0 ? Long.MIN_VALUE : now - retention;
+    }
+
+    /**
+     * Build a full-text index of the retained messages that is kept up to date with the new ones.
+     */
+    public synchronized void createIndex() {
+        if (index != null) {
+            return;
+        }
+        MessageSegment[] current = segments;
+        MessageIndex created = new MessageIndex(current.length == 0 ? nextSequence : current[0].getBaseSequence());
+        for (MessageSegment segment : current) {
+            for (int row = 0; row < segment.size(); row++) {
+                created.add(segment.getBaseSequence() + row, segment.getMessage(row));
+            }
+        }
+        index = created;
+    }
+
+    /**
+     * Drop the full-text index releasing its memory.
+     */
+    public synchronized void dropIndex() {
+        index = null;
+    }
+
+    public boolean isIndexed() {
+        return index != null;
+    }
+
+    /**
+     * Get whether the store is backed by a log, from which its messages are recovered on restart.
+     * @return Whether the store has a log.
+     */
+    public boolean isLogged() {
+        return log != null;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public synchronized int size() {
+        return messages;
+    }
+
+    /**
+     * Get the number of messages received by the channel, including the evicted ones.
+     * @return The sequence of the next message.
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Get the estimated heap bytes of the retained messages.
+     * @return The number of bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Interval in which messages of a channel may have been lost while its connection was down.
+     */
+    public static final class Gap {
+        private final long from;
+        private final long to;
+
+        private Gap(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Get the start of the gap.
+         * @return The epoch millis the connection was lost.
+         */
+        public long getFrom() {
+            return from;
+        }
+
+        /**
+         * Get the end of the gap.
+         * @return The epoch millis the channel was joined again.
+         */
+        public long getTo() {
+            return to;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Outbound pipeline of an {@link IRCManager}.
+ *
+ * <p>Messages are enqueued in bulk and return immediately. A sender thread drains the queue at the rate allowed by
+ * the server using a token bucket: a burst of messages may be sent at once, then one message per interval. Before
+ * each send, the queued messages that follow with the same text and other channels are coalesced into a single
+ * PRIVMSG with several targets, so bulk inserts of the same text to several channels cost one token.</p>
+ *
+ * <p>Stopping the queue sends the queued messages first, up to a deadline. Messages still queued at the deadline
+ * are discarded and counted, so accepted messages are never lost silently.</p>
+ */
+public class OutboundQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OutboundQueue.class);
+
+    /**
+     * Sends a line to the server and records the sent message in the stores of its channels.
+     */
+    interface Sender {
+        boolean isConnected();
+
+        void send(List<String> channels, String message);
+    }
+
+    private final Sender sender;
+    private final String name;
+    private final int capacity;
+    private final long interval;
+    private final int burst;
+    private final int maxTargets;
+    private final ArrayDeque<Outbound> queue = new ArrayDeque<>();
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong sentLines = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private Thread thread;
+
+    /**
+     * Whether the queue is being stopped, so it accepts no more messages. Guarded by the queue lock.
+     */
+    private boolean stopping = false;
+
+    /**
+     * Number of messages taken from the queue and not sent yet. Guarded by the queue lock.
+     */
+    private int sending = 0;
+
+    /**
+     * Tokens available to send, only used by the sender thread.
+     */
+    private double tokens;
+    private long refilled;
+
+    /**
+     * Class constructor.
+     * @param sender The connection to send through.
+     * @param name The name of the sender thread.
+     * @param capacity The maximum number of queued messages.
+     * @param interval The millis needed to earn a token.
+     * @param burst The maximum number of tokens.
+     * @param maxTargets The maximum number of channels of a coalesced message.
+     */
+    OutboundQueue(Sender sender, String name, int capacity, long interval, int burst, int maxTargets) {
+        this.sender = sender;
+        this.name = name;
+        this.capacity = Math.max(1, capacity);
+        this.interval = Math.max(0, interval);
+        this.burst = Math.max(1, burst);
+        this.maxTargets = Math.max(1, maxTargets);
+        this.tokens = this.burst;
+    }
+
+    /**
+     * Start the sender thread.
+     */
+    synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        refilled = System.nanoTime();
+        stopping = false;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the sender thread once the queued messages are sent, rejecting new ones. Messages still queued at the
+     * deadline are discarded and counted in {@link #getDiscarded()}.
+     * @param deadline The {@link System#nanoTime()} after which queued messages are no longer sent.
+     */
+    void stop(long deadline) {
+        Thread stopped;
+        synchronized (this) {
+            stopping = true;
+            try {
+                while (thread != null && (!queue.isEmpty() || sending > 0)) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stopped = thread;
+            thread = null;
+            if (!queue.isEmpty()) {
+                LOG.warn("Discarding " + queue.size() + " messages not sent by " + name + " before disconnecting");
+                discarded.addAndGet(queue.size());
+                queue.clear();
+            }
+            notifyAll();
+        }
+        if (stopped != null) {
+            stopped.interrupt();
+        }
+    }
+
+    /**
+     * Enqueue the messages of a channel. Either every message is enqueued or none is.
+     * @param channel The channel name with the leading #.
+     * @param messages The messages.
+     * @return Whether the messages were enqueued, false if the queue has no room for all of them or is stopping.
+     */
+    public synchronized boolean offer(String channel, Collection<String> messages) {
+        if (stopping || queue.size() + messages.size() > capacity) {
+            return false;
+        }
+        long now = System.nanoTime();
+        for (String message : messages) {
+            queue.add(new Outbound(channel, sanitize(message), now));
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Get the number of messages waiting to be sent.
+     * @return The queue depth.
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Get the number of accepted messages discarded because they could not be sent before the queue stopped.
+     * @return The number of messages.
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    /**
+     * Get the number of lines sent, lower than the sent messages when messages are coalesced.
+     * @return The number of lines.
+     */
+    public long getSentLines() {
+        return sentLines.get();
+    }
+
+    /**
+     * Get the mean time between enqueuing and sending a message.
+     * @return The millis.
+     */
+    public double getMeanSendLatency() {
+        long sent = sentMessages.get();
+        return sent == 0 ? 0 : totalLatency.get() / 1e6 / sent;
+    }
+
+    /**
+     * Get the maximum time between enqueuing and sending a message.
+     * @return The millis.
+     */
+    public double getMaxSendLatency() {
+        return maxLatency.get() / 1e6;
+    }
+
+    private void drain() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                awaitMessage();
+                awaitToken();
+                List<Outbound> batch = poll();
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                List<String> channels = new ArrayList<>(batch.size());
+                for (Outbound outbound : batch) {
+                    channels.add(outbound.channel);
+                }
+                try {
+                    sender.send(channels, batch.get(0).message);
+                } catch (RuntimeException e) {
+                    LOG.error("Cannot send a message to " + channels, e);
+                } finally {
+                    // Counted before the batch is released, so a stopped queue reports every sent message.
+                    recordSent(batch);
+                    synchronized (this) {
+                        sending = 0;
+                        notifyAll();
+                    }
+                }
+                tokens--;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void recordSent(List<Outbound> batch) {
+        long now = System.nanoTime();
+        for (Outbound outbound : batch) {
+            long latency = now - outbound.enqueued;
+            totalLatency.addAndGet(latency);
+            long max = maxLatency.get();
+            while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+                max = maxLatency.get();
+            }
+        }
+        sentMessages.addAndGet(batch.size());
+        sentLines.incrementAndGet();
+    }
+
+    /**
+     * Wait until there is a message to send and the connection is up.
+     */
+    private void awaitMessage() throws InterruptedException {
+        synchronized (this) {
+            while (queue.isEmpty()) {
+                wait();
+            }
+        }
+        while (!sender.isConnected()) {
+            TimeUnit.MILLISECONDS.sleep(Math.max(100, interval));
+        }
+    }
+
+    /**
+     * Wait until a token is available, refilling the bucket with the tokens earned since the last refill.
+     */
+    private void awaitToken() throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            if (interval == 0) {
+                tokens = burst;
+            } else {
+                tokens = Math.min(burst, tokens + (now - refilled) / (interval * 1e6));
+            }
+            refilled = now;
+            if (tokens >= 1) {
+                return;
+            }
+            TimeUnit.NANOSECONDS.sleep((long) ((1 - tokens) * interval * 1e6) + 1);
+        }
+    }
+
+    /**
+     * Take the next message along with the following ones that have the same text and other channels.
+     * @return The messages to send in one line.
+     */
+    private synchronized List<Outbound> poll() {
+        List<Outbound> batch = new ArrayList<>();
+        Outbound first = queue.poll();
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+        sending = 1;
+        Iterator<Outbound> iterator = queue.iterator();
+        while (batch.size() < maxTargets && iterator.hasNext()) {
+            Outbound next = iterator.next();
+            if (!next.message.equals(first.message) || containsChannel(batch, next.channel)) {
+                break;
+            }
+            batch.add(next);
+            iterator.remove();
+        }
+        sending = batch.size();
+        return batch;
+    }
+
+    private static boolean containsChannel(List<Outbound> batch, String channel) {
+        for (Outbound outbound : batch) {
+            if (outbound.channel.equals(channel)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replace the line breaks of a message, which would end the IRC command.
+     * @param message The message.
+     * @return The message in one line.
+     */
+    private static String sanitize(String message) {
+        return message.replace('\r', ' ').replace('\n', ' ');
+    }
+
+    private static final class Outbound {
+        private final String channel;
+        private final String message;
+        private final long enqueued;
+
+        private Outbound(String channel, String message, long enqueued) {
+            this.channel = channel;
+            this.message = message;
+            this.enqueued = enqueued;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary snapshot of the messages retained by a set of channel stores, written when a manager disconnects
+ * and read back when it connects again, or used as an offline export of the channels.
+ *
+ * <p>A snapshot is a header with a magic number and a format version followed by the channels. Each channel holds
+ * its next sequence and one block per segment of the channel. Channels backed by a log hold only their next
+ * sequence, since their messages are recovered from the log and restoring them would be refused. A block is dictionary-encoded by columns: the
+ * distinct user and host names of the block, the timestamps as deltas, the user and host ids, the body lengths and
+ * the UTF-8 bodies, so similar values are stored together before the block is deflated. Blocks carry a checksum
+ * and are decoded one at a time, so reading a snapshot never holds more than a block in memory besides the stores
+ * it fills.</p>
+ *
+ * <p>Snapshots are written to a temporary file that replaces the previous snapshot once complete, so a crash while
+ * writing never leaves a torn snapshot behind.</p>
+ */
+public final class SnapshotFile {
+
+    private static final int MAGIC = 0x49524353;
+    private static final int VERSION = 1;
+
+    private static final byte END = 0;
+    private static final byte CHANNEL = 1;
+    private static final byte BLOCK = 2;
+
+    /**
+     * Receiver of the messages read from a snapshot, channel by channel and oldest first.
+     */
+    public interface Visitor {
+
+        /**
+         * Called before the messages of a channel.
+         * @param channel The channel name with the leading #.
+         */
+        void startChannel(String channel);
+
+        /**
+         * Called for every message of the current channel.
+         * @param sequence The sequence of the message in its channel.
+         * @param timestamp The epoch millis of the message.
+         * @param user The user that sent the message.
+         * @param host The host of the user.
+         * @param body The UTF-8 encoded message. The array is not reused.
+         */
+        void message(long sequence, long timestamp, String user, String host, byte[] body);
+
+        /**
+         * Called after the messages of a channel.
+         * @param channel The channel name with the leading #.
+         * @param nextSequence The number of messages the channel had received, including the evicted ones.
+         */
+        void endChannel(String channel, long nextSequence);
+    }
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Write the retained messages of some stores, replacing a previous snapshot. Stores backed by a log are written
+     * without their messages.
+     * @param file The snapshot file. Its directory is created if it does not exist.
+     * @param stores The stores.
+     * @return The number of messages written.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public static long write(File file, Collection<MessageStore> stores) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the snapshot directory " + directory);
+        }
+        File temporary = new File(directory, file.getName() + ".tmp");
+        long messages = 0;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temporary), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            BlockWriter block = new BlockWriter(deflater);
+            for (MessageStore store : stores) {
+                out.writeByte(CHANNEL);
+                out.writeUTF(store.getChannel());
+                if (store.isLogged()) {
+                    out.writeLong(store.getNextSequence());
+                    continue;
+                }
+                ChannelSnapshot snapshot = store.snapshot();
+                out.writeLong(Math.max(store.getNextSequence(), snapshot.getEndSequence()));
+                for (int i = 0; i < snapshot.getSegmentCount(); i++) {
+                    int rows = snapshot.getSegmentSize(i);
+                    if (rows > 0) {
+                        block.write(out, snapshot.getSegment(i), rows);
+                        messages += rows;
+                    }
+                }
+            }
+            out.writeByte(END);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary.toPath());
+            throw e;
+        } finally {
+            deflater.end();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return messages;
+    }
+
+    /**
+     * Read a snapshot decoding one block at a time.
+     * @param file The snapshot file.
+     * @param visitor The receiver of the messages.
+     * @return The epoch millis the snapshot was written.
+     * @throws IOException If the snapshot cannot be read, is corrupt or has an unsupported version.
+     */
+    public static long read(File file, Visitor visitor) throws IOException {
+        Inflater inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a channel snapshot");
+            }
+            int version = in.readInt();
+            if (version > VERSION) {
+                throw new IOException("Unsupported version " + version + " of the snapshot " + file);
+            }
+            long created = in.readLong();
+            String channel = null;
+            long nextSequence = 0;
+            byte[] compressed = new byte[0];
+            byte[] raw = new byte[0];
+            while (true) {
+                byte type = in.readByte();
+                if (type == BLOCK && channel != null) {
+                    long baseSequence = in.readLong();
+                    int rows = in.readInt();
+                    int rawLength = in.readInt();
+                    int compressedLength = in.readInt();
+                    long checksum = in.readInt() & 0xFFFFFFFFL;
+                    if (compressed.length < compressedLength) {
+                        compressed = new byte[compressedLength];
+                    }
+                    if (raw.length < rawLength) {
+                        raw = new byte[rawLength];
+                    }
+                    in.readFully(compressed, 0, compressedLength);
+                    CRC32 crc = new CRC32();
+                    if (inflate(inflater, compressed, compressedLength, raw, rawLength)) {
+                        crc.update(raw, 0, rawLength);
+                    }
+                    if (crc.getValue() != checksum) {
+                        throw new IOException("Corrupt block at sequence " + baseSequence + " of " + channel
+                                + " in the snapshot " + file);
+                    }
+                    readBlock(ByteBuffer.wrap(raw, 0, rawLength), baseSequence, rows, visitor);
+                    continue;
+                }
+                if (channel != null) {
+                    visitor.endChannel(channel, nextSequence);
+                    channel = null;
+                }
+                if (type == END) {
+                    return created;
+                }
+                if (type != CHANNEL) {
+                    throw new IOException("Unexpected record " + type + " in the snapshot " + file);
+                }
+                channel = in.readUTF();
+                nextSequence = in.readLong();
+                visitor.startChannel(channel);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated snapshot " + file, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Inflate a block.
+     * @return Whether the block was inflated to its expected length.
+     */
+    private static boolean inflate(Inflater inflater, byte[] compressed, int compressedLength, byte[] raw,
+            int rawLength) {
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        int length = 0;
+        try {
+            while (length < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            return false;
+        }
+        return length == rawLength;
+    }
+
+    private static void readBlock(ByteBuffer buffer, long baseSequence, int rows, Visitor visitor) {
+        String[] names = new String[readVarInt(buffer)];
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = new byte[readVarInt(buffer)];
+            buffer.get(name);
+            names[i] = new String(name, StandardCharsets.UTF_8);
+        }
+        long[] timestamps = new long[rows];
+        long timestamp = buffer.getLong();
+        for (int row = 0; row < rows; row++) {
+            if (row > 0) {
+                timestamp += readVarLong(buffer);
+            }
+            timestamps[row] = timestamp;
+        }
+        int[] users = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            users[row] = readVarInt(buffer);
+        }
+        int[] hosts = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            hosts[row] = readVarInt(buffer);
+        }
+        int[] lengths = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            lengths[row] = readVarInt(buffer);
+        }
+        for (int row = 0; row < rows; row++) {
+            byte[] body = new byte[lengths[row]];
+            buffer.get(body);
+            visitor.message(baseSequence + row, timestamps[row], names[users[row]], names[hosts[row]], body);
+        }
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        return (int) readVarLong(buffer);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Encoder of the blocks of a snapshot, reusing its buffers across blocks.
+     */
+    private static final class BlockWriter {
+
+        private final Deflater deflater;
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final Buffer raw = new Buffer();
+        private final Buffer bodies = new Buffer();
+        private byte[] compressed = new byte[64 * 1024];
+
+        private BlockWriter(Deflater deflater) {
+            this.deflater = deflater;
+        }
+
+        private void write(DataOutputStream out, MessageSegment segment, int rows) throws IOException {
+            ids.clear();
+            names.clear();
+            raw.reset();
+            bodies.reset();
+            int[] users = new int[rows];
+            int[] hosts = new int[rows];
+            for (int row = 0; row < rows; row++) {
+                users[row] = encode(segment.getUser(row));
+                hosts[row] = encode(segment.getHost(row));
+            }
+            writeVarLong(raw, names.size());
+            for (String name : names) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                writeVarLong(raw, bytes.length);
+                raw.write(bytes, 0, bytes.length);
+            }
+            long previous = segment.getTimestamp(0);
+            for (int i = 56; i >= 0; i -= 8) {
+                raw.write((int) (previous >>> i));
+            }
+            for (int row = 1; row < rows; row++) {
+                long timestamp = segment.getTimestamp(row);
+                writeVarLong(raw, Math.max(0, timestamp - previous));
+                previous = Math.max(previous, timestamp);
+            }
+            for (int row = 0; row < rows; row++) {
+                writeVarLong(raw, users[row]);
+            }
+            for (int row = 0; row < rows; row++) {
+                writeVarLong(raw, hosts[row]);
+            }
+            for (int row = 0; row < rows; row++) {
+                byte[] body = segment.getMessage(row).getBytes(StandardCharsets.UTF_8);
+                writeVarLong(raw, body.length);
+                bodies.write(body, 0, body.length);
+            }
+            raw.write(bodies.array(), 0, bodies.size());
+
+            CRC32 crc = new CRC32();
+            crc.update(raw.array(), 0, raw.size());
+            deflater.reset();
+            deflater.setInput(raw.array(), 0, raw.size());
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            out.writeByte(BLOCK);
+            out.writeLong(segment.getBaseSequence());
+            out.writeInt(rows);
+            out.writeInt(raw.size());
+            out.writeInt(length);
+            out.writeInt((int) crc.getValue());
+            out.write(compressed, 0, length);
+        }
+
+        private int encode(String name) {
+            String key = name == null ? "" : name;
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = names.size();
+                ids.put(key, id);
+                names.add(key);
+            }
+            return id;
+        }
+
+        private static void writeVarLong(Buffer buffer, long value) {
+            while ((value & ~0x7FL) != 0) {
+                buffer.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.write((int) value);
+        }
+    }
+
+    /**
+     * Byte array output stream exposing its array, so blocks are not copied before they are compressed.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        private Buffer() {
+            super(64 * 1024);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * Export a snapshot as tab separated lines of channel, sequence, timestamp, user, host and message.
+     * @param args The snapshot file and optionally the channels to export.
+     * @throws IOException If the snapshot cannot be read.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: SnapshotFile <snapshot> [channel...]");
+            System.exit(1);
+        }
+        final PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 64 * 1024), false, "UTF-8");
+        read(new File(args[0]), new Visitor() {
+            private String channel;
+
+            @Override
+            public void startChannel(String name) {
+                channel = name;
+                if (args.length > 1) {
+                    channel = null;
+                    for (int i = 1; i < args.length; i++) {
+                        if (args[i].equalsIgnoreCase(name)) {
+                            channel = name;
+                        }
+                    }
+                }
+            }
+
+            @Override
+            public void message(long sequence, long timestamp, String user, String host, byte[] body) {
+                if (channel != null) {
+                    out.append(channel).append('\t').append(Long.toString(sequence)).append('\t')
+                            .append(Message.formatTimestamp(timestamp)).append('\t').append(user).append('\t')
+                            .append(host).append('\t').append(escape(new String(body, StandardCharsets.UTF_8)))
+                            .append('\n');
+                }
+            }
+
+            @Override
+            public void endChannel(String name, long nextSequence) {
+                channel = null;
+            }
+        });
+        out.flush();
+    }
+
+    private static String escape(String message) {
+        return message.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+}
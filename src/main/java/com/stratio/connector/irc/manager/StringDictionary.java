@@ -0,0 +1,100 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Dictionary that encodes repeated strings as compact integer ids.
+ *
+ * <p>Encoding is serialized, decoding, lookups and the size are lock-free so queries can resolve ids while
+ * messages are being ingested, and ingest can check the size on every message.</p>
+ */
+public class StringDictionary {
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[16];
+
+    /**
+     * Number of values, only written while encoding is locked.
+     */
+    private volatile int size = 0;
+
+    /**
+     * Get the id of a value, adding it to the dictionary if it is not present.
+     * @param value The value.
+     * @return The id.
+     */
+    public int encode(String value) {
+        String key = value == null ? "" : value;
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(key);
+            if (id == null) {
+                String[] current = values;
+                if (size == current.length) {
+                    current = Arrays.copyOf(current, current.length * 2);
+                }
+                id = size;
+                current[id] = key;
+                values = current;
+                ids.put(key, id);
+                size = id + 1;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Get the value of an id.
+     * @param id The id.
+     * @return The value.
+     */
+    public String decode(int id) {
+        return values[id];
+    }
+
+    /**
+     * Get the id of a value without adding it.
+     * @param value The value.
+     * @return The id or -1 if the value is not present.
+     */
+    public int lookup(String value) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            return -1;
+        }
+        return id;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+/**
+ * Bounded dictionary of the user and host names of the channels of a manager.
+ *
+ * <p>Names are encoded in the current generation of the dictionary. When it reaches its maximum size a new, empty
+ * generation replaces it: names still in use are encoded again on their next message and cold names are left
+ * behind. Segments keep a reference to the generation their ids belong to, so an old generation is released when
+ * the last segment that uses it is evicted.</p>
+ */
+public class StringInterner {
+
+    private final int maxEntries;
+    private volatile StringDictionary current = new StringDictionary();
+    private long generations = 1;
+
+    /**
+     * Class constructor.
+     * @param maxEntries The maximum number of names of a generation.
+     */
+    public StringInterner(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The dictionary size must be positive");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Get the generation new messages are encoded with, starting a new one if the current one is full.
+     * @return The dictionary.
+     */
+    public StringDictionary acquire() {
+        StringDictionary dictionary = current;
+        if (dictionary.size() < maxEntries) {
+            return dictionary;
+        }
+        synchronized (this) {
+            if (current.size() >= maxEntries) {
+                current = new StringDictionary();
+                generations++;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Get the number of names of the current generation.
+     * @return The number of names.
+     */
+    public int size() {
+        return current.size();
+    }
+
+    /**
+     * Get the number of generations started, including the current one.
+     * @return The number of generations.
+     */
+    public synchronized long getGenerations() {
+        return generations;
+    }
+}
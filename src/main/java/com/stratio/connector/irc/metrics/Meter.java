@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count and rate of events. Marking an event only adds to a counter: the rate is an exponentially weighted moving
+ * average over one minute, brought up to date when it is read assuming the events since the previous read arrived
+ * at a constant rate.
+ */
+public class Meter {
+
+    private static final double WINDOW_NANOS = 60e9;
+
+    private final AtomicLong count = new AtomicLong();
+    private long lastCount = 0;
+    private long lastRead = System.nanoTime();
+    private double rate = 0;
+
+    public void mark() {
+        count.incrementAndGet();
+    }
+
+    public void mark(long events) {
+        count.addAndGet(events);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get the rate of the last minute.
+     * @return The events per second.
+     */
+    public synchronized double getRate() {
+        long now = System.nanoTime();
+        long elapsed = now - lastRead;
+        if (elapsed > 0) {
+            long current = count.get();
+            double instant = (current - lastCount) * 1e9 / elapsed;
+            rate += (1 - Math.exp(-elapsed / WINDOW_NANOS)) * (instant - rate);
+            lastCount = current;
+            lastRead = now;
+        }
+        return rate;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Named metrics of a cluster. Metrics are created on first use and shared by every component that asks for the
+ * same name, so the hot paths keep a reference instead of looking them up.
+ */
+public class MetricRegistry {
+
+    private final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+    public Counter counter(String name) {
+        return getOrAdd(name, new Counter(), Counter.class);
+    }
+
+    public Meter meter(String name) {
+        return getOrAdd(name, new Meter(), Meter.class);
+    }
+
+    public Histogram histogram(String name) {
+        return getOrAdd(name, new Histogram(), Histogram.class);
+    }
+
+    /**
+     * Register a gauge, replacing the metric with the same name.
+     * @param name The name of the metric.
+     * @param gauge The gauge.
+     */
+    public void register(String name, Gauge<?> gauge) {
+        metrics.put(name, gauge);
+    }
+
+    /**
+     * Remove the metrics whose name starts with a prefix.
+     * @param prefix The prefix.
+     */
+    public void removeAll(String prefix) {
+        for (String name : metrics.keySet()) {
+            if (name.startsWith(prefix)) {
+                metrics.remove(name);
+            }
+        }
+    }
+
+    private <T> T getOrAdd(String name, T metric, Class<T> type) {
+        Object current = metrics.get(name);
+        if (current == null) {
+            current = metrics.putIfAbsent(name, metric);
+            if (current == null) {
+                return metric;
+            }
+        }
+        if (!type.isInstance(current)) {
+            throw new IllegalArgumentException("Metric " + name + " is not a " + type.getSimpleName());
+        }
+        return type.cast(current);
+    }
+
+    /**
+     * Read every metric. Meters and histograms are expanded into one value per statistic, with the name of the
+     * statistic appended to the name of the metric.
+     * @return The values by name, sorted by name.
+     */
+    public SortedMap<String, Number> getValues() {
+        SortedMap<String, Number> values = new TreeMap<>();
+        for (Map.Entry<String, Object> metric : metrics.entrySet()) {
+            String name = metric.getKey();
+            Object value = metric.getValue();
+            if (value instanceof Counter) {
+                values.put(name, ((Counter) value).getCount());
+            } else if (value instanceof Meter) {
+                values.put(name + ".count", ((Meter) value).getCount());
+                values.put(name + ".rate", ((Meter) value).getRate());
+            } else if (value instanceof Histogram) {
+                Histogram histogram = (Histogram) value;
+                values.put(name + ".count", histogram.getCount());
+                values.put(name + ".mean", histogram.getMean());
+                values.put(name + ".p50", histogram.getPercentile(0.5));
+                values.put(name + ".p99", histogram.getPercentile(0.99));
+                values.put(name + ".max", histogram.getMax());
+            } else if (value instanceof Gauge) {
+                values.put(name, ((Gauge<?>) value).getValue());
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class NioIRCClientTest {
+
+    private static final long TIMEOUT = 5000;
+
+    private ExecutorService executor;
+    private ScriptedIRCServer server;
+    private RecordingListener listener;
+    private NioIRCClient client;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+        server = new ScriptedIRCServer();
+        listener = new RecordingListener();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.disconnect();
+            client = null;
+        }
+        server.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void registersWithAnotherNickWhenItIsInUse() throws Exception {
+        client = new NioIRCClient("bot", server.getAddress(), listener, 1, false);
+        Future<Void> connecting = connectLater();
+        server.expect("NICK bot");
+        server.expect("USER bot");
+        server.send(":fake.irc 433 * bot :Nickname is already in use\r\n");
+        server.expect("NICK bot_");
+        server.send(":fake.irc 001 bot_ :Welcome\r\n");
+        connecting.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertTrue(client.isConnected());
+        assertEquals(client.getNick(), "bot_");
+    }
+
+    @Test
+    public void answersPing() throws Exception {
+        connect(false);
+        server.send("PING :fake.irc\r\n");
+        assertEquals(server.expect("PONG"), "PONG :fake.irc");
+    }
+
+    @Test
+    public void parsesChannelMessages() throws Exception {
+        connect(false);
+        server.send(":alice!~alice@host.example PRIVMSG #chan :hello world\r\n");
+        Received message = listener.next();
+        assertEquals(message.channel, "#chan");
+        assertEquals(message.sender, "alice");
+        assertEquals(message.hostname, "host.example");
+        assertEquals(message.body, "hello world");
+        assertTrue(message.timestamp < 0);
+    }
+
+    @Test
+    public void parsesLinesSplitAcrossReads() throws Exception {
+        connect(false);
+        server.send(":alice!a@h PRIVMSG #chan :hel");
+        Thread.sleep(100);
+        server.send("lo wor");
+        Thread.sleep(100);
+        server.send("ld\r");
+        Thread.sleep(100);
+        server.send("\n:bob!b@h PRIVMSG #chan :second\r\n");
+        assertEquals(listener.next().body, "hello world");
+        assertEquals(listener.next().body, "second");
+    }
+
+    @Test
+    public void discardsLinesLongerThanTheBuffer() throws Exception {
+        connect(false);
+        char[] filler = new char[40 * 1024];
+        Arrays.fill(filler, 'x');
+        server.send(":alice!a@h PRIVMSG #chan :" + new String(filler) + "\r\n:bob!b@h PRIVMSG #chan :after\r\n");
+        Received message = listener.next();
+        assertEquals(message.sender, "bob");
+        assertEquals(message.body, "after");
+        assertTrue(client.isConnected());
+    }
+
+    @Test
+    public void compactsTheBufferBetweenReads() throws Exception {
+        connect(false);
+        StringBuilder burst = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            burst.append(":user").append(i % 7).append("!u@h PRIVMSG #chan :message ").append(i);
+            for (int j = 0; j < i % 50; j++) {
+                burst.append('.');
+            }
+            burst.append("\r\n");
+        }
+        server.send(burst.toString());
+        for (int i = 0; i < 5000; i++) {
+            Received message = listener.next();
+            assertEquals(message.sender, "user" + (i % 7));
+            assertTrue(message.body.startsWith("message " + i), message.body);
+            assertEquals(message.body.length(), ("message " + i).length() + i % 50);
+        }
+    }
+
+    @Test
+    public void readsTheServerTimeTag() throws Exception {
+        connect(true);
+        server.send("@time=2014-11-05T10:15:30.250Z :alice!a@h PRIVMSG #chan :tagged\r\n");
+        server.send("@msgid=42;time=2014-11-05T10:15:31Z :alice!a@h PRIVMSG #chan :second\r\n");
+        server.send("@time=yesterday :alice!a@h PRIVMSG #chan :malformed\r\n");
+        assertEquals(listener.next().timestamp, utc(2014, 11, 5, 10, 15, 30, 250));
+        assertEquals(listener.next().timestamp, utc(2014, 11, 5, 10, 15, 31, 0));
+        Received malformed = listener.next();
+        assertEquals(malformed.body, "malformed");
+        assertTrue(malformed.timestamp < 0);
+    }
+
+    @Test
+    public void ignoresPrivateMessagesAndCtcp() throws Exception {
+        connect(false);
+        server.send(":alice!a@h PRIVMSG bot :private\r\n");
+        server.send(":alice!a@h PRIVMSG #chan :\u0001ACTION waves\u0001\r\n");
+        server.send(":alice!a@h PRIVMSG #chan :public\r\n");
+        assertEquals(listener.next().body, "public");
+    }
+
+    @Test
+    public void deliversListedChannels() throws Exception {
+        connect(false);
+        client.listChannels();
+        server.expect("LIST");
+        server.send(":fake.irc 322 bot #rust 12 :Topic\r\n:fake.irc 323 bot :End of /LIST\r\n");
+        assertEquals(listener.channels.poll(TIMEOUT, TimeUnit.MILLISECONDS), "#rust");
+    }
+
+    @Test
+    public void notifiesLostConnections() throws Exception {
+        connect(false);
+        server.drop();
+        assertTrue(listener.disconnected.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertFalse(client.isConnected());
+    }
+
+    @Test
+    public void ignoresKeysCancelledBeforeTheyAreHandled() throws Exception {
+        client = new NioIRCClient("bot", server.getAddress(), listener, 1, false);
+        try (Selector selector = Selector.open(); SocketChannel socket = SocketChannel.open()) {
+            socket.configureBlocking(false);
+            SelectionKey key = socket.register(selector, SelectionKey.OP_CONNECT, client);
+            key.cancel();
+            client.handle(key);
+        }
+        assertEquals(listener.disconnected.getCount(), 1);
+    }
+
+    @Test
+    public void shuttingTheEventLoopsDownClosesTheConnections() throws Exception {
+        connect(false);
+        NioIRCClient.shutdownEventLoops();
+        assertTrue(listener.disconnected.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertFalse(client.isConnected());
+        server.close();
+        server = new ScriptedIRCServer();
+        connect(false);
+        server.send(":alice!a@h PRIVMSG #chan :after restart\r\n");
+        assertEquals(listener.next().body, "after restart");
+    }
+
+    private void connect(boolean serverTime) throws Exception {
+        client = new NioIRCClient("bot", server.getAddress(), listener, 1, serverTime);
+        Future<Void> connecting = connectLater();
+        if (serverTime) {
+            server.expect("CAP REQ :server-time");
+        }
+        server.expect("USER bot");
+        server.send(":fake.irc 001 bot :Welcome\r\n");
+        connecting.get(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private Future<Void> connectLater() {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                client.connect();
+                return null;
+            }
+        });
+    }
+
+    private static long utc(int year, int month, int day, int hours, int minutes, int seconds, int millis) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(year, month - 1, day, hours, minutes, seconds);
+        calendar.set(Calendar.MILLISECOND, millis);
+        return calendar.getTimeInMillis();
+    }
+
+    private static final class Received {
+        private final String channel;
+        private final String sender;
+        private final String hostname;
+        private final long timestamp;
+        private final String body;
+
+        private Received(String channel, String sender, String hostname, long timestamp, String body) {
+            this.channel = channel;
+            this.sender = sender;
+            this.hostname = hostname;
+            this.timestamp = timestamp;
+            this.body = body;
+        }
+    }
+
+    private static final class RecordingListener implements IRCClientListener {
+        private final BlockingQueue<Received> messages = new LinkedBlockingQueue<>();
+        private final BlockingQueue<String> channels = new LinkedBlockingQueue<>();
+        private final CountDownLatch disconnected = new CountDownLatch(1);
+
+        @Override
+        public void onMessage(String channel, String sender, String hostname, long timestamp, byte[] message) {
+            messages.add(new Received(channel, sender, hostname, timestamp,
+                    new String(message, StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public void onChannelInfo(String channel) {
+            channels.add(channel);
+        }
+
+        @Override
+        public void onDisconnect() {
+            disconnected.countDown();
+        }
+
+        private Received next() throws InterruptedException {
+            Received message = messages.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+            assertNotNull(message, "No message received");
+            return message;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IRC server driven by a test: it accepts a single client, records the lines the client sends and writes whatever
+ * bytes the test gives it, so the test controls how lines are split across reads.
+ */
+final class ScriptedIRCServer implements AutoCloseable {
+
+    private static final long TIMEOUT = 5000;
+
+    private final ServerSocket server;
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private final CountDownLatch accepted = new CountDownLatch(1);
+    private volatile Socket client;
+
+    ScriptedIRCServer() throws IOException {
+        this.server = new ServerSocket(0);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "scripted-irc");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String getAddress() {
+        return "localhost:" + server.getLocalPort();
+    }
+
+    private void serve() {
+        try {
+            client = server.accept();
+            accepted.countDown();
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(),
+                    StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                received.add(line);
+            }
+        } catch (IOException e) {
+            // Closed by the test.
+        }
+    }
+
+    /**
+     * Wait for a line of the client starting with a prefix, skipping the lines before it.
+     * @param prefix The prefix.
+     * @return The line.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    String expect(String prefix) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (true) {
+            String line = received.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            if (line == null) {
+                throw new AssertionError("The client did not send " + prefix);
+            }
+            if (line.startsWith(prefix)) {
+                return line;
+            }
+        }
+    }
+
+    /**
+     * Write raw bytes to the client at once.
+     * @param text The text, including the line terminators.
+     * @throws IOException If the client cannot be written.
+     * @throws InterruptedException If interrupted while waiting for the client to connect.
+     */
+    void send(String text) throws IOException, InterruptedException {
+        if (!accepted.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+            throw new AssertionError("The client did not connect");
+        }
+        OutputStream out = client.getOutputStream();
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * Close the connection of the client, as a server that goes away.
+     */
+    void drop() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        drop();
+        server.close();
+    }
+}
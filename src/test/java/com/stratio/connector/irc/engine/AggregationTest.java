@@ -0,0 +1,150 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import static com.stratio.connector.irc.engine.QueryFixture.TABLE;
+import static com.stratio.connector.irc.engine.QueryFixture.filter;
+import static com.stratio.connector.irc.engine.QueryFixture.list;
+import static com.stratio.connector.irc.engine.QueryFixture.match;
+import static com.stratio.connector.irc.engine.QueryFixture.plan;
+import static com.stratio.connector.irc.engine.QueryFixture.select;
+import static com.stratio.connector.irc.engine.QueryFixture.store;
+import static com.stratio.connector.irc.engine.QueryFixture.values;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.stratio.connector.irc.manager.ChannelSnapshot;
+import com.stratio.connector.irc.manager.Message;
+import com.stratio.crossdata.common.data.ColumnName;
+import com.stratio.crossdata.common.data.Row;
+import com.stratio.crossdata.common.exceptions.UnsupportedException;
+import com.stratio.crossdata.common.logicalplan.GroupBy;
+import com.stratio.crossdata.common.metadata.ColumnType;
+import com.stratio.crossdata.common.metadata.Operations;
+import com.stratio.crossdata.common.statements.structures.ColumnSelector;
+import com.stratio.crossdata.common.statements.structures.Operator;
+import com.stratio.crossdata.common.statements.structures.Selector;
+
+public class AggregationTest {
+
+    private ChannelSnapshot snapshot;
+
+    @BeforeMethod
+    public void setUp() {
+        snapshot = store(900, false).snapshot();
+    }
+
+    @Test
+    public void countsEveryMatchingMessage() throws UnsupportedException {
+        assertEquals(values(compute(plan(select("count(*)")), -1), "count(*)"), list(900L));
+        assertEquals(values(compute(plan(match("deploy"), select("count(*)")), -1), "count(*)"), list(200L));
+    }
+
+    @Test
+    public void countsZeroWhenNothingMatches() throws UnsupportedException {
+        List<Row> rows = compute(plan(match("missing"), select("count(*)")), -1);
+        assertEquals(values(rows, "count(*)"), list(0L));
+    }
+
+    @Test
+    public void returnsNoGroupsWhenNothingMatches() throws UnsupportedException {
+        assertEquals(compute(plan(match("missing"), select("user", "count(*)"), groupBy("user")), -1).size(), 0);
+    }
+
+    @Test
+    public void countsByUserInOrderOfFirstMessage() throws UnsupportedException {
+        List<Row> rows = compute(plan(select("user", "count(*)"), groupBy("user")), -1);
+        assertEquals(values(rows, "user"), list("user0", "user1", "user2", "user3", "user4", "user5", "user6"));
+        assertEquals(values(rows, "count(*)"), list(129L, 129L, 129L, 129L, 128L, 128L, 128L));
+    }
+
+    @Test
+    public void countsByUserAndHost() throws UnsupportedException {
+        List<Row> rows = compute(plan(filter("user", Operator.EQ, "user0"), select("user", "host", "count(*)"),
+                groupBy("user", "host")), -1);
+        assertEquals(values(rows, "host"), list("host0", "host1", "host2"));
+        assertEquals(values(rows, "count(*)"), list(43L, 43L, 43L));
+        assertEquals(compute(plan(select("user", "host", "count(*)"), groupBy("user", "host")), -1).size(), 21);
+    }
+
+    @Test
+    public void countsByTimeBucket() throws UnsupportedException {
+        List<Row> rows = compute(plan(select("timestamp", "count(*)"), groupBy("timestamp")), -1);
+        assertEquals(rows.size(), 15);
+        assertEquals(rows.get(1).getCell("timestamp").getValue(), Message.formatTimestamp(60000));
+        assertEquals(rows.get(1).getCell("count(*)").getValue(), 60L);
+        Map<ColumnName, ColumnType> types = new LinkedHashMap<>();
+        types.put(new ColumnName(TABLE, "timestamp"), ColumnType.BIGINT);
+        types.put(new ColumnName(TABLE, "count(*)"), ColumnType.BIGINT);
+        rows = compute(plan(select(types), groupBy("timestamp")), -1);
+        assertEquals(values(rows, "timestamp").subList(0, 3), list(0L, 60000L, 120000L));
+    }
+
+    @Test
+    public void limitsTheGroups() throws UnsupportedException {
+        List<Row> rows = compute(plan(select("user", "count(*)"), groupBy("user")), 2);
+        assertEquals(values(rows, "user"), list("user0", "user1"));
+    }
+
+    @Test
+    public void doesNotAggregatePlainProjections() throws UnsupportedException {
+        assertNull(plan(select("user", "message")).getAggregation());
+    }
+
+    @Test(expectedExceptions = UnsupportedException.class)
+    public void rejectsOtherFunctions() throws UnsupportedException {
+        plan(select("max(timestamp)"));
+    }
+
+    @Test(expectedExceptions = UnsupportedException.class)
+    public void rejectsGroupsByMessage() throws UnsupportedException {
+        plan(select("message", "count(*)"), groupBy("message"));
+    }
+
+    @Test(expectedExceptions = UnsupportedException.class)
+    public void rejectsColumnsThatAreNotGrouped() throws UnsupportedException {
+        plan(select("user", "host", "count(*)"), groupBy("user"));
+    }
+
+    private List<Row> compute(QueryPlan plan, int limit) {
+        return plan.getAggregation().compute(plan.scan(snapshot, false), limit, 60000);
+    }
+
+    private static GroupBy groupBy(String... columns) {
+        List<Selector> ids = new ArrayList<>();
+        for (String column : columns) {
+            ids.add(new ColumnSelector(new ColumnName(TABLE, column)));
+        }
+        return new GroupBy(Operations.SELECT_GROUP_BY, ids);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import static com.stratio.connector.irc.engine.QueryFixture.list;
+import static com.stratio.connector.irc.engine.QueryFixture.match;
+import static com.stratio.connector.irc.engine.QueryFixture.plan;
+import static com.stratio.connector.irc.engine.QueryFixture.select;
+import static com.stratio.connector.irc.engine.QueryFixture.store;
+import static com.stratio.connector.irc.engine.QueryFixture.values;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.stratio.connector.irc.manager.ChannelSnapshot;
+import com.stratio.connector.irc.manager.IRCManager;
+import com.stratio.connector.irc.manager.IRCOptions;
+import com.stratio.connector.irc.manager.Message;
+import com.stratio.connector.irc.metrics.MetricRegistry;
+import com.stratio.crossdata.common.data.ClusterName;
+import com.stratio.crossdata.common.exceptions.ConnectorException;
+import com.stratio.crossdata.common.logicalplan.Limit;
+import com.stratio.crossdata.common.metadata.Operations;
+
+public class IRCQueryEngineTest {
+
+    private IRCQueryEngine engine;
+    private ChannelSnapshot snapshot;
+
+    @BeforeMethod
+    public void setUp() {
+        engine = new IRCQueryEngine(Collections.<ClusterName, IRCManager>emptyMap());
+        snapshot = store(900, false).snapshot();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void stopsNewestFirstScansAtTheLimit() throws ConnectorException {
+        QueryPlan plan = plan(match("deploy"), select("timestamp", "message"), new Limit(Operations.SELECT_LIMIT, 3));
+        QueryStats stats = new QueryStats();
+        ScannedRows rows = engine.scan(plan, snapshot, true, Long.MIN_VALUE, options(1), stats);
+        assertEquals(values(rows.getRows(), "message"), list("deployment done", "deploy failed", "deployment done"));
+        assertEquals(values(rows.getRows(), "timestamp"), list(Message.formatTimestamp(889000),
+                Message.formatTimestamp(891000), Message.formatTimestamp(898000)));
+        MetricRegistry metrics = new MetricRegistry();
+        stats.record(metrics, 0);
+        assertEquals(metrics.counter("query.rows.returned").getCount(), 3);
+        assertTrue(metrics.counter("query.rows.scanned").getCount() <= 20, "Scanned the whole channel");
+    }
+
+    @Test
+    public void stopsOldestFirstScansAtTheLimit() throws ConnectorException {
+        QueryPlan plan = plan(match("deploy"), select("message"), new Limit(Operations.SELECT_LIMIT, 2));
+        ScannedRows rows = engine.scan(plan, snapshot, false, Long.MIN_VALUE, options(1), null);
+        assertEquals(values(rows.getRows(), "message"), list("deploy failed", "deployment done"));
+        assertEquals(rows.getRows().size(), 2);
+    }
+
+    @Test
+    public void mergesTheStatisticsOfParallelScans() throws ConnectorException {
+        QueryPlan plan = plan(match("deploy"), select("message"));
+        QueryStats stats = new QueryStats();
+        ScannedRows parallel = engine.scan(plan, snapshot, false, Long.MIN_VALUE, options(4), stats);
+        ScannedRows serial = engine.scan(plan, snapshot, false, Long.MIN_VALUE, options(1), null);
+        assertEquals(parallel.getRows().size(), 200);
+        assertEquals(values(parallel.getRows(), "message"), values(serial.getRows(), "message"));
+        MetricRegistry metrics = new MetricRegistry();
+        stats.record(metrics, 0);
+        assertEquals(metrics.counter("query.rows.scanned").getCount(), 900);
+        assertEquals(metrics.counter("query.rows.returned").getCount(), 200);
+    }
+
+    private static IRCOptions options(int parallelism) {
+        Map<String, String> options = new HashMap<>();
+        options.put(IRCOptions.QUERY_PARALLELISM, String.valueOf(parallelism));
+        options.put(IRCOptions.QUERY_PARALLEL_THRESHOLD, "100");
+        return new IRCOptions(options);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.stratio.connector.irc.manager.ChannelSnapshot;
+import com.stratio.connector.irc.manager.Message;
+import com.stratio.connector.irc.manager.MessageSegment;
+import com.stratio.connector.irc.manager.MessageStore;
+import com.stratio.crossdata.common.data.ColumnName;
+import com.stratio.crossdata.common.data.TableName;
+import com.stratio.crossdata.common.exceptions.UnsupportedException;
+import com.stratio.crossdata.common.logicalplan.Filter;
+import com.stratio.crossdata.common.metadata.Operations;
+import com.stratio.crossdata.common.statements.structures.ColumnSelector;
+import com.stratio.crossdata.common.statements.structures.IntegerSelector;
+import com.stratio.crossdata.common.statements.structures.Operator;
+import com.stratio.crossdata.common.statements.structures.Relation;
+import com.stratio.crossdata.common.statements.structures.Selector;
+import com.stratio.crossdata.common.statements.structures.StringSelector;
+
+public class MessagePredicatesTest {
+
+    private static final TableName TABLE = new TableName("irc", "chan");
+
+    private static final long START = 1400000000000L;
+
+    private ChannelSnapshot snapshot;
+
+    @BeforeMethod
+    public void setUp() {
+        snapshot = snapshot(START);
+    }
+
+    @Test
+    public void comparesMessages() throws UnsupportedException {
+        assertEquals(matching(filter("message", Operator.EQ, "all green")), Arrays.asList("all green"));
+        assertEquals(matching(filter("message", Operator.DISTINCT, "all green")),
+                Arrays.asList("deploy failed", "Deploy done", "error 42 in build"));
+    }
+
+    @Test
+    public void matchesSubstringsCaseSensitively() throws UnsupportedException {
+        assertEquals(matching(filter("message", Operator.MATCH, "eploy")),
+                Arrays.asList("deploy failed", "Deploy done"));
+        assertEquals(matching(filter("message", Operator.MATCH, "deploy")), Arrays.asList("deploy failed"));
+    }
+
+    @Test
+    public void matchesRegularExpressions() throws UnsupportedException {
+        assertTrue(MessagePredicates.isRegex("[0-9]+"));
+        assertFalse(MessagePredicates.isRegex("error 42"));
+        assertEquals(matching(filter("message", Operator.MATCH, "[0-9]+")), Arrays.asList("error 42 in build"));
+        assertEquals(matching(filter("message", Operator.MATCH, "(?i)^deploy")),
+                Arrays.asList("deploy failed", "Deploy done"));
+    }
+
+    @Test(expectedExceptions = UnsupportedException.class)
+    public void rejectsInvalidRegularExpressions() throws UnsupportedException {
+        MessagePredicates.compile(filter("message", Operator.MATCH, "(unclosed"));
+    }
+
+    @Test
+    public void comparesUsersHostsAndChannels() throws UnsupportedException {
+        assertEquals(matching(filter("user", Operator.EQ, "alice")),
+                Arrays.asList("deploy failed", "error 42 in build"));
+        assertEquals(matching(filter("user", Operator.DISTINCT, "alice")), Arrays.asList("Deploy done", "all green"));
+        assertEquals(matching(filter("user", Operator.GT, "alice")), Arrays.asList("Deploy done", "all green"));
+        assertEquals(matching(filter("host", Operator.MATCH, "^c\\.")), Arrays.asList("all green"));
+        assertEquals(matching(filter("channel", Operator.EQ, "#chan")).size(), 4);
+        assertEquals(matching(filter("channel", Operator.EQ, "#other")).size(), 0);
+    }
+
+    @Test
+    public void comparesFormattedTimestampsBySecond() throws UnsupportedException {
+        String third = Message.formatTimestamp(START + 2000);
+        assertEquals(MessagePredicates.parseTimestamp(third), Long.valueOf(START + 2000));
+        assertNull(MessagePredicates.parseTimestamp("yesterday"));
+        assertEquals(matching(filter("timestamp", Operator.EQ, third)), Arrays.asList("error 42 in build"));
+        assertEquals(matching(filter("timestamp", Operator.GET, third)),
+                Arrays.asList("error 42 in build", "all green"));
+        assertEquals(matching(filter("timestamp", Operator.LT, third)),
+                Arrays.asList("deploy failed", "Deploy done"));
+    }
+
+    @Test
+    public void comparesEpochMillis() throws UnsupportedException {
+        snapshot = snapshot(0);
+        assertEquals(matching(filter("timestamp", Operator.GT, new IntegerSelector(2000))),
+                Arrays.asList("all green"));
+        assertEquals(matching(filter("timestamp", Operator.LET, new IntegerSelector(1000))),
+                Arrays.asList("deploy failed", "Deploy done"));
+    }
+
+    @Test
+    public void combinesFiltersWithAnd() throws UnsupportedException {
+        MessagePredicate predicate = MessagePredicates.compile(Arrays.asList(
+                filter("user", Operator.EQ, "alice"), filter("message", Operator.MATCH, "build")));
+        assertEquals(matching(predicate), Arrays.asList("error 42 in build"));
+        assertSame(MessagePredicates.compile(new ArrayList<Filter>()), MessagePredicates.TRUE);
+        assertSame(MessagePredicates.compile(Arrays.asList(filter("user", Operator.EQ, "alice"),
+                filter("nick", Operator.EQ, "alice"))), MessagePredicates.FALSE);
+    }
+
+    private static ChannelSnapshot snapshot(long start) {
+        MessageStore store = new MessageStore("#chan", 1000, Long.MAX_VALUE);
+        store.append(start, "alice", "a.example.org", "deploy failed");
+        store.append(start + 1000, "bob", "b.example.org", "Deploy done");
+        store.append(start + 2000, "alice", "a.example.org", "error 42 in build");
+        store.append(start + 3500, "carol", "c.example.org", "all green");
+        return store.snapshot();
+    }
+
+    private List<String> matching(Filter filter) throws UnsupportedException {
+        return matching(MessagePredicates.compile(filter));
+    }
+
+    private List<String> matching(MessagePredicate predicate) {
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < snapshot.getSegmentCount(); i++) {
+            MessageSegment segment = snapshot.getSegment(i);
+            for (int row = 0; row < snapshot.getSegmentSize(i); row++) {
+                if (predicate.accept(segment, row)) {
+                    messages.add(segment.getMessage(row));
+                }
+            }
+        }
+        return messages;
+    }
+
+    private static Filter filter(String column, Operator operator, String value) {
+        return filter(column, operator, new StringSelector(value));
+    }
+
+    private static Filter filter(String column, Operator operator, Selector value) {
+        return new Filter(Operations.FILTER_NON_INDEXED_EQ, new Relation(
+                new ColumnSelector(new ColumnName(TABLE, column)), operator, value));
+    }
+}
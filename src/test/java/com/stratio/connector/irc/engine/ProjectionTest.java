@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import static com.stratio.connector.irc.engine.QueryFixture.TABLE;
+import static com.stratio.connector.irc.engine.QueryFixture.select;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.stratio.connector.irc.manager.ChannelSnapshot;
+import com.stratio.connector.irc.manager.Message;
+import com.stratio.connector.irc.manager.MessageSegment;
+import com.stratio.connector.irc.manager.MessageStore;
+import com.stratio.crossdata.common.data.ColumnName;
+import com.stratio.crossdata.common.data.Row;
+import com.stratio.crossdata.common.logicalplan.Select;
+import com.stratio.crossdata.common.metadata.ColumnMetadata;
+import com.stratio.crossdata.common.metadata.ColumnType;
+import com.stratio.crossdata.common.metadata.Operations;
+
+public class ProjectionTest {
+
+    private MessageSegment segment;
+
+    @BeforeMethod
+    public void setUp() {
+        MessageStore store = new MessageStore("#chan", 1000, Long.MAX_VALUE);
+        store.append(1000, "alice", "a.example.org", "first");
+        store.append(1500, "bob", "b.example.org", "second");
+        store.append(2000, "alice", "a.example.org", "third");
+        ChannelSnapshot snapshot = store.snapshot();
+        segment = snapshot.getSegment(0);
+    }
+
+    @Test
+    public void projectsEveryColumn() {
+        Row row = Projection.compile(select("message", "timestamp", "user", "host", "channel", "nick"))
+                .newProjector().project(segment, 1);
+        assertEquals(row.getCell("message").getValue(), "second");
+        assertEquals(row.getCell("timestamp").getValue(), Message.formatTimestamp(1500));
+        assertEquals(row.getCell("user").getValue(), "bob");
+        assertEquals(row.getCell("host").getValue(), "b.example.org");
+        assertEquals(row.getCell("channel").getValue(), "#chan");
+        assertEquals(row.getCell("nick").getValue(), "");
+    }
+
+    @Test
+    public void projectsBigintTimestampsAsEpochMillis() {
+        Map<ColumnName, ColumnType> types = new LinkedHashMap<>();
+        types.put(new ColumnName(TABLE, "timestamp"), ColumnType.BIGINT);
+        Row row = Projection.compile(select(types)).newProjector().project(segment, 2);
+        assertEquals(row.getCell("timestamp").getValue(), 2000L);
+    }
+
+    @Test
+    public void namesColumnsByTheirAliases() {
+        ColumnName message = new ColumnName(TABLE, "message");
+        Map<ColumnName, String> columnMap = new LinkedHashMap<>();
+        columnMap.put(message, "text");
+        Map<String, ColumnType> typeMap = new LinkedHashMap<>();
+        typeMap.put("message", ColumnType.VARCHAR);
+        Map<ColumnName, ColumnType> types = new LinkedHashMap<>();
+        types.put(message, ColumnType.VARCHAR);
+        Projection projection = Projection.compile(
+                new Select(Operations.SELECT_OPERATOR, columnMap, typeMap, types));
+        assertEquals(projection.newProjector().project(segment, 0).getCell("text").getValue(), "first");
+        List<ColumnMetadata> metadata = projection.getColumnMetadata();
+        assertEquals(metadata.size(), 1);
+        assertEquals(metadata.get(0).getName().getName(), "message");
+        assertEquals(metadata.get(0).getName().getAlias(), "text");
+        assertEquals(metadata.get(0).getColumnType(), ColumnType.VARCHAR);
+        assertNull(message.getAlias());
+    }
+
+    @Test
+    public void sharesTheCellsOfRepeatedValues() {
+        Projection.Projector projector = Projection.compile(select("timestamp", "user", "channel")).newProjector();
+        Row first = projector.project(segment, 0);
+        Row second = projector.project(segment, 1);
+        Row third = projector.project(segment, 2);
+        assertSame(first.getCell("channel"), third.getCell("channel"));
+        assertSame(first.getCell("user"), third.getCell("user"));
+        assertNotSame(first.getCell("user"), second.getCell("user"));
+        assertSame(first.getCell("timestamp"), second.getCell("timestamp"));
+        assertNotSame(second.getCell("timestamp"), third.getCell("timestamp"));
+    }
+}
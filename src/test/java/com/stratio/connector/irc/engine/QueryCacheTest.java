@@ -0,0 +1,125 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.stratio.crossdata.common.data.Cell;
+import com.stratio.crossdata.common.data.Row;
+import com.stratio.crossdata.common.metadata.ColumnMetadata;
+
+public class QueryCacheTest {
+
+    @Test
+    public void extendsOnlyWhenTheChannelGrewAtItsEnd() {
+        QueryCache.CachedResult cached = result(10, 20, 12, 15, 19);
+        assertTrue(cached.isExtensibleTo(10, 20));
+        assertTrue(cached.isExtensibleTo(14, 30));
+        assertFalse(cached.isExtensibleTo(9, 30), "Older messages were restored");
+        assertFalse(cached.isExtensibleTo(10, 19), "The channel shrank");
+    }
+
+    @Test
+    public void extendsByDroppingEvictedRowsAndAddingAppendedOnes() {
+        QueryCache.CachedResult cached = result(10, 20, 12, 15, 19);
+        ScannedRows appended = rows(21, 25);
+        QueryCache.CachedResult extended = cached.extend(14, 26, appended);
+        assertEquals(extended.getFirstSequence(), 14);
+        assertEquals(extended.getEndSequence(), 26);
+        assertEquals(messages(extended), list(15, 19, 21, 25));
+        assertEquals(messages(cached), list(12, 15, 19));
+
+        QueryCache.CachedResult twice = extended.extend(20, 30, rows(29));
+        assertEquals(messages(twice), list(21, 25, 29));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedResults() {
+        QueryCache cache = new QueryCache(2, 100);
+        cache.put("a", result(0, 1, 0));
+        cache.put("b", result(0, 1, 0));
+        assertNotNull(cache.get("a"));
+        cache.put("c", result(0, 1, 0));
+        assertEquals(cache.size(), 2);
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void boundsTheCachedRows() {
+        QueryCache cache = new QueryCache(10, 5);
+        cache.put("a", result(0, 3, 0, 1, 2));
+        cache.put("b", result(0, 3, 0, 1));
+        cache.put("c", result(0, 3, 0, 1));
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        cache.put("huge", result(0, 6, 0, 1, 2, 3, 4, 5));
+        assertNull(cache.get("huge"), "A result larger than the cache was cached");
+        assertEquals(cache.size(), 2);
+        cache.put("b", result(0, 4, 0, 1, 2, 3));
+        assertNull(cache.get("c"));
+        assertEquals(messages(cache.get("b")), list(0, 1, 2, 3));
+    }
+
+    private static QueryCache.CachedResult result(long first, long end, long... sequences) {
+        return new QueryCache.CachedResult(first, end, rows(sequences), Collections.<ColumnMetadata>emptyList());
+    }
+
+    private static ScannedRows rows(long... sequences) {
+        ScannedRows rows = new ScannedRows();
+        for (long sequence : sequences) {
+            rows.add(sequence, new Row("message", new Cell("message " + sequence)));
+        }
+        return rows;
+    }
+
+    private static List<String> messages(QueryCache.CachedResult result) {
+        List<String> messages = new ArrayList<>();
+        for (Row row : result.toResultSet().getRows()) {
+            messages.add(row.getCell("message").getValue().toString());
+        }
+        return messages;
+    }
+
+    private static List<String> list(long... sequences) {
+        List<String> messages = new ArrayList<>();
+        for (long sequence : sequences) {
+            messages.add("message " + sequence);
+        }
+        return messages;
+    }
+}
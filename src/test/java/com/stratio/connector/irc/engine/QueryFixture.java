@@ -0,0 +1,163 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.stratio.connector.irc.manager.MessageStore;
+import com.stratio.crossdata.common.data.ClusterName;
+import com.stratio.crossdata.common.data.ColumnName;
+import com.stratio.crossdata.common.data.Row;
+import com.stratio.crossdata.common.data.TableName;
+import com.stratio.crossdata.common.exceptions.UnsupportedException;
+import com.stratio.crossdata.common.logicalplan.Filter;
+import com.stratio.crossdata.common.logicalplan.LogicalStep;
+import com.stratio.crossdata.common.logicalplan.LogicalWorkflow;
+import com.stratio.crossdata.common.logicalplan.Project;
+import com.stratio.crossdata.common.logicalplan.Select;
+import com.stratio.crossdata.common.metadata.ColumnType;
+import com.stratio.crossdata.common.metadata.Operations;
+import com.stratio.crossdata.common.statements.structures.ColumnSelector;
+import com.stratio.crossdata.common.statements.structures.Operator;
+import com.stratio.crossdata.common.statements.structures.Relation;
+import com.stratio.crossdata.common.statements.structures.Selector;
+import com.stratio.crossdata.common.statements.structures.StringSelector;
+
+/**
+ * Channels and logical workflows shared by the query engine tests.
+ */
+final class QueryFixture {
+
+    static final TableName TABLE = new TableName("irc", "chan");
+
+    static final ClusterName CLUSTER = new ClusterName("cluster");
+
+    /**
+     * Lines repeated over the messages of {@link #store(int, boolean)}, one per second.
+     */
+    static final String[] LINES = {
+            "deploy failed", "the build is green", "errors everywhere", "lunch?", "Error in the build",
+            "retry after error", "ok", "deployment done", "thanks" };
+
+    private QueryFixture() {
+    }
+
+    static MessageStore store(int messages, boolean indexed) {
+        MessageStore store = new MessageStore("#chan", messages, Long.MAX_VALUE);
+        for (int i = 0; i < messages; i++) {
+            store.append(1000L * i, "user" + i % 7, "host" + i % 3, LINES[i % LINES.length]);
+        }
+        if (indexed) {
+            store.createIndex();
+        }
+        return store;
+    }
+
+    static Filter match(String value) {
+        return filter("message", Operator.MATCH, value);
+    }
+
+    static Filter filter(String column, Operator operator, String value) {
+        return filter(column, operator, new StringSelector(value));
+    }
+
+    static Filter filter(String column, Operator operator, Selector value) {
+        return new Filter(Operations.FILTER_NON_INDEXED_MATCH, new Relation(
+                new ColumnSelector(new ColumnName(TABLE, column)), operator, value));
+    }
+
+    /**
+     * Build a projection of text columns aliased by their names.
+     * @param columns The columns.
+     * @return The select step.
+     */
+    static Select select(String... columns) {
+        Map<ColumnName, ColumnType> types = new LinkedHashMap<>();
+        for (String column : columns) {
+            types.put(new ColumnName(TABLE, column), ColumnType.VARCHAR);
+        }
+        return select(types);
+    }
+
+    static Select select(Map<ColumnName, ColumnType> types) {
+        Map<ColumnName, String> columnMap = new LinkedHashMap<>();
+        Map<String, ColumnType> typeMap = new LinkedHashMap<>();
+        for (Map.Entry<ColumnName, ColumnType> type : types.entrySet()) {
+            columnMap.put(type.getKey(), type.getKey().getName());
+            typeMap.put(type.getKey().getName(), type.getValue());
+        }
+        return new Select(Operations.SELECT_OPERATOR, columnMap, typeMap, types);
+    }
+
+    /**
+     * Build a workflow over the channel.
+     * @param steps The steps that follow the project step, in order.
+     * @return The workflow.
+     */
+    static LogicalWorkflow workflow(LogicalStep... steps) {
+        Project project = new Project(Operations.PROJECT, TABLE, CLUSTER);
+        LogicalStep last = project;
+        for (LogicalStep step : steps) {
+            last.setNextStep(step);
+            last = step;
+        }
+        return new LogicalWorkflow(Collections.<LogicalStep>singletonList(project));
+    }
+
+    static QueryPlan plan(LogicalStep... steps) throws UnsupportedException {
+        return QueryPlan.parse(workflow(steps));
+    }
+
+    static List<String> messages(ChannelScan scan) {
+        List<String> messages = new ArrayList<>();
+        while (scan.next()) {
+            messages.add(scan.getSegment().getMessage(scan.getRow()));
+        }
+        return messages;
+    }
+
+    /**
+     * Get the values of a column of some rows.
+     * @param rows The rows.
+     * @param column The alias of the column.
+     * @return The values.
+     */
+    static List<Object> values(List<Row> rows, String column) {
+        List<Object> values = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            values.add(row.getCell(column).getValue());
+        }
+        return values;
+    }
+
+    static List<Object> list(Object... values) {
+        return Arrays.asList(values);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.engine;
+
+import static com.stratio.connector.irc.engine.QueryFixture.LINES;
+import static com.stratio.connector.irc.engine.QueryFixture.filter;
+import static com.stratio.connector.irc.engine.QueryFixture.match;
+import static com.stratio.connector.irc.engine.QueryFixture.messages;
+import static com.stratio.connector.irc.engine.QueryFixture.plan;
+import static com.stratio.connector.irc.engine.QueryFixture.store;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.stratio.connector.irc.manager.ChannelSnapshot;
+import com.stratio.connector.irc.manager.Message;
+import com.stratio.connector.irc.manager.MessageStore;
+import com.stratio.crossdata.common.exceptions.UnsupportedException;
+import com.stratio.crossdata.common.statements.structures.IntegerSelector;
+import com.stratio.crossdata.common.statements.structures.Operator;
+
+public class QueryPlanTest {
+
+    @Test
+    public void searchesSingleWordsInTheIndex() throws UnsupportedException {
+        ChannelSnapshot indexed = store(900, true).snapshot();
+        ChannelSnapshot plain = store(900, false).snapshot();
+        QueryPlan plan = plan(match("error"));
+        List<String> expected = messages(plan.scan(plain, false));
+        ChannelScan scan = plan.scan(indexed, false);
+        assertEquals(messages(scan), expected);
+        assertEquals(expected.size(), 200);
+        assertTrue(scan.getExamined() < indexed.size() / 2, "Examined " + scan.getExamined() + " messages");
+    }
+
+    @Test
+    public void searchesTokenFragmentsInTheIndex() throws UnsupportedException {
+        ChannelSnapshot indexed = store(900, true).snapshot();
+        ChannelSnapshot plain = store(900, false).snapshot();
+        for (String value : new String[] { "ploy fail", "rror", "build is gr", "where", "missing" }) {
+            QueryPlan plan = plan(match(value));
+            ChannelScan scan = plan.scan(indexed, false);
+            assertEquals(messages(scan), messages(plan.scan(plain, false)), value);
+            assertTrue(scan.getExamined() <= 3 * 900 / LINES.length, value + " examined " + scan.getExamined());
+        }
+    }
+
+    @Test
+    public void scansEveryMessageForShortFragments() throws UnsupportedException {
+        ChannelSnapshot indexed = store(900, true).snapshot();
+        ChannelScan scan = plan(match("ok")).scan(indexed, false);
+        assertEquals(messages(scan).size(), 100);
+        assertEquals(scan.getExamined(), 900);
+    }
+
+    @Test
+    public void walksIndexCandidatesNewestFirst() throws UnsupportedException {
+        ChannelSnapshot indexed = store(900, true).snapshot();
+        QueryPlan plan = plan(match("deploy"));
+        List<String> forward = messages(plan.scan(indexed, false));
+        List<String> backward = messages(plan.scan(indexed, true));
+        Collections.reverse(backward);
+        assertEquals(backward, forward);
+        assertEquals(forward.size(), 200);
+    }
+
+    @Test
+    public void scansOnlyTheTimeRangeOfTheFilters() throws UnsupportedException {
+        MessageStore store = new MessageStore("#chan", 10000, Long.MAX_VALUE, 60000, 0);
+        for (int i = 0; i < 600; i++) {
+            store.append(1000L * i, "user", "host", "message " + i);
+        }
+        ChannelSnapshot snapshot = store.snapshot();
+        assertEquals(snapshot.getSegmentCount(), 10);
+        QueryPlan plan = plan(filter("timestamp", Operator.GET, new IntegerSelector(125000)),
+                filter("timestamp", Operator.LT, new IntegerSelector(130500)));
+        assertEquals(plan.getFromSequence(snapshot), 125);
+        assertEquals(plan.getToSequence(snapshot), 131);
+        ChannelScan scan = plan.scan(snapshot, false);
+        List<String> messages = messages(scan);
+        assertEquals(messages.size(), 6);
+        assertEquals(messages.get(0), "message 125");
+        assertEquals(scan.getExamined(), 6);
+    }
+
+    @Test
+    public void roundsFormattedBoundsToSeconds() throws UnsupportedException {
+        ChannelSnapshot snapshot = store(900, false).snapshot();
+        String second = Message.formatTimestamp(300000);
+        QueryPlan equal = plan(filter("timestamp", Operator.EQ, second));
+        assertEquals(equal.getFromSequence(snapshot), 300);
+        assertEquals(equal.getToSequence(snapshot), 301);
+        QueryPlan after = plan(filter("timestamp", Operator.GT, second));
+        assertEquals(after.getFromSequence(snapshot), 301);
+        assertEquals(after.getToSequence(snapshot), 900);
+        assertEquals(messages(plan(filter("timestamp", Operator.LET, second)).scan(snapshot, true)).size(), 301);
+    }
+}
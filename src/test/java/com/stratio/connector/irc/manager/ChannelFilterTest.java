@@ -0,0 +1,68 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class ChannelFilterTest {
+
+    @Test
+    public void acceptsEveryChannelWithoutPatterns() {
+        ChannelFilter filter = new ChannelFilter("", null);
+        assertTrue(filter.accepts("#anything"));
+        assertTrue(new ChannelFilter(" , ", " ").accepts("#anything"));
+    }
+
+    @Test
+    public void matchesGlobsIgnoringCase() {
+        ChannelFilter filter = new ChannelFilter("#dev-*, #ops?", "");
+        assertTrue(filter.accepts("#dev-backend"));
+        assertTrue(filter.accepts("#DEV-"));
+        assertTrue(filter.accepts("#ops1"));
+        assertFalse(filter.accepts("#ops"));
+        assertFalse(filter.accepts("#ops12"));
+        assertFalse(filter.accepts("#random"));
+    }
+
+    @Test
+    public void quotesRegularExpressionCharacters() {
+        ChannelFilter filter = new ChannelFilter("#c++, #a.b", "");
+        assertTrue(filter.accepts("#c++"));
+        assertTrue(filter.accepts("#a.b"));
+        assertFalse(filter.accepts("#axb"));
+        assertFalse(filter.accepts("#cc"));
+    }
+
+    @Test
+    public void excludesOverInclusions() {
+        ChannelFilter filter = new ChannelFilter("#dev-*", "#dev-secret*");
+        assertTrue(filter.accepts("#dev-backend"));
+        assertFalse(filter.accepts("#dev-secrets"));
+        assertFalse(new ChannelFilter(null, "*").accepts("#dev"));
+    }
+}
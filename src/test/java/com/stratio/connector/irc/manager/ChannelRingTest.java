@@ -0,0 +1,83 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class ChannelRingTest {
+
+    @Test
+    public void assignsChannelsIgnoringCase() {
+        ChannelRing ring = new ChannelRing(4);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ring.getNode("#Channel" + i), ring.getNode("#channel" + i));
+            assertEquals(ring.getNode("#channel" + i), new ChannelRing(4).getNode("#channel" + i));
+        }
+    }
+
+    @Test
+    public void spreadsChannelsEvenly() {
+        ChannelRing ring = new ChannelRing(4);
+        int[] channels = new int[4];
+        for (int i = 0; i < 4000; i++) {
+            channels[ring.getNode("#channel" + i)]++;
+        }
+        for (int node = 0; node < channels.length; node++) {
+            assertTrue(channels[node] > 600 && channels[node] < 1400, "Connection " + node + " owns "
+                    + channels[node] + " channels");
+        }
+    }
+
+    @Test
+    public void growingThePoolOnlyMovesChannelsToTheNewConnection() {
+        ChannelRing before = new ChannelRing(3);
+        ChannelRing after = new ChannelRing(4);
+        int moved = 0;
+        for (int i = 0; i < 4000; i++) {
+            int node = after.getNode("#channel" + i);
+            if (node != before.getNode("#channel" + i)) {
+                assertEquals(node, 3);
+                moved++;
+            }
+        }
+        assertTrue(moved > 600 && moved < 1400, "Moved " + moved + " channels");
+    }
+
+    @Test
+    public void singleConnectionOwnsEveryChannel() {
+        ChannelRing ring = new ChannelRing(1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ring.getNode("#channel" + i), 0);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void needsAConnection() {
+        new ChannelRing(0);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.stratio.connector.irc.engine.IRCQueryEngine;
+import com.stratio.crossdata.common.data.ClusterName;
+import com.stratio.crossdata.common.data.ColumnName;
+import com.stratio.crossdata.common.data.TableName;
+import com.stratio.crossdata.common.logicalplan.LogicalStep;
+import com.stratio.crossdata.common.logicalplan.LogicalWorkflow;
+import com.stratio.crossdata.common.logicalplan.Project;
+import com.stratio.crossdata.common.logicalplan.Select;
+import com.stratio.crossdata.common.metadata.ColumnType;
+import com.stratio.crossdata.common.metadata.Operations;
+
+public class IRCManagerTest {
+
+    private static final long TIMEOUT = 5000;
+
+    private LoopbackIRCServer server;
+    private IRCManager manager;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        server = new LoopbackIRCServer();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (manager != null) {
+            manager.disconnect();
+            manager = null;
+        }
+        server.close();
+    }
+
+    @Test
+    public void backsOffExponentiallyUpToTheMaximumDelay() {
+        assertEquals(IRCManager.getBackoff(0, 1000, 60000), 0);
+        for (int i = 0; i < 100; i++) {
+            assertBetween(IRCManager.getBackoff(1, 1000, 60000), 500, 1000);
+            assertBetween(IRCManager.getBackoff(3, 1000, 60000), 2000, 4000);
+            assertBetween(IRCManager.getBackoff(7, 1000, 60000), 30000, 60000);
+            assertBetween(IRCManager.getBackoff(1000, 1000, 60000), 30000, 60000);
+        }
+    }
+
+    @Test
+    public void saturatesInsteadOfOverflowing() {
+        for (int attempt = 1; attempt < 200; attempt++) {
+            assertBetween(IRCManager.getBackoff(attempt, Long.MAX_VALUE / 4, Long.MAX_VALUE), Long.MAX_VALUE / 8,
+                    Long.MAX_VALUE);
+            assertBetween(IRCManager.getBackoff(attempt, 1L << 40, 1L << 50), 1L << 39, 1L << 50);
+            assertBetween(IRCManager.getBackoff(attempt, 0, 0), 0, 1);
+        }
+        assertBetween(IRCManager.getBackoff(64, 1, Long.MAX_VALUE), Long.MAX_VALUE / 2, Long.MAX_VALUE);
+        assertBetween(IRCManager.getBackoff(60, 1L << 40, 1L << 50), 1L << 49, 1L << 50);
+    }
+
+    @Test
+    public void recordsAGapWhenTheConnectionIsRecovered() throws Exception {
+        Map<String, String> options = lazyOptions();
+        options.put(IRCOptions.RECONNECT_INITIAL_DELAY, "10");
+        connect(options);
+        manager.joinChannel("chan");
+        server.expect("JOIN #chan");
+        assertTrue(manager.getGaps("chan").isEmpty());
+        long dropped = System.currentTimeMillis();
+        server.drop();
+        server.expect("JOIN #chan");
+        List<MessageStore.Gap> gaps = awaitGaps("chan");
+        assertEquals(gaps.size(), 1);
+        assertTrue(gaps.get(0).getFrom() >= dropped - 1000, "Gap starts at " + gaps.get(0).getFrom());
+        assertTrue(gaps.get(0).getFrom() <= gaps.get(0).getTo());
+        assertTrue(manager.getGaps("other").isEmpty());
+    }
+
+    @Test
+    public void joinsOnlySelectedChannelsOnUse() throws Exception {
+        Map<String, String> options = lazyOptions();
+        options.put(IRCOptions.CHANNELS_INCLUDE, "#dev-*");
+        connect(options);
+        assertFalse(manager.useChannel("random"));
+        assertTrue(manager.useChannel("dev-backend"));
+        assertEquals(server.expect("JOIN"), "JOIN #dev-backend");
+    }
+
+    @Test
+    public void joinsOnUseOnlyWhenJoinsAreLazy() throws Exception {
+        Map<String, String> options = lazyOptions();
+        options.put(IRCOptions.CHANNELS_JOIN, "all");
+        connect(options);
+        server.expect("LIST");
+        assertFalse(manager.useChannel("chan"));
+        manager.joinChannel("joined");
+        assertTrue(manager.useChannel("joined"));
+        assertEquals(server.expect("JOIN"), "JOIN #joined");
+    }
+
+    @Test
+    public void partsTheLeastRecentlyUsedChannel() throws Exception {
+        Map<String, String> options = lazyOptions();
+        options.put(IRCOptions.CHANNELS_MAX, "2");
+        connect(options);
+        assertTrue(manager.useChannel("a"));
+        assertEquals(server.expect("JOIN"), "JOIN #a");
+        Thread.sleep(20);
+        assertTrue(manager.useChannel("b"));
+        assertEquals(server.expect("JOIN"), "JOIN #b");
+        Thread.sleep(20);
+        assertTrue(manager.useChannel("a"));
+        Thread.sleep(20);
+        assertTrue(manager.useChannel("c"));
+        assertEquals(server.expect("PART"), "PART #b");
+        assertEquals(server.expect("JOIN"), "JOIN #c");
+    }
+
+    @Test
+    public void queryingAChannelJoinsItWhenJoinsAreLazy() throws Exception {
+        connect(lazyOptions());
+        ClusterName cluster = new ClusterName("cluster");
+        TableName table = new TableName("irc", "chan");
+        Project project = new Project(Operations.PROJECT, table, cluster);
+        ColumnName message = new ColumnName(table, "message");
+        project.setNextStep(new Select(Operations.SELECT_OPERATOR, Collections.singletonMap(message, "message"),
+                Collections.singletonMap("message", ColumnType.VARCHAR),
+                Collections.singletonMap(message, ColumnType.VARCHAR)));
+        IRCQueryEngine engine = new IRCQueryEngine(Collections.singletonMap(cluster, manager));
+        try {
+            engine.execute(new LogicalWorkflow(Collections.<LogicalStep>singletonList(project)));
+            assertEquals(server.expect("JOIN"), "JOIN #chan");
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    private void connect(Map<String, String> options) throws Exception {
+        manager = new IRCManager(server.getAddress(), "bot", new IRCOptions(options));
+        manager.connect();
+    }
+
+    private static Map<String, String> lazyOptions() {
+        Map<String, String> options = new HashMap<>();
+        options.put(IRCOptions.CLIENT, "nio");
+        options.put(IRCOptions.CHANNELS_JOIN, "lazy");
+        return options;
+    }
+
+    private List<MessageStore.Gap> awaitGaps(String channel) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (manager.getGaps(channel).isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return manager.getGaps(channel);
+    }
+
+    private static void assertBetween(long value, long low, long high) {
+        assertTrue(value >= low && value <= high, value + " is not in [" + low + ", " + high + "]");
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class IngestQueueTest {
+
+    private static final long TIMEOUT = 5000;
+
+    @Test
+    public void appendsEveryMessageInOrder() {
+        RecordingConsumer consumer = new RecordingConsumer();
+        IngestQueue queue = new IngestQueue(consumer, "ingest-test", 16, IngestQueue.Overflow.BLOCK, 1);
+        queue.start();
+        for (int i = 0; i < 1000; i++) {
+            offer(queue, i);
+        }
+        queue.stop();
+        assertEquals(consumer.bodies().size(), 1000);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(consumer.bodies().get(i), String.valueOf(i));
+        }
+        assertEquals(queue.getReceived(), 1000);
+        assertEquals(queue.getAppended(), 1000);
+        assertEquals(queue.getDropped(), 0);
+    }
+
+    @Test
+    public void appendsOnTheCallerWhenNotStarted() {
+        RecordingConsumer consumer = new RecordingConsumer();
+        IngestQueue queue = new IngestQueue(consumer, "ingest-test", 16, IngestQueue.Overflow.BLOCK, 1);
+        offer(queue, 0);
+        assertEquals(consumer.bodies(), Arrays.asList("0"));
+        assertEquals(queue.getReceived(), 0);
+        assertEquals(queue.getAppended(), 1);
+    }
+
+    @Test
+    public void dropsTheOldestMessagesWhenFull() throws InterruptedException {
+        RecordingConsumer consumer = new RecordingConsumer();
+        IngestQueue queue = new IngestQueue(consumer, "ingest-test", 4, IngestQueue.Overflow.DROP_OLDEST, 1);
+        fillWhileStalled(queue, consumer, 11);
+        assertEquals(queue.getQueueDepth(), 4);
+        consumer.resume();
+        queue.stop();
+        assertEquals(consumer.bodies(), Arrays.asList("0", "7", "8", "9", "10"));
+        assertEquals(queue.getReceived(), 11);
+        assertEquals(queue.getDropped(), 6);
+        assertEquals(queue.getBlocked(), 0);
+    }
+
+    @Test
+    public void samplesTheMessagesWhenFull() throws InterruptedException {
+        RecordingConsumer consumer = new RecordingConsumer();
+        IngestQueue queue = new IngestQueue(consumer, "ingest-test", 4, IngestQueue.Overflow.SAMPLE, 3);
+        fillWhileStalled(queue, consumer, 14);
+        consumer.resume();
+        queue.stop();
+        assertEquals(consumer.bodies(), Arrays.asList("0", "4", "7", "10", "13"));
+        assertEquals(queue.getReceived(), 14);
+        assertEquals(queue.getDropped(), 9);
+        assertEquals(queue.getAppended(), 5);
+    }
+
+    @Test
+    public void blocksTheClientWhenFull() throws InterruptedException {
+        RecordingConsumer consumer = new RecordingConsumer();
+        final IngestQueue queue = new IngestQueue(consumer, "ingest-test", 2, IngestQueue.Overflow.BLOCK, 1);
+        fillWhileStalled(queue, consumer, 3);
+        Thread client = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                offer(queue, 3);
+            }
+        });
+        client.start();
+        client.join(200);
+        assertTrue(client.isAlive(), "The client did not block");
+        assertEquals(queue.getBlocked(), 1);
+        consumer.resume();
+        client.join(TIMEOUT);
+        assertFalse(client.isAlive(), "The client is still blocked");
+        queue.stop();
+        assertEquals(consumer.bodies(), Arrays.asList("0", "1", "2", "3"));
+        assertEquals(queue.getDropped(), 0);
+    }
+
+    @Test
+    public void appendsEachChannelRunAsOneOperation() throws InterruptedException {
+        RecordingConsumer consumer = new RecordingConsumer();
+        IngestQueue queue = new IngestQueue(consumer, "ingest-test", 8, IngestQueue.Overflow.BLOCK, 1);
+        fillWhileStalled(queue, consumer, 3);
+        queue.offer("#other", "user", "host", 1003L, "3".getBytes(StandardCharsets.UTF_8));
+        offer(queue, 4);
+        consumer.resume();
+        queue.stop();
+        assertEquals(consumer.bodies(), Arrays.asList("0", "1", "2", "3", "4"));
+        assertEquals(consumer.runs(), Arrays.asList(1, 2, 1, 1));
+        assertEquals(queue.getAppended(), 5);
+    }
+
+    @Test
+    public void offersWaitForTheQueuedMessagesWhenStopping() throws InterruptedException {
+        RecordingConsumer consumer = new RecordingConsumer();
+        final IngestQueue queue = new IngestQueue(consumer, "ingest-test", 16, IngestQueue.Overflow.BLOCK, 1);
+        fillWhileStalled(queue, consumer, 3);
+        Thread stopper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.stop();
+            }
+        });
+        stopper.start();
+        stopper.join(200);
+        assertTrue(stopper.isAlive(), "The queue stopped before appending its messages");
+        Thread client = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                offer(queue, 3);
+            }
+        });
+        client.start();
+        client.join(200);
+        assertTrue(client.isAlive(), "The offer did not wait for the ingest thread");
+        assertEquals(consumer.consuming(), 1);
+        consumer.resume();
+        stopper.join(TIMEOUT);
+        client.join(TIMEOUT);
+        assertFalse(client.isAlive(), "The offer is still waiting");
+        assertEquals(consumer.bodies(), Arrays.asList("0", "1", "2", "3"));
+        assertEquals(queue.getAppended(), 4);
+    }
+
+    /**
+     * Start the queue and offer messages while the consumer is stalled on the first one, so the rest stay queued.
+     */
+    private static void fillWhileStalled(IngestQueue queue, RecordingConsumer consumer, int messages)
+            throws InterruptedException {
+        consumer.stall();
+        queue.start();
+        offer(queue, 0);
+        assertTrue(consumer.stalled.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        for (int i = 1; i < messages; i++) {
+            offer(queue, i);
+        }
+    }
+
+    private static void offer(IngestQueue queue, int i) {
+        queue.offer("#chan", "user", "host", 1000L + i, String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class RecordingConsumer implements IngestQueue.Consumer {
+        private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Integer> runs = Collections.synchronizedList(new ArrayList<Integer>());
+        private final CountDownLatch stalled = new CountDownLatch(1);
+        private final AtomicInteger consuming = new AtomicInteger();
+        private volatile CountDownLatch resumed = new CountDownLatch(0);
+
+        @Override
+        public void consume(String channel, String user, String host, long timestamp, byte[] body) {
+            consuming.incrementAndGet();
+            stalled.countDown();
+            try {
+                resumed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            bodies.add(new String(body, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void consume(String channel, String[] users, String[] hosts, long[] timestamps, byte[][] bodies,
+                int from, int to) {
+            runs.add(to - from);
+            for (int i = from; i < to; i++) {
+                consume(channel, users[i], hosts[i], timestamps[i], bodies[i]);
+            }
+        }
+
+        private void stall() {
+            resumed = new CountDownLatch(1);
+        }
+
+        private void resume() {
+            resumed.countDown();
+        }
+
+        private List<String> bodies() {
+            return new ArrayList<>(bodies);
+        }
+
+        private int consuming() {
+            return consuming.get();
+        }
+
+        private List<Integer> runs() {
+            return new ArrayList<>(runs);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IRC server for the manager tests: it serves one client at a time, welcomes every client that registers and
+ * records the lines the clients send. Dropping the client lets the next connection in, as a server that restarts.
+ */
+final class LoopbackIRCServer implements AutoCloseable {
+
+    private static final long TIMEOUT = 5000;
+
+    private final ServerSocket server;
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private volatile Socket client;
+
+    LoopbackIRCServer() throws IOException {
+        this.server = new ServerSocket(0);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "loopback-irc");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String getAddress() {
+        return "localhost:" + server.getLocalPort();
+    }
+
+    private void serve() {
+        while (!server.isClosed()) {
+            try (Socket accepted = server.accept()) {
+                client = accepted;
+                BufferedReader in = new BufferedReader(new InputStreamReader(accepted.getInputStream(),
+                        StandardCharsets.UTF_8));
+                OutputStream out = accepted.getOutputStream();
+                String nick = "*";
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("NICK ")) {
+                        nick = line.substring(5);
+                    } else if (line.startsWith("USER ")) {
+                        out.write((":fake.irc 001 " + nick + " :Welcome\r\n").getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    }
+                    received.add(line);
+                }
+            } catch (IOException e) {
+                // Dropped by the test.
+            }
+        }
+    }
+
+    /**
+     * Wait for a line of a client starting with a prefix, skipping the lines before it.
+     * @param prefix The prefix.
+     * @return The line.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    String expect(String prefix) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (true) {
+            String line = received.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            if (line == null) {
+                throw new AssertionError("The client did not send " + prefix);
+            }
+            if (line.startsWith(prefix)) {
+                return line;
+            }
+        }
+    }
+
+    /**
+     * Close the connection of the current client.
+     */
+    void drop() throws IOException {
+        Socket current = client;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        drop();
+    }
+}
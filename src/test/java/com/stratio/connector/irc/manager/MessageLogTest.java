@@ -0,0 +1,193 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MessageLogTest {
+
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("irc-log").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Test
+    public void recoversTheMessagesWhenReopened() throws IOException {
+        MessageLog log = open(1024 * 1024, 0);
+        append(log, 0, 100);
+        log.close();
+
+        MessageLog reopened = open(1024 * 1024, 0);
+        assertEquals(reopened.getNextSequence(), 100);
+        assertEquals(reopened.getLastTimestamp(), 1099);
+        assertEquals(messages(reopened), list(0, 100));
+        append(reopened, 100, 1);
+        assertEquals(messages(reopened), list(0, 101));
+        reopened.close();
+    }
+
+    @Test
+    public void rollsFilesKeepingTheSequences() throws IOException {
+        MessageLog log = open(256, 0);
+        append(log, 0, 50);
+        log.close();
+        assertTrue(logFiles().length > 1, "Expected several log files");
+
+        MessageLog reopened = open(256, 0);
+        assertEquals(reopened.getNextSequence(), 50);
+        assertTrue(reopened.getSegments(50).size() > 1);
+        assertEquals(messages(reopened), list(0, 50));
+        reopened.close();
+    }
+
+    @Test
+    public void deletesTheOldestFilesWhenFull() throws IOException {
+        MessageLog log = open(256, 1024);
+        append(log, 0, 100);
+        List<MessageSegment> segments = log.getSegments(100);
+        long first = segments.get(0).getBaseSequence();
+        assertTrue(first > 0, "Expected the oldest files to be deleted");
+        assertTrue(log.getBytes() <= 1024 + 256);
+        assertEquals(messages(log), list((int) first, (int) (100 - first)));
+        log.close();
+    }
+
+    @Test
+    public void truncatesATornRecordAtTheEnd() throws IOException {
+        MessageLog log = open(1024 * 1024, 0);
+        append(log, 0, 10);
+        log.close();
+        File[] files = logFiles();
+        File newest = files[files.length - 1];
+        try (RandomAccessFile file = new RandomAccessFile(newest, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        MessageLog reopened = open(1024 * 1024, 0);
+        assertEquals(reopened.getNextSequence(), 9);
+        assertEquals(messages(reopened), list(0, 9));
+        append(reopened, 9, 2);
+        reopened.close();
+
+        MessageLog recovered = open(1024 * 1024, 0);
+        assertEquals(messages(recovered), list(0, 11));
+        recovered.close();
+    }
+
+    @Test
+    public void truncatesZeroedBytesAtTheEnd() throws IOException {
+        MessageLog log = open(1024 * 1024, 0);
+        append(log, 0, 5);
+        log.close();
+        File[] files = logFiles();
+        File newest = files[files.length - 1];
+        try (RandomAccessFile file = new RandomAccessFile(newest, "rw")) {
+            file.setLength(file.length() + 64);
+        }
+
+        MessageLog reopened = open(1024 * 1024, 0);
+        assertEquals(reopened.getNextSequence(), 5);
+        append(reopened, 5, 1);
+        assertEquals(messages(reopened), list(0, 6));
+        reopened.close();
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void rejectsMissingSequences() throws IOException {
+        MessageLog log = open(1024 * 1024, 0);
+        try {
+            append(log, 0, 2);
+            append(log, 3, 1);
+        } finally {
+            log.close();
+        }
+    }
+
+    private MessageLog open(long maxFileBytes, long maxBytes) throws IOException {
+        return MessageLog.open(directory, "#chan", maxFileBytes, maxBytes, 0, 1000);
+    }
+
+    private File[] logFiles() {
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static void append(MessageLog log, int first, int count) throws IOException {
+        for (int i = first; i < first + count; i++) {
+            log.append(i, 1000L + i, "user" + i % 10, "host",
+                    ("message " + i).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static List<String> messages(MessageLog log) {
+        List<String> messages = new ArrayList<>();
+        for (MessageSegment segment : log.getSegments(Long.MAX_VALUE)) {
+            for (int row = 0; row < segment.size(); row++) {
+                messages.add(segment.getMessage(row));
+            }
+        }
+        return messages;
+    }
+
+    private static List<String> list(int first, int count) {
+        List<String> messages = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            messages.add("message " + i);
+        }
+        return messages;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
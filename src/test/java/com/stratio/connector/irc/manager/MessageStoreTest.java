@@ -0,0 +1,194 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.Test;
+
+public class MessageStoreTest {
+
+    @Test
+    public void snapshotsAreNotChangedByLaterAppends() {
+        MessageStore store = new MessageStore("#chan", 1000, Long.MAX_VALUE);
+        append(store, 0, 3);
+        ChannelSnapshot before = store.snapshot();
+        append(store, 3, 2);
+        ChannelSnapshot after = store.snapshot();
+        assertEquals(before.size(), 3);
+        assertEquals(before.getEndSequence(), 3);
+        assertEquals(messages(before), list(0, 3));
+        assertEquals(after.size(), 5);
+        assertEquals(messages(after), list(0, 5));
+    }
+
+    @Test
+    public void evictsTheOldestSegmentsWhenFull() {
+        MessageStore store = new MessageStore("#chan", 160, Long.MAX_VALUE);
+        append(store, 0, 200);
+        ChannelSnapshot snapshot = store.snapshot();
+        assertEquals(snapshot.getFirstSequence(), 40);
+        assertEquals(snapshot.getEndSequence(), 200);
+        assertEquals(messages(snapshot), list(40, 160));
+        assertEquals(store.getNextSequence(), 200);
+    }
+
+    @Test
+    public void publishesCompleteRowsToConcurrentReaders() throws Exception {
+        final MessageStore store = new MessageStore("#chan", 4096, Long.MAX_VALUE);
+        final int total = 200000;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long end = 0;
+                    while (end < total) {
+                        ChannelSnapshot snapshot = store.snapshot();
+                        assertEquals(snapshot.getEndSequence() - snapshot.getFirstSequence(), snapshot.size());
+                        assertTrue(snapshot.getEndSequence() >= end, "The snapshots went back");
+                        for (int i = 0; i < snapshot.getSegmentCount(); i++) {
+                            MessageSegment segment = snapshot.getSegment(i);
+                            int rows = snapshot.getSegmentSize(i);
+                            for (int row = 0; row < rows; row++) {
+                                assertEquals(segment.getMessage(row), "message " + (segment.getBaseSequence() + row));
+                                assertEquals(segment.getUser(row), "user" + (segment.getBaseSequence() + row) % 10);
+                            }
+                        }
+                        end = snapshot.getEndSequence();
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        reader.start();
+        append(store, 0, total);
+        reader.join(30000);
+        if (failure.get() != null) {
+            throw new AssertionError("Inconsistent snapshot", failure.get());
+        }
+        assertTrue(!reader.isAlive(), "The reader did not see every message");
+    }
+
+    @Test
+    public void notifiesListenersInOrder() {
+        MessageStore store = new MessageStore("#chan", 1000, Long.MAX_VALUE);
+        final List<String> received = new ArrayList<>();
+        store.addListener(new MessageListener() {
+            @Override
+            public void onMessage(MessageSegment segment, int row) {
+                received.add(segment.getMessage(row));
+            }
+        });
+        append(store, 0, 3);
+        assertEquals(received, list(0, 3));
+    }
+
+    @Test
+    public void partitionsByTimeAndDropsExpiredPartitions() {
+        MessageStore store = new MessageStore("#chan", 10000, Long.MAX_VALUE, 60000, 120000);
+        long now = System.currentTimeMillis();
+        long start = now - 600000;
+        for (int i = 0; i < 600; i++) {
+            store.append(start + 1000L * i, "user", "host", "message " + i);
+        }
+        ChannelSnapshot snapshot = store.snapshot();
+        MessageSegment first = snapshot.getSegment(0);
+        assertTrue(first.getMaxTimestamp(first.size()) >= now - 120000, "An expired partition is visible");
+        assertTrue(first.getMinTimestamp() > now - 180000, "Expired partitions were kept");
+        assertEquals(snapshot.getFirstSequence(), (first.getMinTimestamp() - start) / 1000);
+        assertEquals(snapshot.size(), 600 - snapshot.getFirstSequence());
+        for (int i = 0; i < snapshot.getSegmentCount(); i++) {
+            MessageSegment segment = snapshot.getSegment(i);
+            assertEquals(segment.getMinTimestamp() / 60000, segment.getMaxTimestamp(segment.size()) / 60000);
+        }
+        assertEquals(snapshot.findSequence(start), snapshot.getFirstSequence());
+        assertEquals(snapshot.findSequence(start + 550500), 551);
+        assertEquals(snapshot.findSequence(Long.MAX_VALUE), 600);
+    }
+
+    @Test
+    public void findsTimestampsAcrossEmptySegments() {
+        StringDictionary dictionary = new StringDictionary();
+        MemorySegment full = new MemorySegment("#chan", 0, dictionary, 4);
+        for (int i = 0; i < 3; i++) {
+            full.append(1000L + i, dictionary.encode("user"), dictionary.encode("host"),
+                    ("message " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        MemorySegment empty = new MemorySegment("#chan", 3, dictionary, 4);
+        assertEquals(empty.getMaxTimestamp(0), Long.MIN_VALUE);
+        assertEquals(full.getMaxTimestamp(0), Long.MIN_VALUE);
+        ChannelSnapshot snapshot = new ChannelSnapshot(new MessageSegment[] { full, empty }, null);
+        assertEquals(snapshot.findSequence(1001), 1);
+        assertEquals(snapshot.findSequence(5000), 3);
+        assertEquals(snapshot.findSequence(0), 0);
+    }
+
+    @Test
+    public void keepsGapsApartFromTheMessages() {
+        MessageStore store = new MessageStore("#chan", 1000, Long.MAX_VALUE);
+        append(store, 0, 2);
+        for (int i = 0; i < 300; i++) {
+            store.addGap(i * 1000L, i * 1000L + 500);
+        }
+        assertEquals(store.size(), 2);
+        assertEquals(store.snapshot().size(), 2);
+        List<MessageStore.Gap> gaps = store.getGaps();
+        assertEquals(gaps.size(), 256);
+        assertEquals(gaps.get(0).getFrom(), 44000L);
+        assertEquals(gaps.get(255).getTo(), 299500L);
+    }
+
+    private static void append(MessageStore store, int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            store.append(1000L + i, "user" + i % 10, "host", "message " + i);
+        }
+    }
+
+    private static List<String> messages(ChannelSnapshot snapshot) {
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < snapshot.getSegmentCount(); i++) {
+            for (int row = 0; row < snapshot.getSegmentSize(i); row++) {
+                messages.add(snapshot.getSegment(i).getMessage(row));
+            }
+        }
+        return messages;
+    }
+
+    private static List<String> list(int first, int count) {
+        List<String> messages = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            messages.add("message " + i);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class OutboundQueueTest {
+
+    @Test
+    public void coalescesConsecutiveMessagesWithTheSameText() throws InterruptedException {
+        RecordingSender sender = new RecordingSender(true, 3);
+        OutboundQueue queue = new OutboundQueue(sender, "send", 100, 0, 1, 2);
+        assertTrue(queue.offer("#a", Arrays.asList("hi", "bye")));
+        assertTrue(queue.offer("#b", Arrays.asList("hi")));
+        assertTrue(queue.offer("#c", Arrays.asList("hi")));
+        queue.start();
+        sender.await();
+        queue.stop(System.nanoTime() + TimeUnit.SECONDS.toNanos(5));
+        assertEquals(sender.lines, Arrays.asList("[#a] hi", "[#a] bye", "[#b, #c] hi"));
+        assertEquals(queue.getSentMessages(), 4);
+        assertEquals(queue.getSentLines(), 3);
+    }
+
+    @Test
+    public void neverRepeatsAChannelInALine() throws InterruptedException {
+        RecordingSender sender = new RecordingSender(true, 3);
+        OutboundQueue queue = new OutboundQueue(sender, "send", 100, 0, 1, 5);
+        assertTrue(queue.offer("#a", Arrays.asList("same")));
+        assertTrue(queue.offer("#b", Arrays.asList("same")));
+        assertTrue(queue.offer("#a", Arrays.asList("same", "line\r\nbreak")));
+        queue.start();
+        sender.await();
+        queue.stop(System.nanoTime() + TimeUnit.SECONDS.toNanos(5));
+        assertEquals(sender.lines, Arrays.asList("[#a, #b] same", "[#a] same", "[#a] line  break"));
+    }
+
+    @Test
+    public void sendsABurstThenOneMessagePerInterval() throws InterruptedException {
+        RecordingSender sender = new RecordingSender(true, 6);
+        OutboundQueue queue = new OutboundQueue(sender, "send", 100, 100, 3, 1);
+        long start = System.nanoTime();
+        queue.start();
+        assertTrue(queue.offer("#a", Arrays.asList("1", "2", "3", "4", "5", "6")));
+        sender.await();
+        queue.stop(System.nanoTime() + TimeUnit.SECONDS.toNanos(5));
+        assertTrue(millis(start, sender.times.get(2)) < 90, "The burst was throttled");
+        assertTrue(millis(start, sender.times.get(3)) >= 90, "The fourth message did not wait for a token");
+        assertTrue(millis(start, sender.times.get(5)) >= 290, "The messages after the burst were not throttled");
+    }
+
+    @Test
+    public void acceptsEveryMessageOrNone() {
+        OutboundQueue queue = new OutboundQueue(new RecordingSender(true, 0), "send", 3, 0, 1, 1);
+        assertTrue(queue.offer("#a", Arrays.asList("1", "2")));
+        assertFalse(queue.offer("#a", Arrays.asList("3", "4")));
+        assertEquals(queue.getQueueDepth(), 2);
+        assertTrue(queue.offer("#a", Arrays.asList("3")));
+        assertEquals(queue.getQueueDepth(), 3);
+    }
+
+    @Test
+    public void discardsTheMessagesNotSentBeforeTheDeadline() {
+        RecordingSender sender = new RecordingSender(false, 0);
+        OutboundQueue queue = new OutboundQueue(sender, "send", 10, 0, 1, 1);
+        queue.start();
+        assertTrue(queue.offer("#a", Arrays.asList("1", "2")));
+        queue.stop(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(queue.getDiscarded(), 2);
+        assertEquals(queue.getQueueDepth(), 0);
+        assertFalse(queue.offer("#a", Arrays.asList("3")));
+        assertTrue(sender.lines.isEmpty());
+    }
+
+    private static long millis(long start, long end) {
+        return TimeUnit.NANOSECONDS.toMillis(end - start);
+    }
+
+    private static final class RecordingSender implements OutboundQueue.Sender {
+        private final boolean connected;
+        private final CountDownLatch sent;
+        private final List<String> lines = new ArrayList<>();
+        private final List<Long> times = new ArrayList<>();
+
+        private RecordingSender(boolean connected, int lines) {
+            this.connected = connected;
+            this.sent = new CountDownLatch(lines);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public void send(List<String> channels, String message) {
+            synchronized (this) {
+                lines.add(channels + " " + message);
+                times.add(System.nanoTime());
+            }
+            sent.countDown();
+        }
+
+        private void await() throws InterruptedException {
+            assertTrue(sent.await(10, TimeUnit.SECONDS), "Sent " + lines);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Stratio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.stratio.connector.irc.manager;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SnapshotFileTest {
+
+    private File directory;
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("irc-snapshot").toFile();
+        file = new File(directory, "snapshot");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Test
+    public void restoresTheWrittenMessages() throws IOException {
+        MessageStore first = new MessageStore("#first", 100000, Long.MAX_VALUE);
+        for (int i = 0; i < 20000; i++) {
+            first.append(1000L + i / 3, "user" + i % 17, "host" + i % 3, "message " + i + " \u00e9");
+        }
+        MessageStore second = new MessageStore("#second", 100000, Long.MAX_VALUE);
+        second.skipTo(42);
+        second.append(5000, "alice", "", "");
+
+        assertEquals(SnapshotFile.write(file, Arrays.asList(first, second)), 20001);
+        RecordingVisitor visitor = new RecordingVisitor();
+        SnapshotFile.read(file, visitor);
+
+        assertEquals(new ArrayList<>(visitor.nextSequences.keySet()), Arrays.asList("#first", "#second"));
+        assertEquals(visitor.nextSequences.get("#first"), Long.valueOf(20000));
+        assertEquals(visitor.nextSequences.get("#second"), Long.valueOf(43));
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            expected.add("#first " + i + " " + (1000L + i / 3) + " user" + i % 17 + "@host" + i % 3 + " message " + i
+                    + " \u00e9");
+        }
+        expected.add("#second 42 5000 alice@ ");
+        assertEquals(visitor.messages, expected);
+        assertFalse(new File(directory, "snapshot.tmp").exists());
+    }
+
+    @Test
+    public void writesOnlyTheSequenceOfLoggedChannels() throws IOException {
+        MessageLog log = MessageLog.open(new File(directory, "log"), "#logged", 1024 * 1024, 0, 0, 1000);
+        MessageStore logged = new MessageStore("#logged", 1000, Long.MAX_VALUE, 0, 0, log);
+        for (int i = 0; i < 10; i++) {
+            logged.append(1000L + i, "user", "host", "message " + i);
+        }
+        assertEquals(SnapshotFile.write(file, Arrays.asList(logged)), 0);
+        logged.close();
+
+        RecordingVisitor visitor = new RecordingVisitor();
+        SnapshotFile.read(file, visitor);
+        assertEquals(visitor.nextSequences.get("#logged"), Long.valueOf(10));
+        assertEquals(visitor.messages.size(), 0);
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Corrupt block.*")
+    public void rejectsCorruptBlocks() throws IOException {
+        write(1000);
+        try (RandomAccessFile corrupted = new RandomAccessFile(file, "rw")) {
+            long position = corrupted.length() - 20;
+            corrupted.seek(position);
+            int value = corrupted.read();
+            corrupted.seek(position);
+            corrupted.write(value ^ 0xFF);
+        }
+        SnapshotFile.read(file, new RecordingVisitor());
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Truncated snapshot.*")
+    public void rejectsTruncatedSnapshots() throws IOException {
+        write(1000);
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(truncated.length() - 1);
+        }
+        SnapshotFile.read(file, new RecordingVisitor());
+    }
+
+    private void write(int messages) throws IOException {
+        MessageStore store = new MessageStore("#chan", 100000, Long.MAX_VALUE);
+        for (int i = 0; i < messages; i++) {
+            store.append(1000L + i, "user" + i % 5, "host", "message " + i);
+        }
+        SnapshotFile.write(file, Arrays.asList(store));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static final class RecordingVisitor implements SnapshotFile.Visitor {
+        private final Map<String, Long> nextSequences = new LinkedHashMap<>();
+        private final List<String> messages = new ArrayList<>();
+        private String channel;
+
+        @Override
+        public void startChannel(String channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void message(long sequence, long timestamp, String user, String host, byte[] body) {
+            messages.add(channel + " " + sequence + " " + timestamp + " " + user + "@" + host + " "
+                    + new String(body, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void endChannel(String channel, long nextSequence) {
+            nextSequences.put(channel, nextSequence);
+        }
+    }
+}